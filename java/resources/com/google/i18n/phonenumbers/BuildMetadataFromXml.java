@@ -46,6 +46,18 @@ public class BuildMetadataFromXml {
   private static final Logger LOGGER = Logger.getLogger(BuildMetadataFromXml.class.getName());
   private static Boolean liteBuild;
 
+  // What happened to the regular expressions of a region when they were optimized: the total length
+  // of those optimized, before and after. Problems found with them are logged under the region.
+  private static final class RegexReport {
+    private final String regionCode;
+    private int lengthBeforeOptimizing = 0;
+    private int lengthAfterOptimizing = 0;
+
+    RegexReport(String regionCode) {
+      this.regionCode = regionCode;
+    }
+  }
+
   // Build the PhoneMetadataCollection from the input XML file.
   public static PhoneMetadataCollection buildPhoneMetadataCollection(String inputXmlFile,
       boolean liteBuild) throws Exception {
@@ -58,13 +70,22 @@ public class BuildMetadataFromXml {
     Element rootElement = document.getDocumentElement();
     NodeList territory = rootElement.getElementsByTagName("territory");
     PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
+    int totalLengthBeforeOptimizing = 0;
+    int totalLengthAfterOptimizing = 0;
     int numOfTerritories = territory.getLength();
     for (int i = 0; i < numOfTerritories; i++) {
       Element territoryElement = (Element) territory.item(i);
       String regionCode = territoryElement.getAttribute("id");
-      PhoneMetadata metadata = loadCountryMetadata(regionCode, territoryElement);
+      RegexReport report = new RegexReport(regionCode);
+      PhoneMetadata metadata = loadCountryMetadata(regionCode, territoryElement, report);
       metadataCollection.addMetadata(metadata);
+      totalLengthBeforeOptimizing += report.lengthBeforeOptimizing;
+      totalLengthAfterOptimizing += report.lengthAfterOptimizing;
+      LOGGER.log(Level.INFO, "Regular expressions of " + regionCode + ": " +
+                 report.lengthBeforeOptimizing + " -> " + report.lengthAfterOptimizing + " chars");
     }
+    LOGGER.log(Level.INFO, "Regular expressions of all regions: " + totalLengthBeforeOptimizing +
+               " -> " + totalLengthAfterOptimizing + " chars");
     return metadataCollection;
   }
 
@@ -111,12 +132,33 @@ public class BuildMetadataFromXml {
     return regex;
   }
 
-  private static PhoneMetadata loadCountryMetadata(String regionCode, Element element) {
+  /**
+   * Validates the regular expression like validateRE(), then simplifies it with RegexOptimizer and
+   * warns about any problems RegexOptimizer.lint() finds with it. This is only used for regular
+   * expressions whose text isn't used for anything but matching: the text of number format patterns
+   * is rewritten by AsYouTypeFormatter, and an international prefix made only of digits is used as
+   * it is when formatting. The lengths of the regular expression before and after are added to the
+   * report passed in.
+   */
+  private static String optimizeRE(String regex, boolean removeWhitespace, RegexReport report) {
+    regex = validateRE(regex, removeWhitespace);
+    for (String problem : RegexOptimizer.lint(regex)) {
+      LOGGER.log(Level.WARNING,
+                 "Regular expression of " + report.regionCode + " " + problem + ": " + regex);
+    }
+    String optimized = validateRE(RegexOptimizer.optimize(regex));
+    report.lengthBeforeOptimizing += regex.length();
+    report.lengthAfterOptimizing += optimized.length();
+    return optimized;
+  }
+
+  private static PhoneMetadata loadCountryMetadata(String regionCode, Element element,
+                                                   RegexReport report) {
     PhoneMetadata metadata = new PhoneMetadata();
     metadata.setId(regionCode);
     metadata.setCountryCode(Integer.parseInt(element.getAttribute("countryCode")));
     if (element.hasAttribute("leadingDigits")) {
-      metadata.setLeadingDigits(validateRE(element.getAttribute("leadingDigits")));
+      metadata.setLeadingDigits(optimizeRE(element.getAttribute("leadingDigits"), false, report));
     }
     metadata.setInternationalPrefix(validateRE(element.getAttribute("internationalPrefix")));
     if (element.hasAttribute("preferredInternationalPrefix")) {
@@ -134,7 +176,7 @@ public class BuildMetadataFromXml {
 
       if (element.hasAttribute("nationalPrefixForParsing")) {
         metadata.setNationalPrefixForParsing(
-            validateRE(element.getAttribute("nationalPrefixForParsing")));
+            optimizeRE(element.getAttribute("nationalPrefixForParsing"), false, report));
         if (element.hasAttribute("nationalPrefixTransformRule")) {
           metadata.setNationalPrefixTransformRule(
               validateRE(element.getAttribute("nationalPrefixTransformRule")));
@@ -170,7 +212,7 @@ public class BuildMetadataFromXml {
         } else {
           format.setDomesticCarrierCodeFormattingRule(carrierCodeFormattingRule);
         }
-        setLeadingDigitsPatterns(numberFormatElement, format);
+        setLeadingDigitsPatterns(numberFormatElement, format, report);
         format.setPattern(validateRE(numberFormatElement.getAttribute("pattern")));
         NodeList formatPattern = numberFormatElement.getElementsByTagName("format");
         if (formatPattern.getLength() != 1) {
@@ -190,7 +232,7 @@ public class BuildMetadataFromXml {
       for (int i = 0; i < numOfIntlFormatElements; i++) {
         Element numberFormatElement = (Element) intlNumberFormatElements.item(i);
         NumberFormat format = new NumberFormat();
-        setLeadingDigitsPatterns(numberFormatElement, format);
+        setLeadingDigitsPatterns(numberFormatElement, format, report);
         format.setPattern(validateRE(numberFormatElement.getAttribute("pattern")));
         NodeList formatPattern = numberFormatElement.getElementsByTagName("format");
         if (formatPattern.getLength() != 1) {
@@ -212,17 +254,20 @@ public class BuildMetadataFromXml {
     }
 
     PhoneNumberDesc generalDesc = new PhoneNumberDesc();
-    generalDesc = processPhoneNumberDescElement(generalDesc, element, "generalDesc");
+    generalDesc = processPhoneNumberDescElement(generalDesc, element, "generalDesc", report);
     metadata.setGeneralDesc(generalDesc);
-    metadata.setFixedLine(processPhoneNumberDescElement(generalDesc, element, "fixedLine"));
-    metadata.setMobile(processPhoneNumberDescElement(generalDesc, element, "mobile"));
-    metadata.setTollFree(processPhoneNumberDescElement(generalDesc, element, "tollFree"));
-    metadata.setPremiumRate(processPhoneNumberDescElement(generalDesc, element, "premiumRate"));
-    metadata.setSharedCost(processPhoneNumberDescElement(generalDesc, element, "sharedCost"));
-    metadata.setVoip(processPhoneNumberDescElement(generalDesc, element, "voip"));
+    metadata.setFixedLine(processPhoneNumberDescElement(generalDesc, element, "fixedLine",
+                                                        report));
+    metadata.setMobile(processPhoneNumberDescElement(generalDesc, element, "mobile", report));
+    metadata.setTollFree(processPhoneNumberDescElement(generalDesc, element, "tollFree", report));
+    metadata.setPremiumRate(processPhoneNumberDescElement(generalDesc, element, "premiumRate",
+                                                          report));
+    metadata.setSharedCost(processPhoneNumberDescElement(generalDesc, element, "sharedCost",
+                                                         report));
+    metadata.setVoip(processPhoneNumberDescElement(generalDesc, element, "voip", report));
     metadata.setPersonalNumber(processPhoneNumberDescElement(generalDesc, element,
-                                                             "personalNumber"));
-    metadata.setPager(processPhoneNumberDescElement(generalDesc, element, "pager"));
+                                                             "personalNumber", report));
+    metadata.setPager(processPhoneNumberDescElement(generalDesc, element, "pager", report));
 
     if (metadata.getMobile().getNationalNumberPattern().equals(
         metadata.getFixedLine().getNationalNumberPattern())) {
@@ -231,13 +276,15 @@ public class BuildMetadataFromXml {
     return metadata;
   }
 
-  private static void setLeadingDigitsPatterns(Element numberFormatElement, NumberFormat format) {
+  private static void setLeadingDigitsPatterns(Element numberFormatElement, NumberFormat format,
+                                               RegexReport report) {
     NodeList leadingDigitsPatternNodes = numberFormatElement.getElementsByTagName("leadingDigits");
     int numOfLeadingDigitsPatterns = leadingDigitsPatternNodes.getLength();
     if (numOfLeadingDigitsPatterns > 0) {
       for (int i = 0; i < numOfLeadingDigitsPatterns; i++) {
         format.addLeadingDigitsPattern(
-            validateRE((leadingDigitsPatternNodes.item(i)).getFirstChild().getNodeValue(), true));
+            optimizeRE((leadingDigitsPatternNodes.item(i)).getFirstChild().getNodeValue(), true,
+                       report));
       }
     }
   }
@@ -275,11 +322,13 @@ public class BuildMetadataFromXml {
    * @param countryElement  the XML element representing all the country information
    * @param numberType  the name of the number type, corresponding to the appropriate tag in the XML
    *                    file with information about that type
+   * @param report  the report of the regular expressions of the region
    * @return  complete description of that phone number type
    */
   private static PhoneNumberDesc processPhoneNumberDescElement(PhoneNumberDesc generalDesc,
                                                                Element countryElement,
-                                                               String numberType) {
+                                                               String numberType,
+                                                               RegexReport report) {
     NodeList phoneNumberDescList = countryElement.getElementsByTagName(numberType);
     PhoneNumberDesc numberDesc = new PhoneNumberDesc();
     if (phoneNumberDescList.getLength() == 0 &&
@@ -287,6 +336,7 @@ public class BuildMetadataFromXml {
          !numberType.equals("generalDesc"))) {
       numberDesc.setNationalNumberPattern("NA");
       numberDesc.setPossibleNumberPattern("NA");
+      setPossibleLengthMask(numberDesc);
       return numberDesc;
     }
     numberDesc.mergeFrom(generalDesc);
@@ -295,13 +345,13 @@ public class BuildMetadataFromXml {
       NodeList possiblePattern = element.getElementsByTagName("possibleNumberPattern");
       if (possiblePattern.getLength() > 0) {
         numberDesc.setPossibleNumberPattern(
-            validateRE(possiblePattern.item(0).getFirstChild().getNodeValue(), true));
+            optimizeRE(possiblePattern.item(0).getFirstChild().getNodeValue(), true, report));
       }
 
       NodeList validPattern = element.getElementsByTagName("nationalNumberPattern");
       if (validPattern.getLength() > 0) {
         numberDesc.setNationalNumberPattern(
-            validateRE(validPattern.item(0).getFirstChild().getNodeValue(), true));
+            optimizeRE(validPattern.item(0).getFirstChild().getNodeValue(), true, report));
       }
 
       if (!liteBuild) {
@@ -311,6 +361,23 @@ public class BuildMetadataFromXml {
         }
       }
     }
+    setPossibleLengthMask(numberDesc);
     return numberDesc;
   }
+
+  /**
+   * Works out the lengths of the numbers which may match the possible number pattern of the
+   * description, and stores them in it, so that numbers of other lengths can be rejected without
+   * running the pattern. Nothing is stored if the pattern is too complex to work this out.
+   */
+  private static void setPossibleLengthMask(PhoneNumberDesc numberDesc) {
+    if (!numberDesc.hasPossibleNumberPattern()) {
+      return;
+    }
+    DigitPatternMatcher matcher =
+        DigitPatternMatcher.compile(Pattern.compile(numberDesc.getPossibleNumberPattern()));
+    if (matcher.isCompiledToAutomaton()) {
+      numberDesc.setPossibleLengthMask(matcher.getPossibleLengthMask());
+    }
+  }
 }
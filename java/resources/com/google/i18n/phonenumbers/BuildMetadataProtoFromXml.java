@@ -16,14 +16,13 @@
 
 package com.google.i18n.phonenumbers;
 
-import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
 import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadataCollection;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
@@ -43,15 +42,15 @@ public class BuildMetadataProtoFromXml {
       "where:\n" +
       "  inputFile    The input file containing phone number metadata in XML format.\n" +
       "  outputDir    The output directory to store phone number metadata in proto\n" +
-      "               format (one file per region) and the country code to region code\n" +
-      "               mapping file.\n" +
+      "               format (one bundle holding all regions) and the country code to\n" +
+      "               region code mapping file.\n" +
       "  forTesting   Flag whether to generate metadata for testing purposes or not.\n" +
       "  liteBuild    Whether to generate the lite-version of the metadata (default:\n" +
       "               false). When set to true certain metadata will be omitted.\n" +
       "               At this moment, example numbers information is omitted.\n" +
       "\n" +
       "Metadata will be stored in:\n" +
-      "  <outputDir>" + PhoneNumberUtil.META_DATA_FILE_PREFIX + "_*\n" +
+      "  <outputDir>" + PhoneNumberUtil.META_DATA_FILE + "\n" +
       "Mapping file will be stored in:\n" +
       "  <outputDir>/" + PACKAGE_NAME.replaceAll("\\.", "/") + "/" +
           PhoneNumberUtil.COUNTRY_CODE_TO_REGION_CODE_MAP_CLASS_NAME + ".java\n" +
@@ -69,25 +68,19 @@ public class BuildMetadataProtoFromXml {
     boolean forTesting = args[2].equals("true");
     boolean liteBuild = args.length > 3 && args[3].equals("true");
 
-    String filePrefix;
+    String metadataFile;
     if (forTesting) {
-      filePrefix = outputDir + PhoneNumberUtilTest.TEST_META_DATA_FILE_PREFIX;
+      metadataFile = outputDir + PhoneNumberUtilTest.TEST_META_DATA_FILE;
     } else {
-      filePrefix = outputDir + PhoneNumberUtil.META_DATA_FILE_PREFIX;
+      metadataFile = outputDir + PhoneNumberUtil.META_DATA_FILE;
     }
 
     PhoneMetadataCollection metadataCollection =
         BuildMetadataFromXml.buildPhoneMetadataCollection(inputFile, liteBuild);
 
-    for (PhoneMetadata metadata : metadataCollection.getMetadataList()) {
-      String regionCode = metadata.getId();
-      PhoneMetadataCollection outMetadataCollection = new PhoneMetadataCollection();
-      outMetadataCollection.addMetadata(metadata);
-      FileOutputStream outputForRegion = new FileOutputStream(filePrefix + "_" + regionCode);
-      ObjectOutputStream out = new ObjectOutputStream(outputForRegion);
-      outMetadataCollection.writeExternal(out);
-      out.close();
-    }
+    BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(metadataFile));
+    MetadataBundle.write(metadataCollection, out);
+    out.close();
 
     Map<Integer, List<String>> countryCodeToRegionCodeMap =
         BuildMetadataFromXml.buildCountryCodeToRegionCodeMap(metadataCollection);
@@ -0,0 +1,620 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies the regular expressions of the metadata when it is built, and estimates how costly
+ * they are to match. The simplifications never change which strings a regular expression matches,
+ * nor the order in which the regular expression engine tries the ways of matching them, so the
+ * results of matches(), lookingAt(), end() and the capturing groups all stay the same:
+ * <ul>
+ * <li>non-capturing groups which are not needed are removed, as in 1(?:23)4 -> 1234 and
+ *     (?:\d){3} -> \d{3};
+ * <li>adjacent alternatives which are single digits or character classes are merged into one
+ *     class, as in 1|2|[5-7] -> [125-7];
+ * <li>the common leading digits of adjacent alternatives are factored out when that makes the
+ *     regular expression no longer, as in 12345\d|12346\d{2} -> 1234(?:5\d|6\d{2});
+ * <li>character classes are written in their shortest form, as in [0-9] -> \d and [1234] -> [1-4].
+ *     A class is only rewritten when its shortest form is strictly shorter, so [789] stays as it
+ *     is rather than becoming [7-9].
+ * </ul>
+ * Only the subset of the syntax used by the metadata is understood: regular expressions using
+ * anything else are left as they are.
+ */
+final class RegexOptimizer {
+  // The cost above which lint() reports a regular expression as expensive to match.
+  static final int MAX_COST = 1000;
+  // The number of repetitions counted for quantifiers with no upper bound.
+  private static final int UNBOUNDED_REPETITIONS = 20;
+
+  private static final int ALL_DIGITS = 0x3FF;
+
+  private RegexOptimizer() {
+  }
+
+  /**
+   * Returns the simplified form of the regular expression passed in, or the regular expression
+   * itself if it uses syntax which is not understood.
+   */
+  static String optimize(String regex) {
+    List<List<Item>> alternatives;
+    try {
+      alternatives = new Parser(regex).parse();
+    } catch (IllegalArgumentException e) {
+      return regex;
+    }
+    alternatives = optimizeAlternatives(alternatives);
+    // A non-capturing group holding the whole regular expression isn't needed either.
+    if (alternatives.size() == 1 && alternatives.get(0).size() == 1) {
+      Item item = alternatives.get(0).get(0);
+      if (item.quantifier.length() == 0 && item.atom instanceof Group &&
+          !((Group) item.atom).capturing) {
+        alternatives = ((Group) item.atom).alternatives;
+      }
+    }
+    StringBuffer optimized = new StringBuffer(regex.length());
+    appendAlternatives(alternatives, optimized);
+    return optimized.toString();
+  }
+
+  /**
+   * Returns an estimate of the number of steps the regular expression engine may take to match a
+   * string against the regular expression passed in, in the worst case, or -1 if it uses syntax
+   * which is not understood. Each alternative and each repetition counts, so the cost grows with
+   * the nesting of alternations inside repetitions.
+   */
+  static int estimateCost(String regex) {
+    try {
+      return costOfAlternatives(new Parser(regex).parse());
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the problems found with the regular expression passed in, which are worth looking at
+   * when the metadata is changed. The list is empty if there are none.
+   */
+  static List<String> lint(String regex) {
+    List<String> problems = new ArrayList<String>();
+    List<List<Item>> alternatives;
+    try {
+      alternatives = new Parser(regex).parse();
+    } catch (IllegalArgumentException e) {
+      problems.add("uses syntax the optimizer doesn't understand: " + e.getMessage());
+      return problems;
+    }
+    int cost = costOfAlternatives(alternatives);
+    if (cost > MAX_COST) {
+      problems.add("may take up to " + cost + " steps to match");
+    }
+    if (hasNestedUnboundedRepetition(alternatives, false)) {
+      problems.add("repeats an unbounded repetition, which may backtrack catastrophically");
+    }
+    return problems;
+  }
+
+  // An item of a sequence: an atom, followed by a quantifier, which is empty if there is none.
+  private static final class Item {
+    private final Atom atom;
+    private final String quantifier;
+    private final int maxRepetitions;
+
+    Item(Atom atom, String quantifier, int maxRepetitions) {
+      this.atom = atom;
+      this.quantifier = quantifier;
+      this.maxRepetitions = maxRepetitions;
+    }
+
+    Item(Atom atom) {
+      this(atom, "", 1);
+    }
+
+    // Whether this item matches exactly one digit in one way.
+    boolean isSingleDigit() {
+      return quantifier.length() == 0 && atom instanceof DigitSet;
+    }
+  }
+
+  private abstract static class Atom {
+    abstract void appendTo(StringBuffer regex);
+  }
+
+  // A set of digits, written as a digit, a character class or \d. A set parsed from the regular
+  // expression keeps the text it was written as, which is used unless the shortest form of the set
+  // is strictly shorter, so that the parts of a regular expression which can't be shortened stay
+  // as they were written.
+  private static final class DigitSet extends Atom {
+    private final int digits;
+    // The text the set was written as, or null if it was made by merging other sets.
+    private final String source;
+
+    DigitSet(int digits, String source) {
+      this.digits = digits;
+      this.source = source;
+    }
+
+    DigitSet(int digits) {
+      this(digits, null);
+    }
+
+    @Override
+    void appendTo(StringBuffer regex) {
+      int start = regex.length();
+      appendShortestForm(regex);
+      if (source != null && source.length() <= regex.length() - start) {
+        regex.setLength(start);
+        regex.append(source);
+      }
+    }
+
+    private void appendShortestForm(StringBuffer regex) {
+      if (digits == ALL_DIGITS) {
+        regex.append("\\d");
+        return;
+      }
+      if (Integer.bitCount(digits) == 1) {
+        regex.append((char) ('0' + Integer.numberOfTrailingZeros(digits)));
+        return;
+      }
+      regex.append('[');
+      int digit = 0;
+      while (digit < 10) {
+        if ((digits & (1 << digit)) == 0) {
+          digit++;
+          continue;
+        }
+        int last = digit;
+        while (last + 1 < 10 && (digits & (1 << (last + 1))) != 0) {
+          last++;
+        }
+        regex.append((char) ('0' + digit));
+        if (last - digit >= 2) {
+          regex.append('-');
+        }
+        if (last > digit) {
+          regex.append((char) ('0' + last));
+        }
+        digit = last + 1;
+      }
+      regex.append(']');
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof DigitSet && ((DigitSet) other).digits == digits;
+    }
+
+    @Override
+    public int hashCode() {
+      return digits;
+    }
+  }
+
+  // Anything else matching a single character, kept as it was written.
+  private static final class Literal extends Atom {
+    private final String text;
+
+    Literal(String text) {
+      this.text = text;
+    }
+
+    @Override
+    void appendTo(StringBuffer regex) {
+      regex.append(text);
+    }
+  }
+
+  private static final class Group extends Atom {
+    private final boolean capturing;
+    private final List<List<Item>> alternatives;
+
+    Group(boolean capturing, List<List<Item>> alternatives) {
+      this.capturing = capturing;
+      this.alternatives = alternatives;
+    }
+
+    @Override
+    void appendTo(StringBuffer regex) {
+      regex.append(capturing ? "(" : "(?:");
+      appendAlternatives(alternatives, regex);
+      regex.append(')');
+    }
+  }
+
+  private static void appendAlternatives(List<List<Item>> alternatives, StringBuffer regex) {
+    for (int i = 0; i < alternatives.size(); i++) {
+      if (i > 0) {
+        regex.append('|');
+      }
+      for (Item item : alternatives.get(i)) {
+        item.atom.appendTo(regex);
+        regex.append(item.quantifier);
+      }
+    }
+  }
+
+  /**
+   * A recursive descent parser for the supported subset of the regular expression syntax. It throws
+   * an IllegalArgumentException for anything else.
+   */
+  private static final class Parser {
+    private final String regex;
+    private int position = 0;
+
+    Parser(String regex) {
+      this.regex = regex;
+    }
+
+    List<List<Item>> parse() {
+      List<List<Item>> alternatives = parseAlternatives();
+      if (position != regex.length()) {
+        throw new IllegalArgumentException("unexpected " + regex.charAt(position));
+      }
+      return alternatives;
+    }
+
+    private boolean atEnd() {
+      return position >= regex.length();
+    }
+
+    private char peek() {
+      return regex.charAt(position);
+    }
+
+    private List<List<Item>> parseAlternatives() {
+      List<List<Item>> alternatives = new ArrayList<List<Item>>();
+      alternatives.add(parseSequence());
+      while (!atEnd() && peek() == '|') {
+        position++;
+        alternatives.add(parseSequence());
+      }
+      return alternatives;
+    }
+
+    private List<Item> parseSequence() {
+      List<Item> items = new ArrayList<Item>();
+      while (!atEnd() && peek() != '|' && peek() != ')') {
+        Atom atom = parseAtom();
+        int start = position;
+        int maxRepetitions = parseQuantifier();
+        items.add(new Item(atom, regex.substring(start, position), maxRepetitions));
+      }
+      return items;
+    }
+
+    // Parses the quantifier following an atom, if there is one, and returns the maximum number of
+    // repetitions it allows.
+    private int parseQuantifier() {
+      if (atEnd()) {
+        return 1;
+      }
+      int maxRepetitions;
+      char c = peek();
+      if (c == '?') {
+        position++;
+        maxRepetitions = 1;
+      } else if (c == '*' || c == '+') {
+        position++;
+        maxRepetitions = UNBOUNDED_REPETITIONS;
+      } else if (c == '{') {
+        int end = regex.indexOf('}', position);
+        if (end < 0) {
+          throw new IllegalArgumentException("unterminated quantifier");
+        }
+        String[] bounds = regex.substring(position + 1, end).split(",", -1);
+        try {
+          int min = Integer.parseInt(bounds[0]);
+          if (bounds.length == 1) {
+            maxRepetitions = min;
+          } else if (bounds.length == 2 && bounds[1].length() == 0) {
+            maxRepetitions = Math.max(min, UNBOUNDED_REPETITIONS);
+          } else if (bounds.length == 2) {
+            maxRepetitions = Integer.parseInt(bounds[1]);
+          } else {
+            throw new IllegalArgumentException("bad quantifier");
+          }
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("bad quantifier");
+        }
+        position = end + 1;
+      } else {
+        return 1;
+      }
+      // Reluctant and possessive quantifiers are kept as they are.
+      if (!atEnd() && (peek() == '?' || peek() == '+')) {
+        position++;
+      }
+      return maxRepetitions;
+    }
+
+    private Atom parseAtom() {
+      char c = peek();
+      position++;
+      switch (c) {
+        case '(':
+          boolean capturing = true;
+          if (!atEnd() && peek() == '?') {
+            if (position + 1 >= regex.length() || regex.charAt(position + 1) != ':') {
+              throw new IllegalArgumentException("special group");
+            }
+            capturing = false;
+            position += 2;
+          }
+          List<List<Item>> alternatives = parseAlternatives();
+          if (atEnd() || peek() != ')') {
+            throw new IllegalArgumentException("unterminated group");
+          }
+          position++;
+          return new Group(capturing, alternatives);
+        case '[':
+          return parseCharacterClass();
+        case '\\':
+          if (atEnd()) {
+            throw new IllegalArgumentException("trailing backslash");
+          }
+          char escaped = peek();
+          position++;
+          if (escaped == 'd') {
+            return new DigitSet(ALL_DIGITS, "\\d");
+          }
+          if (Character.isLetterOrDigit(escaped)) {
+            throw new IllegalArgumentException("\\" + escaped);
+          }
+          return new Literal("\\" + escaped);
+        case '.':
+        case '^':
+        case '$':
+        case ')':
+        case ']':
+        case '{':
+        case '}':
+        case '?':
+        case '*':
+        case '+':
+          throw new IllegalArgumentException(String.valueOf(c));
+        default:
+          if (c >= '0' && c <= '9') {
+            return new DigitSet(1 << (c - '0'), String.valueOf(c));
+          }
+          return new Literal(String.valueOf(c));
+      }
+    }
+
+    // Parses a character class, after the opening bracket. Classes holding only digits, ranges of
+    // digits and \d become digit sets; any other class is kept as it was written.
+    private Atom parseCharacterClass() {
+      int start = position - 1;
+      int end = regex.indexOf(']', position);
+      if (end < 0) {
+        throw new IllegalArgumentException("unterminated character class");
+      }
+      String contents = regex.substring(position, end);
+      if (contents.indexOf('[') >= 0) {
+        throw new IllegalArgumentException("nested character class");
+      }
+      position = end + 1;
+      int digits = 0;
+      for (int i = 0; i < contents.length(); i++) {
+        char c = contents.charAt(i);
+        if (c == '\\' && i + 1 < contents.length() && contents.charAt(i + 1) == 'd') {
+          digits = ALL_DIGITS;
+          i++;
+        } else if (c >= '0' && c <= '9' && i + 2 < contents.length() &&
+                   contents.charAt(i + 1) == '-') {
+          char last = contents.charAt(i + 2);
+          if (last < c || last > '9') {
+            return new Literal(regex.substring(start, position));
+          }
+          for (char d = c; d <= last; d++) {
+            digits |= 1 << (d - '0');
+          }
+          i += 2;
+        } else if (c >= '0' && c <= '9') {
+          digits |= 1 << (c - '0');
+        } else {
+          return new Literal(regex.substring(start, position));
+        }
+      }
+      if (digits == 0) {
+        return new Literal(regex.substring(start, position));
+      }
+      return new DigitSet(digits, regex.substring(start, position));
+    }
+  }
+
+  private static List<List<Item>> optimizeAlternatives(List<List<Item>> alternatives) {
+    List<List<Item>> optimized = new ArrayList<List<Item>>(alternatives.size());
+    for (List<Item> sequence : alternatives) {
+      optimized.add(optimizeSequence(sequence));
+    }
+    optimized = mergeSingleDigits(optimized);
+    return factorLeadingDigits(optimized);
+  }
+
+  private static List<Item> optimizeSequence(List<Item> sequence) {
+    List<Item> optimized = new ArrayList<Item>(sequence.size());
+    for (Item item : sequence) {
+      if (!(item.atom instanceof Group)) {
+        optimized.add(item);
+        continue;
+      }
+      Group group = (Group) item.atom;
+      List<List<Item>> alternatives = optimizeAlternatives(group.alternatives);
+      if (!group.capturing && alternatives.size() == 1) {
+        List<Item> onlyAlternative = alternatives.get(0);
+        if (item.quantifier.length() == 0) {
+          // (?:abc) in a sequence is just abc.
+          optimized.addAll(onlyAlternative);
+          continue;
+        }
+        if (onlyAlternative.size() == 1 && onlyAlternative.get(0).quantifier.length() == 0) {
+          // (?:a){3} is just a{3}.
+          optimized.add(new Item(onlyAlternative.get(0).atom, item.quantifier,
+                                 item.maxRepetitions));
+          continue;
+        }
+      }
+      optimized.add(new Item(new Group(group.capturing, alternatives), item.quantifier,
+                             item.maxRepetitions));
+    }
+    return optimized;
+  }
+
+  // Merges runs of adjacent alternatives which each match a single digit into one alternative.
+  // Each of them matches one character in one way, so whichever of them matches, the match is the
+  // same.
+  private static List<List<Item>> mergeSingleDigits(List<List<Item>> alternatives) {
+    List<List<Item>> merged = new ArrayList<List<Item>>(alternatives.size());
+    for (List<Item> sequence : alternatives) {
+      if (sequence.size() == 1 && sequence.get(0).isSingleDigit() && !merged.isEmpty()) {
+        List<Item> previous = merged.get(merged.size() - 1);
+        if (previous.size() == 1 && previous.get(0).isSingleDigit()) {
+          int digits = ((DigitSet) previous.get(0).atom).digits |
+              ((DigitSet) sequence.get(0).atom).digits;
+          List<Item> union = new ArrayList<Item>(1);
+          union.add(new Item(new DigitSet(digits)));
+          merged.set(merged.size() - 1, union);
+          continue;
+        }
+      }
+      merged.add(sequence);
+    }
+    return merged;
+  }
+
+  // Factors the digits which runs of adjacent alternatives start with out of them. Those digits
+  // match in only one way, so the engine tries the rest of the alternatives in the same order as
+  // before.
+  private static List<List<Item>> factorLeadingDigits(List<List<Item>> alternatives) {
+    List<List<Item>> factored = new ArrayList<List<Item>>(alternatives.size());
+    int i = 0;
+    while (i < alternatives.size()) {
+      List<Item> first = alternatives.get(i);
+      int end = i + 1;
+      while (end < alternatives.size() && !first.isEmpty() && first.get(0).isSingleDigit() &&
+             !alternatives.get(end).isEmpty() &&
+             alternatives.get(end).get(0).isSingleDigit() &&
+             alternatives.get(end).get(0).atom.equals(first.get(0).atom)) {
+        end++;
+      }
+      if (end - i < 2) {
+        factored.add(first);
+        i++;
+        continue;
+      }
+      List<List<Item>> run = alternatives.subList(i, end);
+      int prefixLength = commonPrefixLength(run);
+      List<List<Item>> suffixes = new ArrayList<List<Item>>(run.size());
+      boolean emptySuffixNotLast = false;
+      for (int j = 0; j < run.size(); j++) {
+        List<Item> suffix = new ArrayList<Item>(run.get(j).subList(prefixLength,
+                                                                   run.get(j).size()));
+        if (suffix.isEmpty() && j < run.size() - 1) {
+          emptySuffixNotLast = true;
+        }
+        suffixes.add(suffix);
+      }
+      if (emptySuffixNotLast) {
+        // Writing this as an optional group would change the order of the alternatives.
+        factored.addAll(run);
+        i = end;
+        continue;
+      }
+      List<Item> sequence = new ArrayList<Item>(run.get(0).subList(0, prefixLength));
+      String quantifier = "";
+      if (suffixes.get(suffixes.size() - 1).isEmpty()) {
+        // a(?:b|c|) is a(?:b|c)?, which tries the alternatives in the same order.
+        suffixes.remove(suffixes.size() - 1);
+        quantifier = "?";
+      }
+      List<Item> groupSequence = new ArrayList<Item>(1);
+      groupSequence.add(new Item(new Group(false, suffixes), quantifier, 1));
+      // Optimizing the group again merges and factors the suffixes, and removes the group if it's
+      // not needed.
+      sequence.addAll(optimizeSequence(groupSequence));
+      // The group around the suffixes may make the factored alternatives longer than they were.
+      List<List<Item>> factoredRun = new ArrayList<List<Item>>(1);
+      factoredRun.add(sequence);
+      if (lengthOf(factoredRun) <= lengthOf(run)) {
+        factored.add(sequence);
+      } else {
+        factored.addAll(run);
+      }
+      i = end;
+    }
+    return factored;
+  }
+
+  private static int lengthOf(List<List<Item>> alternatives) {
+    StringBuffer regex = new StringBuffer();
+    appendAlternatives(alternatives, regex);
+    return regex.length();
+  }
+
+  private static int commonPrefixLength(List<List<Item>> sequences) {
+    int length = 0;
+    while (true) {
+      Atom atom = null;
+      for (List<Item> sequence : sequences) {
+        if (length >= sequence.size() || !sequence.get(length).isSingleDigit()) {
+          return length;
+        }
+        if (atom == null) {
+          atom = sequence.get(length).atom;
+        } else if (!atom.equals(sequence.get(length).atom)) {
+          return length;
+        }
+      }
+      length++;
+    }
+  }
+
+  private static int costOfAlternatives(List<List<Item>> alternatives) {
+    int cost = 0;
+    for (List<Item> sequence : alternatives) {
+      for (Item item : sequence) {
+        int atomCost = item.atom instanceof Group
+            ? costOfAlternatives(((Group) item.atom).alternatives) : 1;
+        cost += item.maxRepetitions * atomCost;
+      }
+    }
+    return cost;
+  }
+
+  private static boolean hasNestedUnboundedRepetition(List<List<Item>> alternatives,
+                                                      boolean insideUnboundedRepetition) {
+    for (List<Item> sequence : alternatives) {
+      for (Item item : sequence) {
+        boolean unbounded = item.quantifier.startsWith("*") || item.quantifier.startsWith("+") ||
+            item.quantifier.matches("\\{\\d+,\\}.?");
+        if (unbounded && insideUnboundedRepetition) {
+          return true;
+        }
+        if (item.atom instanceof Group &&
+            hasNestedUnboundedRepetition(((Group) item.atom).alternatives,
+                                         insideUnboundedRepetition || unbounded)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -48,7 +48,10 @@ public class AsYouTypeFormatter {
   private boolean ableToFormat = true;
   private boolean isInternationalFormatting = false;
   private boolean isExpectingCountryCode = false;
-  private final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+  private final PhoneNumberUtil phoneUtil;
+  // The metadata in use when this formatter was created. It is used for the whole lifetime of the
+  // formatter, even if the metadata of phoneUtil is reloaded in the meantime.
+  private final MetadataSnapshot metadataSnapshot;
   private String defaultCountry;
   private PhoneMetadata defaultMetaData;
   private PhoneMetadata currentMetaData;
@@ -92,16 +95,19 @@ public class AsYouTypeFormatter {
    * Constructs a light-weight formatter which does no formatting, but outputs exactly what is
    * fed into the inputDigit method.
    *
+   * @param phoneUtil  the PhoneNumberUtil instance whose metadata is used for formatting
    * @param regionCode  the country/region where the phone number is being entered
    */
-  AsYouTypeFormatter(String regionCode) {
+  AsYouTypeFormatter(PhoneNumberUtil phoneUtil, String regionCode) {
+    this.phoneUtil = phoneUtil;
+    metadataSnapshot = phoneUtil.getMetadataSnapshot();
     defaultCountry = regionCode;
     initializeCountrySpecificInfo(defaultCountry);
     defaultMetaData = currentMetaData;
   }
 
   private void initializeCountrySpecificInfo(String regionCode) {
-    currentMetaData = phoneUtil.getMetadataForRegion(regionCode);
+    currentMetaData = phoneUtil.getMetadataForRegion(metadataSnapshot, regionCode);
     nationalPrefixForParsing =
         regexCache.getPatternForRegex(currentMetaData.getNationalPrefixForParsing());
     internationalPrefix =
@@ -244,7 +250,7 @@ public class AsYouTypeFormatter {
     }
     // We do formatting on-the-fly only when each character entered is either a plus sign or a
     // digit.
-    if (!PhoneNumberUtil.VALID_START_CHAR_PATTERN.matcher(Character.toString(nextChar)).matches()) {
+    if (!PhoneNumberScanner.isStartChar(nextChar)) {
       ableToFormat = false;
     }
     if (!ableToFormat) {
@@ -338,6 +344,13 @@ public class AsYouTypeFormatter {
     return currentOutputIndex;
   }
 
+  /**
+   * Returns the counters of the cache of regular expressions used by this formatter.
+   */
+  public RegexCacheStats getRegexCacheStats() {
+    return regexCache.getStats();
+  }
+
   // Attempts to set the formatting template and returns a string which contains the formatted
   // version of the digits entered so far.
   private String attemptToChooseFormattingPattern() {
@@ -448,8 +461,9 @@ public class AsYouTypeFormatter {
     if (nextChar == PhoneNumberUtil.PLUS_SIGN) {
       accruedInputWithoutFormatting.append(nextChar);
     }
-    if (PhoneNumberUtil.DIGIT_MAPPINGS.containsKey(nextChar)) {
-      nextChar = PhoneNumberUtil.DIGIT_MAPPINGS.get(nextChar);
+    char normalizedDigit = PhoneNumberUtil.DIGIT_TABLE.lookUp(nextChar);
+    if (normalizedDigit != NormalizationTable.NO_REPLACEMENT) {
+      nextChar = normalizedDigit;
       accruedInputWithoutFormatting.append(nextChar);
       nationalNumber.append(nextChar);
     }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ParseResult;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Statistics of a run of BatchNormalizer, as returned by BatchNormalizer.normalize(). All times are
+ * in nanoseconds.
+ */
+public final class BatchNormalizationStats {
+  private final long lineCount;
+  private final Map<ParseResult, Long> lineCountByResult;
+  private final int chunkCount;
+  private final long elapsedTime;
+
+  BatchNormalizationStats(long[] lineCountByResult, int chunkCount, long elapsedTime) {
+    Map<ParseResult, Long> counts = new EnumMap<ParseResult, Long>(ParseResult.class);
+    long lines = 0;
+    for (ParseResult result : ParseResult.values()) {
+      long count = lineCountByResult[result.ordinal()];
+      if (count > 0) {
+        counts.put(result, count);
+        lines += count;
+      }
+    }
+    this.lineCount = lines;
+    this.lineCountByResult = Collections.unmodifiableMap(counts);
+    this.chunkCount = chunkCount;
+    this.elapsedTime = elapsedTime;
+  }
+
+  /**
+   * Returns the number of lines read, which is also the number of lines written.
+   */
+  public long getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Returns the number of lines whose number was parsed and written in E164 format.
+   */
+  public long getNormalizedLineCount() {
+    return getLineCount(ParseResult.SUCCESS);
+  }
+
+  /**
+   * Returns the number of lines for which parsing had the result passed in.
+   */
+  public long getLineCount(ParseResult result) {
+    Long count = lineCountByResult.get(result);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Returns the number of lines for each result of parsing which at least one line had.
+   */
+  public Map<ParseResult, Long> getLineCountByResult() {
+    return lineCountByResult;
+  }
+
+  /**
+   * Returns the number of chunks the input was split into.
+   */
+  public int getChunkCount() {
+    return chunkCount;
+  }
+
+  /**
+   * Returns the time taken by the whole run, from opening the input to closing the output.
+   */
+  public long getElapsedTime() {
+    return elapsedTime;
+  }
+
+  @Override
+  public String toString() {
+    return "Normalized " + getNormalizedLineCount() + " of " + lineCount + " lines in " +
+        chunkCount + " chunks in " + elapsedTime / 1000000 + " ms, " + lineCountByResult;
+  }
+}
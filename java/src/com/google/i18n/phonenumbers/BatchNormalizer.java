@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ParseResult;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Normalizes files of phone numbers, one per line, to E164 format. The input file is memory-mapped
+ * and split on line boundaries into chunks, which are parsed and formatted in parallel on an
+ * executor, and the output is written in the order of the input.
+ *
+ * The input is read as UTF-8, and each of its lines is parsed as by PhoneNumberUtil.tryParse() with
+ * the default region of the normalizer. For each input line, one output line is written: the
+ * number in E164 format if it could be parsed, and otherwise the name of the ParseResult saying why
+ * it couldn't, such as NOT_A_NUMBER. Since numbers in E164 format start with a plus sign, the two
+ * can't be mistaken for each other. Lines may end with "\n" or "\r\n", and the output lines end
+ * with "\n".
+ *
+ * A BatchNormalizer can be used by several threads at once.
+ */
+public final class BatchNormalizer {
+  /**
+   * The default size of the chunks the input is split into, in bytes.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+  /**
+   * The default number of chunks which may be read or normalized but not yet written at any time.
+   */
+  public static final int DEFAULT_MAX_PENDING_CHUNKS = 32;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // How many bytes are read at a time when looking for the end of a line.
+  private static final int LINE_END_SEARCH_SIZE = 256;
+
+  private final PhoneNumberUtil phoneUtil;
+  private final String defaultCountry;
+  private final int chunkSize;
+  private final int maxPendingChunks;
+
+  /**
+   * Creates a normalizer with the default chunk size and number of pending chunks.
+   *
+   * @param phoneUtil  the PhoneNumberUtil which parses and formats the numbers
+   * @param defaultCountry  the region of the numbers which aren't written in international format,
+   *     as for PhoneNumberUtil.parse(). May be null if all numbers start with a plus sign.
+   */
+  public BatchNormalizer(PhoneNumberUtil phoneUtil, String defaultCountry) {
+    this(phoneUtil, defaultCountry, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_PENDING_CHUNKS);
+  }
+
+  /**
+   * Creates a normalizer. The memory it takes while running grows with the product of the chunk
+   * size and the number of pending chunks, and the number of pending chunks should be at least the
+   * number of threads of the executors it is run on.
+   *
+   * @param phoneUtil  the PhoneNumberUtil which parses and formats the numbers
+   * @param defaultCountry  the region of the numbers which aren't written in international format
+   * @param chunkSize  the size of the chunks the input is split into, in bytes. A chunk is extended
+   *     to the end of the line it would end in.
+   * @param maxPendingChunks  the number of chunks which may be read or normalized, but not yet
+   *     written, at any time
+   */
+  public BatchNormalizer(PhoneNumberUtil phoneUtil, String defaultCountry, int chunkSize,
+                         int maxPendingChunks) {
+    if (chunkSize <= 0 || maxPendingChunks <= 0) {
+      throw new IllegalArgumentException("The chunk size and number of pending chunks must be " +
+                                         "positive");
+    }
+    this.phoneUtil = phoneUtil;
+    this.defaultCountry = defaultCountry;
+    this.chunkSize = chunkSize;
+    this.maxPendingChunks = maxPendingChunks;
+  }
+
+  /**
+   * Normalizes each line of the input file, writing the results to the output file, which is
+   * replaced if it exists. Each chunk is normalized by a separate task run on the executor passed
+   * in, such as a thread pool with a thread per core, and this method blocks until all of them
+   * have finished and their output has been written.
+   *
+   * @param input  the file of phone numbers to normalize
+   * @param output  the file to write the normalized numbers and error codes to
+   * @param executor  the executor on which the chunks are normalized
+   * @return  statistics of the run
+   * @throws IOException  if the input can't be read or the output can't be written
+   * @throws InterruptedException  if the calling thread is interrupted while waiting for the
+   *     chunks to be normalized. The output is left incomplete in this case.
+   */
+  public BatchNormalizationStats normalize(File input, File output, Executor executor)
+      throws IOException, InterruptedException {
+    long startTime = System.nanoTime();
+    long[] lineCountByResult = new long[ParseResult.values().length];
+    int chunkCount = 0;
+    LinkedList<FutureTask<NormalizedChunk>> pendingChunks =
+        new LinkedList<FutureTask<NormalizedChunk>>();
+    FileInputStream inputStream = new FileInputStream(input);
+    try {
+      OutputStream outputStream = new FileOutputStream(output);
+      try {
+        final FileChannel channel = inputStream.getChannel();
+        long size = channel.size();
+        long chunkStart = 0;
+        while (chunkStart < size) {
+          final long start = chunkStart;
+          final long end = findLineEnd(channel, Math.min(start + chunkSize, size), size);
+          FutureTask<NormalizedChunk> task =
+              new FutureTask<NormalizedChunk>(new Callable<NormalizedChunk>() {
+                public NormalizedChunk call() throws IOException {
+                  return normalizeChunk(channel, start, end);
+                }
+              });
+          pendingChunks.add(task);
+          executor.execute(task);
+          chunkCount++;
+          chunkStart = end;
+          if (pendingChunks.size() >= maxPendingChunks) {
+            writeChunk(pendingChunks.removeFirst(), outputStream, lineCountByResult);
+          }
+        }
+        while (!pendingChunks.isEmpty()) {
+          writeChunk(pendingChunks.removeFirst(), outputStream, lineCountByResult);
+        }
+      } finally {
+        outputStream.close();
+      }
+    } finally {
+      // Chunks still pending after a failure are of no use.
+      for (FutureTask<NormalizedChunk> task : pendingChunks) {
+        task.cancel(false);
+      }
+      inputStream.close();
+    }
+    return new BatchNormalizationStats(lineCountByResult, chunkCount,
+                                       System.nanoTime() - startTime);
+  }
+
+  // Returns the position after the first line break at or after position, or size if there is
+  // none.
+  private static long findLineEnd(FileChannel channel, long position, long size)
+      throws IOException {
+    if (position >= size) {
+      return size;
+    }
+    // The chunk includes the byte at position - 1, which may already end a line.
+    ByteBuffer buffer = ByteBuffer.allocate(LINE_END_SEARCH_SIZE);
+    long searchStart = position - 1;
+    while (searchStart < size) {
+      buffer.clear();
+      int read = channel.read(buffer, searchStart);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return searchStart + i + 1;
+        }
+      }
+      searchStart += read;
+    }
+    return size;
+  }
+
+  // Waits for the chunk to be normalized, and writes its output.
+  private static void writeChunk(FutureTask<NormalizedChunk> task, OutputStream outputStream,
+                                 long[] lineCountByResult)
+      throws IOException, InterruptedException {
+    NormalizedChunk chunk;
+    try {
+      chunk = task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    outputStream.write(chunk.output, 0, chunk.outputLength);
+    for (int i = 0; i < lineCountByResult.length; i++) {
+      lineCountByResult[i] += chunk.lineCountByResult[i];
+    }
+  }
+
+  // Normalizes the lines of the input between start and end, which are at line boundaries.
+  private NormalizedChunk normalizeChunk(FileChannel channel, long start, long end)
+      throws IOException {
+    ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    // A line break never occurs inside a multi-byte character in UTF-8, so each chunk can be
+    // decoded on its own.
+    CharsetDecoder decoder = UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    CharBuffer text = decoder.decode(bytes);
+    // A view of the current line, which is parsed without being copied.
+    CharBuffer line = text.duplicate();
+    int textEnd = text.limit();
+    NormalizedChunk chunk = new NormalizedChunk(textEnd);
+    PhoneNumber number = new PhoneNumber();
+    ParseContext context = new ParseContext();
+    StringBuffer formattedNumber = new StringBuffer(20);
+    int lineStart = text.position();
+    while (lineStart < textEnd) {
+      int lineEnd = lineStart;
+      while (lineEnd < textEnd && text.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      int nextLineStart = lineEnd < textEnd ? lineEnd + 1 : lineEnd;
+      if (lineEnd > lineStart && text.get(lineEnd - 1) == '\r') {
+        lineEnd--;
+      }
+      line.limit(lineEnd);
+      line.position(lineStart);
+      number.clear();
+      ParseResult result = phoneUtil.tryParse(line, defaultCountry, number, context);
+      if (result == ParseResult.SUCCESS) {
+        phoneUtil.format(number, PhoneNumberFormat.E164, formattedNumber);
+        chunk.appendLine(formattedNumber);
+      } else {
+        chunk.appendLine(result.name());
+      }
+      chunk.lineCountByResult[result.ordinal()]++;
+      lineStart = nextLineStart;
+    }
+    return chunk;
+  }
+
+  // The output of a chunk, and how many of its lines had each result.
+  private static final class NormalizedChunk {
+    byte[] output;
+    int outputLength;
+    final long[] lineCountByResult = new long[ParseResult.values().length];
+
+    NormalizedChunk(int inputLength) {
+      // Numbers in E164 format are usually no longer than the lines they are parsed from.
+      output = new byte[inputLength + 16];
+    }
+
+    // Appends the text, which is ASCII, and a line break.
+    void appendLine(CharSequence text) {
+      int length = text.length();
+      if (outputLength + length + 1 > output.length) {
+        byte[] newOutput = new byte[Math.max(output.length * 2, outputLength + length + 1)];
+        System.arraycopy(output, 0, newOutput, 0, outputLength);
+        output = newOutput;
+      }
+      for (int i = 0; i < length; i++) {
+        output[outputLength++] = (byte) text.charAt(i);
+      }
+      output[outputLength++] = '\n';
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+
+import java.io.IOException;
+
+/**
+ * Base class of the metadata sources that read their metadata from a MetadataBundle. The bundle is
+ * opened the first time metadata is loaded from the source.
+ */
+abstract class BundleMetadataSource implements MetadataSource {
+  private volatile MetadataBundle bundle;
+
+  /**
+   * Opens the bundle this source reads from. This is called at most once, unless it fails.
+   */
+  abstract MetadataBundle openBundle() throws IOException;
+
+  public PhoneMetadata loadMetadataForRegion(String regionCode) throws IOException {
+    return getBundle().getMetadataForRegion(regionCode);
+  }
+
+  MetadataBundle getBundle() throws IOException {
+    MetadataBundle result = bundle;
+    if (result == null) {
+      synchronized (this) {
+        result = bundle;
+        if (result == null) {
+          result = openBundle();
+          bundle = result;
+        }
+      }
+    }
+    return result;
+  }
+}
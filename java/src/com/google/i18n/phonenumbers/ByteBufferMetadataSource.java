@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A MetadataSource that reads a metadata bundle which is already in memory, for example in a byte
+ * array or in a buffer that the caller has memory-mapped. The bytes are not copied, so they must
+ * not be modified while the source is in use.
+ */
+public final class ByteBufferMetadataSource extends BundleMetadataSource {
+  private final ByteBuffer buffer;
+
+  /**
+   * Creates a source reading the metadata bundle held in the byte array passed in.
+   */
+  public ByteBufferMetadataSource(byte[] bundle) {
+    this(ByteBuffer.wrap(bundle));
+  }
+
+  /**
+   * Creates a source reading the metadata bundle held in the buffer passed in, from its current
+   * position to its limit. The position and limit of the buffer are not changed.
+   */
+  public ByteBufferMetadataSource(ByteBuffer bundle) {
+    this.buffer = bundle.slice();
+  }
+
+  @Override
+  MetadataBundle openBundle() throws IOException {
+    return MetadataBundle.readFrom(buffer);
+  }
+}
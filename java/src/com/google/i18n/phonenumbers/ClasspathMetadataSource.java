@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.io.IOException;
+
+/**
+ * A MetadataSource that reads a metadata bundle from the classpath. This is the source used by
+ * PhoneNumberUtil.getInstance(). The bundle is memory-mapped when it is a plain file, and otherwise
+ * (for example, when it is packaged in a jar) read into memory once.
+ */
+public final class ClasspathMetadataSource extends BundleMetadataSource {
+  private final String bundleName;
+
+  /**
+   * Creates a source reading the metadata bundle that is packaged with the library.
+   */
+  public ClasspathMetadataSource() {
+    this(PhoneNumberUtil.META_DATA_FILE);
+  }
+
+  /**
+   * Creates a source reading the metadata bundle with the name passed in from the classpath.
+   *
+   * @param bundleName  the absolute resource name of the bundle, such as
+   *     "/com/google/i18n/phonenumbers/data/PhoneNumberMetadataProto"
+   */
+  public ClasspathMetadataSource(String bundleName) {
+    this.bundleName = bundleName;
+  }
+
+  @Override
+  MetadataBundle openBundle() throws IOException {
+    return MetadataBundle.loadFromClasspath(bundleName);
+  }
+}
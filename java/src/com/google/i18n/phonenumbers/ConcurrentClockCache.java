@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache which can be read by many threads at once without locking. When the cache is
+ * full, entries are evicted with the CLOCK algorithm, an approximation of LRU: each entry has a
+ * referenced bit which is set when the entry is read, and a clock hand sweeps over the entries,
+ * clearing the bits it finds set and evicting the first entry whose bit is already clear.
+ *
+ * Unlike an access-ordered LinkedHashMap, a read only sets a flag on the entry (and only when it
+ * is not set already), so reads by different threads don't contend with each other. Adding entries
+ * takes a lock, but this only happens on a cache miss.
+ *
+ * @param <K>  the type of the keys
+ * @param <V>  the type of the values
+ */
+final class ConcurrentClockCache<K, V> {
+  private final ConcurrentHashMap<K, Entry<K, V>> map;
+
+  // The entries in the order the clock hand visits them. Guarded by the lock of the array.
+  private final Entry<K, V>[] clock;
+  private int entryCount = 0;
+  private int hand = 0;
+  private long evictionCount = 0;
+
+  private static final class Entry<K, V> {
+    private final K key;
+    private final V value;
+    // Set when the entry is read, and cleared when the clock hand passes over it.
+    private volatile boolean referenced = false;
+
+    Entry(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  ConcurrentClockCache(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("The size of the cache must be positive: " + size);
+    }
+    map = new ConcurrentHashMap<K, Entry<K, V>>(size * 4 / 3 + 1);
+    clock = (Entry<K, V>[]) new Entry<?, ?>[size];
+  }
+
+  /**
+   * Returns the value cached for the key passed in, or null if there is none.
+   */
+  V get(K key) {
+    Entry<K, V> entry = map.get(key);
+    if (entry == null) {
+      return null;
+    }
+    // Only write to the entry when the bit is clear, so that threads reading the same entry over
+    // and over don't keep invalidating each other's copy of it.
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Adds a value to the cache unless there is one for the key already, evicting another entry if
+   * the cache is full. Returns the value which is cached for the key afterwards, so that threads
+   * which computed a value for the same key at the same time all end up using the same one.
+   */
+  V putIfAbsent(K key, V value) {
+    synchronized (clock) {
+      Entry<K, V> existingEntry = map.get(key);
+      if (existingEntry != null) {
+        return existingEntry.value;
+      }
+      Entry<K, V> entry = new Entry<K, V>(key, value);
+      if (entryCount < clock.length) {
+        clock[entryCount++] = entry;
+      } else {
+        while (clock[hand].referenced) {
+          clock[hand].referenced = false;
+          hand = (hand + 1) % clock.length;
+        }
+        map.remove(clock[hand].key);
+        evictionCount++;
+        clock[hand] = entry;
+        hand = (hand + 1) % clock.length;
+      }
+      map.put(key, entry);
+      return value;
+    }
+  }
+
+  boolean containsKey(K key) {
+    return map.containsKey(key);
+  }
+
+  int size() {
+    return map.size();
+  }
+
+  int maxSize() {
+    return clock.length;
+  }
+
+  /**
+   * Returns the number of entries evicted to make room for others since the cache was created.
+   */
+  long getEvictionCount() {
+    synchronized (clock) {
+      return evictionCount;
+    }
+  }
+}
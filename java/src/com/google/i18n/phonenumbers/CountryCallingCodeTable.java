@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The region codes of each country calling code, held in an array indexed by the calling code so
+ * that looking a calling code up neither boxes it nor hashes it. Calling codes have at most three
+ * digits, so the array has 1000 entries, most of which are empty.
+ */
+final class CountryCallingCodeTable {
+  // One more than the largest country calling code.
+  static final int SIZE = 1000;
+
+  // The region codes of each calling code, the main region first, or null for calling codes which
+  // aren't assigned.
+  private final String[][] regionCodes = new String[SIZE][];
+
+  /**
+   * @param countryCodeToRegionCodeMap  a mapping from each country calling code to its region
+   *     codes, such as CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap() returns
+   * @throws IllegalArgumentException  if a calling code isn't between 1 and 999
+   */
+  CountryCallingCodeTable(Map<Integer, List<String>> countryCodeToRegionCodeMap) {
+    for (Map.Entry<Integer, List<String>> entry : countryCodeToRegionCodeMap.entrySet()) {
+      int countryCode = entry.getKey();
+      if (countryCode <= 0 || countryCode >= SIZE) {
+        throw new IllegalArgumentException("Invalid country calling code " + countryCode);
+      }
+      List<String> codes = entry.getValue();
+      regionCodes[countryCode] = codes.toArray(new String[codes.size()]);
+    }
+  }
+
+  /**
+   * Returns the region codes of the calling code, the main region first, or null if the calling
+   * code isn't assigned. The array returned must not be modified.
+   */
+  String[] getRegionCodes(int countryCode) {
+    return countryCode > 0 && countryCode < SIZE ? regionCodes[countryCode] : null;
+  }
+
+  /**
+   * Returns the code of the main region of the calling code, or null if the calling code isn't
+   * assigned.
+   */
+  String getMainRegionCode(int countryCode) {
+    String[] codes = getRegionCodes(countryCode);
+    return codes == null ? null : codes[0];
+  }
+}
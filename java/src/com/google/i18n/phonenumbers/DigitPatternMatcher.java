@@ -0,0 +1,619 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches strings of digits against one of the national number or possible number patterns of the
+ * metadata, using a deterministic finite automaton instead of java.util.regex. The patterns in the
+ * metadata only use a small part of the regular expression syntax - digits, character classes,
+ * groups, alternation and quantifiers - which is compiled into a table with one row of 10
+ * transitions per state. Matching a number then takes a single pass over its digits, with no
+ * backtracking and no allocation.
+ *
+ * Patterns using any other syntax, and input containing anything other than ASCII digits, are
+ * handed over to the compiled Pattern, so the results are always the same as those of the Pattern.
+ */
+final class DigitPatternMatcher {
+  // Above this number of states the automaton takes more memory than it is worth, and the Pattern
+  // is used instead. None of the patterns in the metadata come close to this.
+  static final int MAX_STATES = 2000;
+
+  static final int DEAD_STATE = -1;
+
+  /**
+   * The result of lookingAt(), which says whether the number starts with a match of the pattern,
+   * and if so, whether that match is the whole number.
+   */
+  enum LookingAtResult {
+    NO_MATCH,
+    MATCHES_PART,
+    MATCHES_ALL
+  }
+
+  private final Pattern pattern;
+  // The transitions of the automaton. The state reached from state s on digit d is
+  // transitions[s * 10 + d], or DEAD_STATE if the pattern can't match the digits seen so far. The
+  // start state is 0. This is null if the pattern can't be compiled into an automaton.
+  private final short[] transitions;
+  private final boolean[] accepting;
+
+  private DigitPatternMatcher(Pattern pattern, short[] transitions, boolean[] accepting) {
+    this.pattern = pattern;
+    this.transitions = transitions;
+    this.accepting = accepting;
+  }
+
+  /**
+   * Creates a matcher for the pattern passed in. An automaton is built for it if possible;
+   * otherwise the matcher just uses the pattern.
+   */
+  static DigitPatternMatcher compile(Pattern pattern) {
+    try {
+      Node root = new Parser(pattern.pattern()).parse();
+      Nfa nfa = new Nfa();
+      NfaState end = nfa.newState();
+      NfaState start = nfa.build(root, end);
+      return new DfaBuilder(nfa, start, end).build(pattern);
+    } catch (UnsupportedPatternException e) {
+      return new DigitPatternMatcher(pattern, null, null);
+    }
+  }
+
+  // Returns whether this matcher uses an automaton, rather than the Pattern.
+  boolean isCompiledToAutomaton() {
+    return transitions != null;
+  }
+
+  int getStateCount() {
+    return transitions == null ? 0 : accepting.length;
+  }
+
+  /**
+   * Returns the state of the automaton reached from the state passed in on the digit passed in, or
+   * DEAD_STATE. The start state is 0. Only valid if isCompiledToAutomaton() is true.
+   */
+  int nextState(int state, int digit) {
+    return transitions[state * 10 + digit];
+  }
+
+  boolean isAcceptingState(int state) {
+    return accepting[state];
+  }
+
+  /**
+   * Returns the lengths of the strings of digits matching the pattern, in the form of the possible
+   * length mask of PhoneNumberDesc: bit n is set if strings of n digits may match, and the highest
+   * bit stands for all lengths from that number of digits up. Only valid if
+   * isCompiledToAutomaton() is true.
+   */
+  int getPossibleLengthMask() {
+    int maxLength = Phonemetadata.PhoneNumberDesc.MAX_POSSIBLE_LENGTH_BIT;
+    // The states reached by strings of the current length.
+    boolean[] states = new boolean[accepting.length];
+    states[0] = true;
+    int mask = 0;
+    for (int length = 0; length < maxLength; length++) {
+      boolean[] nextStates = new boolean[accepting.length];
+      boolean anyNextState = false;
+      for (int state = 0; state < states.length; state++) {
+        if (!states[state]) {
+          continue;
+        }
+        if (accepting[state]) {
+          mask |= 1 << length;
+        }
+        for (int digit = 0; digit < 10; digit++) {
+          int nextState = transitions[state * 10 + digit];
+          if (nextState != DEAD_STATE) {
+            nextStates[nextState] = true;
+            anyNextState = true;
+          }
+        }
+      }
+      if (!anyNextState) {
+        return mask;
+      }
+      states = nextStates;
+    }
+    // Strings this long or longer may match.
+    return mask | (1 << maxLength);
+  }
+
+  /**
+   * Returns whether the whole number matches the pattern, the same as Matcher.matches().
+   */
+  boolean matches(CharSequence number) {
+    if (transitions == null) {
+      return MatcherPool.matcher(pattern, number).matches();
+    }
+    int state = 0;
+    for (int i = 0, length = number.length(); i < length; i++) {
+      int digit = number.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return MatcherPool.matcher(pattern, number).matches();
+      }
+      state = transitions[state * 10 + digit];
+      if (state == DEAD_STATE) {
+        // No string matching the pattern starts with the digits seen so far, whatever follows.
+        return false;
+      }
+    }
+    return accepting[state];
+  }
+
+  /**
+   * Returns whether the number starts with a match of the pattern, as Matcher.lookingAt() does, and
+   * whether that match is the whole number, as when Matcher.end() is the length of the number.
+   */
+  LookingAtResult lookingAt(CharSequence number) {
+    if (transitions == null) {
+      return lookingAtWithPattern(number);
+    }
+    int length = number.length();
+    int state = 0;
+    // Whether a prefix of the number shorter than the whole number matches.
+    boolean partMatches = length > 0 && accepting[0];
+    for (int i = 0; i < length; i++) {
+      int digit = number.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return lookingAtWithPattern(number);
+      }
+      state = transitions[state * 10 + digit];
+      if (state == DEAD_STATE) {
+        return partMatches ? LookingAtResult.MATCHES_PART : LookingAtResult.NO_MATCH;
+      }
+      if (accepting[state] && i + 1 < length) {
+        partMatches = true;
+      }
+    }
+    if (!accepting[state]) {
+      return partMatches ? LookingAtResult.MATCHES_PART : LookingAtResult.NO_MATCH;
+    }
+    if (partMatches) {
+      // Both a prefix and the whole number match. Which of them Matcher.lookingAt() finds depends
+      // on the order in which the regular expression engine tries the alternatives, which the
+      // automaton doesn't know about.
+      return lookingAtWithPattern(number);
+    }
+    return LookingAtResult.MATCHES_ALL;
+  }
+
+  private LookingAtResult lookingAtWithPattern(CharSequence number) {
+    java.util.regex.Matcher m = MatcherPool.matcher(pattern, number);
+    if (!m.lookingAt()) {
+      return LookingAtResult.NO_MATCH;
+    }
+    return m.end() == number.length() ? LookingAtResult.MATCHES_ALL : LookingAtResult.MATCHES_PART;
+  }
+
+  @SuppressWarnings("serial")
+  private static final class UnsupportedPatternException extends Exception {
+  }
+
+  // The syntax tree of a pattern. Sets of digits are stored as bitmasks, with bit d set if digit d
+  // is in the set.
+  private abstract static class Node {
+  }
+
+  private static final class DigitSet extends Node {
+    private final int digits;
+
+    DigitSet(int digits) {
+      this.digits = digits;
+    }
+  }
+
+  private static final class Sequence extends Node {
+    private final List<Node> nodes;
+
+    Sequence(List<Node> nodes) {
+      this.nodes = nodes;
+    }
+  }
+
+  private static final class Alternation extends Node {
+    private final List<Node> alternatives;
+
+    Alternation(List<Node> alternatives) {
+      this.alternatives = alternatives;
+    }
+  }
+
+  private static final class Repetition extends Node {
+    private final Node node;
+    private final int min;
+    // The maximum number of repetitions, or UNBOUNDED.
+    private final int max;
+    static final int UNBOUNDED = -1;
+
+    Repetition(Node node, int min, int max) {
+      this.node = node;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  private static final int ALL_DIGITS = 0x3FF;
+
+  /**
+   * A recursive descent parser for the supported subset of the regular expression syntax. Since
+   * only strings of digits are ever matched against the automaton, characters other than digits
+   * in the pattern are parsed as sets of no digits.
+   */
+  private static final class Parser {
+    private final String regex;
+    private int position = 0;
+
+    Parser(String regex) {
+      this.regex = regex;
+    }
+
+    Node parse() throws UnsupportedPatternException {
+      Node node = parseAlternation();
+      if (position != regex.length()) {
+        throw new UnsupportedPatternException();
+      }
+      return node;
+    }
+
+    private boolean atEnd() {
+      return position >= regex.length();
+    }
+
+    private char peek() {
+      return regex.charAt(position);
+    }
+
+    private Node parseAlternation() throws UnsupportedPatternException {
+      List<Node> alternatives = new ArrayList<Node>();
+      alternatives.add(parseSequence());
+      while (!atEnd() && peek() == '|') {
+        position++;
+        alternatives.add(parseSequence());
+      }
+      return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+    }
+
+    private Node parseSequence() throws UnsupportedPatternException {
+      List<Node> nodes = new ArrayList<Node>();
+      while (!atEnd() && peek() != '|' && peek() != ')') {
+        nodes.add(parseRepetition());
+      }
+      return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+    }
+
+    private Node parseRepetition() throws UnsupportedPatternException {
+      Node node = parseAtom();
+      while (!atEnd()) {
+        char c = peek();
+        if (c == '?') {
+          position++;
+          node = new Repetition(node, 0, 1);
+        } else if (c == '*') {
+          position++;
+          node = new Repetition(node, 0, Repetition.UNBOUNDED);
+        } else if (c == '+') {
+          position++;
+          node = new Repetition(node, 1, Repetition.UNBOUNDED);
+        } else if (c == '{') {
+          position++;
+          int min = parseNumber();
+          int max = min;
+          if (!atEnd() && peek() == ',') {
+            position++;
+            max = (!atEnd() && peek() == '}') ? Repetition.UNBOUNDED : parseNumber();
+          }
+          expect('}');
+          if (max != Repetition.UNBOUNDED && max < min) {
+            throw new UnsupportedPatternException();
+          }
+          node = new Repetition(node, min, max);
+        } else {
+          break;
+        }
+        // Reluctant and possessive quantifiers match the same strings, but a possessive one can
+        // make Matcher.matches() fail where the automaton would succeed, so neither is supported.
+        if (!atEnd() && (peek() == '?' || peek() == '+')) {
+          throw new UnsupportedPatternException();
+        }
+      }
+      return node;
+    }
+
+    private int parseNumber() throws UnsupportedPatternException {
+      int start = position;
+      while (!atEnd() && peek() >= '0' && peek() <= '9') {
+        position++;
+      }
+      // Larger numbers would blow up the size of the automaton anyway.
+      if (position == start || position - start > 3) {
+        throw new UnsupportedPatternException();
+      }
+      return Integer.parseInt(regex.substring(start, position));
+    }
+
+    private void expect(char c) throws UnsupportedPatternException {
+      if (atEnd() || peek() != c) {
+        throw new UnsupportedPatternException();
+      }
+      position++;
+    }
+
+    private Node parseAtom() throws UnsupportedPatternException {
+      char c = peek();
+      position++;
+      switch (c) {
+        case '(':
+          if (!atEnd() && peek() == '?') {
+            // Only non-capturing groups are supported, not flags or look-around.
+            position++;
+            expect(':');
+          }
+          Node node = parseAlternation();
+          expect(')');
+          return node;
+        case '[':
+          return new DigitSet(parseCharacterClass());
+        case '\\':
+          return new DigitSet(parseEscape());
+        case '.':
+          return new DigitSet(ALL_DIGITS);
+        case '^':
+        case '$':
+        case ')':
+        case ']':
+        case '{':
+        case '}':
+        case '?':
+        case '*':
+        case '+':
+          throw new UnsupportedPatternException();
+        default:
+          return new DigitSet(digitsOf(c));
+      }
+    }
+
+    // Parses an escape sequence, after the backslash.
+    private int parseEscape() throws UnsupportedPatternException {
+      if (atEnd()) {
+        throw new UnsupportedPatternException();
+      }
+      char c = peek();
+      position++;
+      if (c == 'd') {
+        return ALL_DIGITS;
+      }
+      // Escaped punctuation stands for itself, which is never a digit. Anything else, such as a
+      // back reference or a different character class, is not supported.
+      if (c < 128 && !Character.isLetterOrDigit(c)) {
+        return 0;
+      }
+      throw new UnsupportedPatternException();
+    }
+
+    // Parses a character class, after the opening bracket.
+    private int parseCharacterClass() throws UnsupportedPatternException {
+      boolean negated = false;
+      if (!atEnd() && peek() == '^') {
+        negated = true;
+        position++;
+      }
+      int digits = 0;
+      boolean first = true;
+      while (true) {
+        if (atEnd()) {
+          throw new UnsupportedPatternException();
+        }
+        char c = peek();
+        if (c == ']' && !first) {
+          position++;
+          break;
+        }
+        first = false;
+        position++;
+        if (c == '[' || c == '&') {
+          // Unions and intersections of classes.
+          throw new UnsupportedPatternException();
+        }
+        if (c == '\\') {
+          digits |= parseEscape();
+          continue;
+        }
+        if (!atEnd() && peek() == '-' && position + 1 < regex.length() &&
+            regex.charAt(position + 1) != ']') {
+          position++;
+          char rangeEnd = peek();
+          position++;
+          if (rangeEnd == '\\' || rangeEnd == '[' || rangeEnd < c) {
+            throw new UnsupportedPatternException();
+          }
+          for (char d = '0'; d <= '9'; d++) {
+            if (d >= c && d <= rangeEnd) {
+              digits |= 1 << (d - '0');
+            }
+          }
+        } else {
+          digits |= digitsOf(c);
+        }
+      }
+      return negated ? ~digits & ALL_DIGITS : digits;
+    }
+
+    private static int digitsOf(char c) {
+      return (c >= '0' && c <= '9') ? 1 << (c - '0') : 0;
+    }
+  }
+
+  private static final class NfaState {
+    private final int id;
+    // The state reached by reading one of the digits in digitSet, if digitSet is not 0.
+    private int digitSet = 0;
+    private NfaState next;
+    private final List<NfaState> epsilonTransitions = new ArrayList<NfaState>(2);
+
+    NfaState(int id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * A non-deterministic automaton built from the syntax tree with Thompson's construction.
+   */
+  private static final class Nfa {
+    private final List<NfaState> states = new ArrayList<NfaState>();
+
+    NfaState newState() throws UnsupportedPatternException {
+      // The deterministic automaton can't be any smaller than this in the worst case, so stop
+      // before building something huge.
+      if (states.size() > MAX_STATES * 4) {
+        throw new UnsupportedPatternException();
+      }
+      NfaState state = new NfaState(states.size());
+      states.add(state);
+      return state;
+    }
+
+    // Builds the states matching node, ending in the state passed in, and returns the start state.
+    NfaState build(Node node, NfaState end) throws UnsupportedPatternException {
+      if (node instanceof DigitSet) {
+        NfaState start = newState();
+        start.digitSet = ((DigitSet) node).digits;
+        start.next = end;
+        return start;
+      } else if (node instanceof Sequence) {
+        List<Node> nodes = ((Sequence) node).nodes;
+        NfaState start = end;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+          start = build(nodes.get(i), start);
+        }
+        if (start == end) {
+          // An empty sequence.
+          start = newState();
+          start.epsilonTransitions.add(end);
+        }
+        return start;
+      } else if (node instanceof Alternation) {
+        NfaState start = newState();
+        for (Node alternative : ((Alternation) node).alternatives) {
+          start.epsilonTransitions.add(build(alternative, end));
+        }
+        return start;
+      } else {
+        Repetition repetition = (Repetition) node;
+        NfaState start = end;
+        if (repetition.max == Repetition.UNBOUNDED) {
+          NfaState loop = newState();
+          loop.epsilonTransitions.add(build(repetition.node, loop));
+          loop.epsilonTransitions.add(end);
+          start = loop;
+        } else {
+          // Each optional repetition may be skipped, which ends the match of the whole repetition.
+          for (int i = repetition.min; i < repetition.max; i++) {
+            NfaState optional = newState();
+            optional.epsilonTransitions.add(build(repetition.node, start));
+            optional.epsilonTransitions.add(end);
+            start = optional;
+          }
+        }
+        for (int i = 0; i < repetition.min; i++) {
+          start = build(repetition.node, start);
+        }
+        if (start == end) {
+          start = newState();
+          start.epsilonTransitions.add(end);
+        }
+        return start;
+      }
+    }
+  }
+
+  /**
+   * Turns the non-deterministic automaton into a deterministic one with the subset construction.
+   */
+  private static final class DfaBuilder {
+    private final Nfa nfa;
+    private final NfaState nfaStart;
+    private final NfaState nfaEnd;
+    private final Map<BitSet, Integer> stateIds = new HashMap<BitSet, Integer>();
+    private final List<BitSet> states = new ArrayList<BitSet>();
+
+    DfaBuilder(Nfa nfa, NfaState nfaStart, NfaState nfaEnd) {
+      this.nfa = nfa;
+      this.nfaStart = nfaStart;
+      this.nfaEnd = nfaEnd;
+    }
+
+    DigitPatternMatcher build(Pattern pattern) throws UnsupportedPatternException {
+      BitSet startSet = new BitSet(nfa.states.size());
+      addWithClosure(nfaStart, startSet);
+      stateIdOf(startSet);
+      List<Short> transitions = new ArrayList<Short>();
+      for (int i = 0; i < states.size(); i++) {
+        BitSet state = states.get(i);
+        for (int digit = 0; digit < 10; digit++) {
+          BitSet nextState = new BitSet(nfa.states.size());
+          for (int j = state.nextSetBit(0); j >= 0; j = state.nextSetBit(j + 1)) {
+            NfaState nfaState = nfa.states.get(j);
+            if ((nfaState.digitSet & (1 << digit)) != 0) {
+              addWithClosure(nfaState.next, nextState);
+            }
+          }
+          transitions.add((short) (nextState.isEmpty() ? DEAD_STATE : stateIdOf(nextState)));
+        }
+      }
+      short[] transitionTable = new short[transitions.size()];
+      for (int i = 0; i < transitionTable.length; i++) {
+        transitionTable[i] = transitions.get(i);
+      }
+      boolean[] accepting = new boolean[states.size()];
+      for (int i = 0; i < accepting.length; i++) {
+        accepting[i] = states.get(i).get(nfaEnd.id);
+      }
+      return new DigitPatternMatcher(pattern, transitionTable, accepting);
+    }
+
+    private int stateIdOf(BitSet state) throws UnsupportedPatternException {
+      Integer id = stateIds.get(state);
+      if (id == null) {
+        if (states.size() >= MAX_STATES) {
+          throw new UnsupportedPatternException();
+        }
+        id = states.size();
+        stateIds.put(state, id);
+        states.add(state);
+      }
+      return id;
+    }
+
+    private static void addWithClosure(NfaState state, BitSet states) {
+      if (states.get(state.id)) {
+        return;
+      }
+      states.set(state.id);
+      for (NfaState target : state.epsilonTransitions) {
+        addWithClosure(target, states);
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A MetadataSource that memory-maps a metadata bundle from a directory on the file system, without
+ * going through the class loader. The directory is laid out like the output directory of
+ * BuildMetadataProtoFromXml, so the bundle is expected in the same relative location as on the
+ * classpath.
+ */
+public final class DirectoryMetadataSource extends BundleMetadataSource {
+  private final File bundleFile;
+
+  /**
+   * Creates a source reading the metadata bundle from the directory passed in.
+   *
+   * @param baseDirectory  the directory containing the bundle, laid out as the output directory of
+   *     BuildMetadataProtoFromXml
+   */
+  public DirectoryMetadataSource(File baseDirectory) {
+    this(baseDirectory, PhoneNumberUtil.META_DATA_FILE);
+  }
+
+  /**
+   * Creates a source reading the metadata bundle with the name passed in from the directory passed
+   * in.
+   *
+   * @param baseDirectory  the directory containing the bundle
+   * @param bundleName  the path of the bundle, relative to the base directory
+   */
+  public DirectoryMetadataSource(File baseDirectory, String bundleName) {
+    this.bundleFile = new File(baseDirectory, bundleName);
+  }
+
+  @Override
+  MetadataBundle openBundle() throws IOException {
+    return MetadataBundle.readFrom(MetadataBundle.mapFile(bundleFile));
+  }
+}
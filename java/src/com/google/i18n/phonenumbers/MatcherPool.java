@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a Matcher per thread for each Pattern it is asked for, and resets it to each new input, so
+ * that matching on the hot paths of the library doesn't create a new Matcher every time.
+ *
+ * A Matcher returned by the pool is only valid until the pool is asked again for a Matcher of the
+ * same Pattern on the same thread, which resets it. Callers must therefore be done with a Matcher,
+ * or have copied what they need out of it, before calling anything which may use the same Pattern.
+ * A Matcher also keeps a reference to its last input until it is reused.
+ */
+final class MatcherPool {
+  // The number of Matchers kept per thread. Beyond it, the least recently used Matchers are
+  // dropped, so that threads which go through the patterns of many regions, or of metadata which
+  // has since been replaced, don't keep them all.
+  static final int MAX_MATCHERS_PER_THREAD = 500;
+
+  private static final ThreadLocal<Map<Pattern, Matcher>> MATCHERS =
+      new ThreadLocal<Map<Pattern, Matcher>>() {
+        @Override
+        protected Map<Pattern, Matcher> initialValue() {
+          // Patterns are compared by identity, as they don't override equals().
+          return new LinkedHashMap<Pattern, Matcher>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Pattern, Matcher> eldest) {
+              return size() > MAX_MATCHERS_PER_THREAD;
+            }
+          };
+        }
+      };
+
+  private MatcherPool() {
+  }
+
+  /**
+   * Returns the Matcher of this thread for the pattern passed in, reset to match the input passed
+   * in, as pattern.matcher(input) would.
+   */
+  static Matcher matcher(Pattern pattern, CharSequence input) {
+    Map<Pattern, Matcher> matchers = MATCHERS.get();
+    Matcher matcher = matchers.get(pattern);
+    if (matcher == null) {
+      matcher = pattern.matcher(input);
+      matchers.put(pattern, matcher);
+      return matcher;
+    }
+    return matcher.reset(input);
+  }
+
+  // This method is used for testing.
+  static int size() {
+    return MATCHERS.get().size();
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadataCollection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single packed file holding the metadata of all regions. The file starts with an index of the
+ * offset and length of the slice that holds each region, so the metadata for one region can be
+ * decoded by seeking straight to its slice, without reading the metadata of any other region.
+ *
+ * The layout of the file is as follows, with all values written as by DataOutput:
+ *   int     MAGIC_NUMBER
+ *   int     FORMAT_VERSION
+ *   int     the number of regions
+ *   then for each region:
+ *     UTF   the region code
+ *     int   the offset of the slice, relative to the end of the index
+ *     int   the length of the slice
+ *   followed by the slices themselves, each holding one PhoneMetadata as written by
+ *   PhoneMetadata.writeExternal().
+ */
+final class MetadataBundle {
+  static final int MAGIC_NUMBER = 0x504e4d42;
+  // Version 2 added the possible length masks of the number descriptions.
+  static final int FORMAT_VERSION = 2;
+  // The length of an index entry with an empty region code: the length of the UTF string, then the
+  // offset and the length of the slice.
+  private static final int MIN_INDEX_ENTRY_LENGTH = 2 + 4 + 4;
+
+  // The slices of all regions, positioned so that index 0 is the start of the first slice. This
+  // buffer is never read from directly - a duplicate is made for each slice, so that several
+  // regions can be decoded at the same time.
+  private final ByteBuffer data;
+  private final Map<String, Slice> slices;
+
+  private MetadataBundle(ByteBuffer data, Map<String, Slice> slices) {
+    this.data = data;
+    this.slices = slices;
+  }
+
+  private static final class Slice {
+    private final int offset;
+    private final int length;
+
+    Slice(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Reads the index of a bundle held in the buffer passed in. The buffer is not copied, and its
+   * position and limit are left unchanged. Throws an IOException if the bundle is truncated, or if
+   * its index refers to bytes outside of it.
+   */
+  static MetadataBundle readFrom(ByteBuffer buffer) throws IOException {
+    ByteBuffer bundle = buffer.slice();
+    DataInputStream in = new DataInputStream(new ByteBufferInputStream(bundle));
+    if (in.readInt() != MAGIC_NUMBER) {
+      throw new IOException("Not a phone number metadata bundle.");
+    }
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported phone number metadata bundle version: " + version);
+    }
+    int numOfRegions = in.readInt();
+    // Each entry of the index takes at least MIN_INDEX_ENTRY_LENGTH bytes, which bounds the number
+    // of regions before the map is sized for them.
+    if (numOfRegions < 0 || numOfRegions > bundle.remaining() / MIN_INDEX_ENTRY_LENGTH) {
+      throw new IOException("Corrupt phone number metadata bundle: " + numOfRegions + " regions.");
+    }
+    Map<String, Slice> slices = new HashMap<String, Slice>(numOfRegions * 4 / 3 + 1);
+    for (int i = 0; i < numOfRegions; i++) {
+      String regionCode = in.readUTF();
+      slices.put(regionCode, new Slice(in.readInt(), in.readInt()));
+    }
+    // Reading from the stream has advanced the position of the bundle past the index.
+    ByteBuffer data = bundle.slice();
+    for (Map.Entry<String, Slice> entry : slices.entrySet()) {
+      Slice slice = entry.getValue();
+      if (slice.offset < 0 || slice.length < 0 ||
+          slice.offset > data.capacity() - slice.length) {
+        throw new IOException("Corrupt phone number metadata bundle: the metadata for " +
+            entry.getKey() + " is not within the bundle.");
+      }
+    }
+    return new MetadataBundle(data, slices);
+  }
+
+  /**
+   * Loads the bundle with the name passed in from the classpath. If the bundle is a plain file it
+   * is memory-mapped, otherwise (for example, when it is packaged in a jar) it is read into memory
+   * in one go.
+   */
+  static MetadataBundle loadFromClasspath(String bundleName) throws IOException {
+    URL url = MetadataBundle.class.getResource(bundleName);
+    if (url == null) {
+      throw new IOException("Phone number metadata bundle not found: " + bundleName);
+    }
+    if (url.getProtocol().equals("file")) {
+      try {
+        return readFrom(mapFile(new File(url.toURI())));
+      } catch (URISyntaxException e) {
+        // Fall through and read the bundle as a stream instead.
+      }
+    }
+    InputStream source = url.openStream();
+    try {
+      return readFrom(ByteBuffer.wrap(readFully(source)));
+    } finally {
+      source.close();
+    }
+  }
+
+  static ByteBuffer mapFile(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // The mapping stays valid after the channel has been closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  static byte[] readFully(InputStream source) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+    byte[] buffer = new byte[8 * 1024];
+    int bytesRead;
+    while ((bytesRead = source.read(buffer)) != -1) {
+      bytes.write(buffer, 0, bytesRead);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the region codes of all regions whose metadata is contained in this bundle.
+   */
+  Set<String> getRegionCodes() {
+    return Collections.unmodifiableSet(slices.keySet());
+  }
+
+  /**
+   * Decodes the metadata for the region passed in, or returns null if this bundle has no metadata
+   * for that region. A new PhoneMetadata object is returned for each call.
+   */
+  PhoneMetadata getMetadataForRegion(String regionCode) throws IOException {
+    Slice slice = slices.get(regionCode);
+    if (slice == null) {
+      return null;
+    }
+    ByteBuffer sliceData = data.duplicate();
+    sliceData.limit(slice.offset + slice.length);
+    sliceData.position(slice.offset);
+    PhoneMetadata metadata = new PhoneMetadata();
+    metadata.readExternal(new MetadataInput(new ByteBufferInputStream(sliceData)));
+    return metadata;
+  }
+
+  /**
+   * Writes all the metadata in the collection passed in as a bundle.
+   */
+  static void write(PhoneMetadataCollection metadataCollection, OutputStream output)
+      throws IOException {
+    ByteArrayOutputStream sliceData = new ByteArrayOutputStream(128 * 1024);
+    MetadataOutput sliceOutput = new MetadataOutput(sliceData);
+    ByteArrayOutputStream index = new ByteArrayOutputStream(4 * 1024);
+    DataOutputStream indexOutput = new DataOutputStream(index);
+    indexOutput.writeInt(MAGIC_NUMBER);
+    indexOutput.writeInt(FORMAT_VERSION);
+    indexOutput.writeInt(metadataCollection.getMetadataCount());
+    for (PhoneMetadata metadata : metadataCollection.getMetadataList()) {
+      int offset = sliceOutput.size();
+      metadata.writeExternal(sliceOutput);
+      sliceOutput.flush();
+      indexOutput.writeUTF(metadata.getId());
+      indexOutput.writeInt(offset);
+      indexOutput.writeInt(sliceOutput.size() - offset);
+    }
+    indexOutput.flush();
+    index.writeTo(output);
+    sliceData.writeTo(output);
+    output.flush();
+  }
+
+  /**
+   * An InputStream reading from a ByteBuffer, advancing the position of the buffer as it goes.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int bytesRead = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, bytesRead);
+      return bytesRead;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  /**
+   * The metadata classes read and write themselves through the ObjectInput and ObjectOutput
+   * interfaces, but only use the primitive methods inherited from DataInput and DataOutput. These
+   * adapters let them do so without the stream header and block framing of an ObjectInputStream.
+   */
+  private static final class MetadataInput extends DataInputStream implements ObjectInput {
+    MetadataInput(InputStream in) {
+      super(in);
+    }
+
+    public Object readObject() {
+      throw new UnsupportedOperationException("Objects are not stored in metadata bundles.");
+    }
+  }
+
+  private static final class MetadataOutput extends DataOutputStream implements ObjectOutput {
+    MetadataOutput(OutputStream out) {
+      super(out);
+    }
+
+    public void writeObject(Object object) {
+      throw new UnsupportedOperationException("Objects are not stored in metadata bundles.");
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of the strings, PhoneNumberDescs and NumberFormats of the metadata loaded so far, used to
+ * share identical values between regions. Many regions have the same patterns and formats - for
+ * example, all NANPA countries share most of their number descriptions - but decoding the metadata
+ * of each region creates separate copies of them.
+ *
+ * The metadata passed to deduplicate() is changed in place so that it refers to the instances held
+ * in the table wherever possible. This is only safe because the metadata of loaded regions is never
+ * modified afterwards, so it does not matter which regions an instance is shared with.
+ */
+final class MetadataDeduplicator {
+  private final Map<String, String> strings = new HashMap<String, String>(2048);
+  private final Map<DescKey, PhoneNumberDesc> descs = new HashMap<DescKey, PhoneNumberDesc>(1024);
+  private final Map<FormatKey, NumberFormat> formats = new HashMap<FormatKey, NumberFormat>(1024);
+
+  /**
+   * Makes the metadata passed in refer to the shared instances of all its strings, number
+   * descriptions and number formats, adding those which are not in the table yet.
+   */
+  synchronized void deduplicate(PhoneMetadata metadata) {
+    if (metadata.hasGeneralDesc()) {
+      metadata.setGeneralDesc(intern(metadata.getGeneralDesc()));
+    }
+    if (metadata.hasFixedLine()) {
+      metadata.setFixedLine(intern(metadata.getFixedLine()));
+    }
+    if (metadata.hasMobile()) {
+      metadata.setMobile(intern(metadata.getMobile()));
+    }
+    if (metadata.hasTollFree()) {
+      metadata.setTollFree(intern(metadata.getTollFree()));
+    }
+    if (metadata.hasPremiumRate()) {
+      metadata.setPremiumRate(intern(metadata.getPremiumRate()));
+    }
+    if (metadata.hasSharedCost()) {
+      metadata.setSharedCost(intern(metadata.getSharedCost()));
+    }
+    if (metadata.hasPersonalNumber()) {
+      metadata.setPersonalNumber(intern(metadata.getPersonalNumber()));
+    }
+    if (metadata.hasVoip()) {
+      metadata.setVoip(intern(metadata.getVoip()));
+    }
+    if (metadata.hasPager()) {
+      metadata.setPager(intern(metadata.getPager()));
+    }
+    if (metadata.hasInternationalPrefix()) {
+      metadata.setInternationalPrefix(intern(metadata.getInternationalPrefix()));
+    }
+    if (metadata.hasPreferredInternationalPrefix()) {
+      metadata.setPreferredInternationalPrefix(
+          intern(metadata.getPreferredInternationalPrefix()));
+    }
+    if (metadata.hasNationalPrefix()) {
+      metadata.setNationalPrefix(intern(metadata.getNationalPrefix()));
+    }
+    if (metadata.hasPreferredExtnPrefix()) {
+      metadata.setPreferredExtnPrefix(intern(metadata.getPreferredExtnPrefix()));
+    }
+    if (metadata.hasNationalPrefixForParsing()) {
+      metadata.setNationalPrefixForParsing(intern(metadata.getNationalPrefixForParsing()));
+    }
+    if (metadata.hasNationalPrefixTransformRule()) {
+      metadata.setNationalPrefixTransformRule(intern(metadata.getNationalPrefixTransformRule()));
+    }
+    if (metadata.hasLeadingDigits()) {
+      metadata.setLeadingDigits(intern(metadata.getLeadingDigits()));
+    }
+    internAll(metadata.getNumberFormatList());
+    internAll(metadata.getIntlNumberFormatList());
+  }
+
+  private String intern(String value) {
+    String sharedValue = strings.get(value);
+    if (sharedValue == null) {
+      strings.put(value, value);
+      sharedValue = value;
+    }
+    return sharedValue;
+  }
+
+  private PhoneNumberDesc intern(PhoneNumberDesc desc) {
+    if (desc.hasNationalNumberPattern()) {
+      desc.setNationalNumberPattern(intern(desc.getNationalNumberPattern()));
+    }
+    if (desc.hasPossibleNumberPattern()) {
+      desc.setPossibleNumberPattern(intern(desc.getPossibleNumberPattern()));
+    }
+    if (desc.hasExampleNumber()) {
+      desc.setExampleNumber(intern(desc.getExampleNumber()));
+    }
+    DescKey key = new DescKey(desc);
+    PhoneNumberDesc sharedDesc = descs.get(key);
+    if (sharedDesc == null) {
+      descs.put(key, desc);
+      sharedDesc = desc;
+    }
+    return sharedDesc;
+  }
+
+  private NumberFormat intern(NumberFormat format) {
+    if (format.hasPattern()) {
+      format.setPattern(intern(format.getPattern()));
+    }
+    if (format.hasFormat()) {
+      format.setFormat(intern(format.getFormat()));
+    }
+    List<String> leadingDigitsPatterns = format.getLeadingDigitsPatternList();
+    for (int i = 0; i < leadingDigitsPatterns.size(); i++) {
+      leadingDigitsPatterns.set(i, intern(leadingDigitsPatterns.get(i)));
+    }
+    if (format.hasNationalPrefixFormattingRule()) {
+      format.setNationalPrefixFormattingRule(intern(format.getNationalPrefixFormattingRule()));
+    }
+    if (format.hasDomesticCarrierCodeFormattingRule()) {
+      format.setDomesticCarrierCodeFormattingRule(
+          intern(format.getDomesticCarrierCodeFormattingRule()));
+    }
+    FormatKey key = new FormatKey(format);
+    NumberFormat sharedFormat = formats.get(key);
+    if (sharedFormat == null) {
+      formats.put(key, format);
+      sharedFormat = format;
+    }
+    return sharedFormat;
+  }
+
+  private void internAll(List<NumberFormat> numberFormats) {
+    for (int i = 0; i < numberFormats.size(); i++) {
+      numberFormats.set(i, intern(numberFormats.get(i)));
+    }
+  }
+
+  // The metadata classes don't implement equals() and hashCode(), so these keys compare them by
+  // value instead. As the strings have already been interned by the time a key is made, strings can
+  // be compared by identity.
+  private static final class DescKey {
+    private final PhoneNumberDesc desc;
+    private final int hashCode;
+
+    DescKey(PhoneNumberDesc desc) {
+      this.desc = desc;
+      int hash = desc.getNationalNumberPattern().hashCode();
+      hash = 31 * hash + desc.getPossibleNumberPattern().hashCode();
+      hash = 31 * hash + desc.getExampleNumber().hashCode();
+      hash = 31 * hash + desc.getPossibleLengthMask();
+      hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof DescKey)) {
+        return false;
+      }
+      PhoneNumberDesc other = ((DescKey) object).desc;
+      return desc.hasNationalNumberPattern() == other.hasNationalNumberPattern() &&
+          desc.getNationalNumberPattern() == other.getNationalNumberPattern() &&
+          desc.hasPossibleNumberPattern() == other.hasPossibleNumberPattern() &&
+          desc.getPossibleNumberPattern() == other.getPossibleNumberPattern() &&
+          desc.hasExampleNumber() == other.hasExampleNumber() &&
+          desc.getExampleNumber() == other.getExampleNumber() &&
+          desc.hasPossibleLengthMask() == other.hasPossibleLengthMask() &&
+          desc.getPossibleLengthMask() == other.getPossibleLengthMask();
+    }
+  }
+
+  private static final class FormatKey {
+    private final NumberFormat format;
+    private final int hashCode;
+
+    FormatKey(NumberFormat format) {
+      this.format = format;
+      int hash = format.getPattern().hashCode();
+      hash = 31 * hash + format.getFormat().hashCode();
+      hash = 31 * hash + format.getLeadingDigitsPatternList().hashCode();
+      hash = 31 * hash + format.getNationalPrefixFormattingRule().hashCode();
+      hash = 31 * hash + format.getDomesticCarrierCodeFormattingRule().hashCode();
+      hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof FormatKey)) {
+        return false;
+      }
+      NumberFormat other = ((FormatKey) object).format;
+      return format.hasPattern() == other.hasPattern() &&
+          format.getPattern() == other.getPattern() &&
+          format.hasFormat() == other.hasFormat() &&
+          format.getFormat() == other.getFormat() &&
+          format.getLeadingDigitsPatternList().equals(other.getLeadingDigitsPatternList()) &&
+          format.hasNationalPrefixFormattingRule() == other.hasNationalPrefixFormattingRule() &&
+          format.getNationalPrefixFormattingRule() == other.getNationalPrefixFormattingRule() &&
+          format.hasDomesticCarrierCodeFormattingRule() ==
+              other.hasDomesticCarrierCodeFormattingRule() &&
+          format.getDomesticCarrierCodeFormattingRule() ==
+              other.getDomesticCarrierCodeFormattingRule();
+    }
+  }
+}
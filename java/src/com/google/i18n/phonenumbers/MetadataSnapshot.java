@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The metadata of all supported regions as loaded from one MetadataSource. PhoneNumberUtil reads
+ * its current snapshot once at the start of each operation and uses that snapshot throughout, so
+ * an operation sees consistent metadata even if the metadata is reloaded while it runs.
+ *
+ * The metadata for a region is loaded the first time it is needed, and never changes once it has
+ * been loaded.
+ */
+final class MetadataSnapshot {
+  private static final Logger LOGGER = Logger.getLogger(MetadataSnapshot.class.getName());
+
+  private final MetadataSource source;
+
+  // A mapping from a region code to the PhoneMetadata for that region. Entries are added the first
+  // time the metadata for a region is needed, and are never changed afterwards, so looking up
+  // metadata that has already been loaded takes no lock.
+  private final ConcurrentHashMap<String, PhoneMetadata> regionToMetadataMap;
+
+  // A lock object per supported region, held while the metadata for that region is loaded. This
+  // makes sure the metadata for each region is loaded only once, while threads loading the
+  // metadata for different regions do not block each other. This map is not modified after
+  // construction.
+  private final Map<String, Object> loadingLocks;
+
+  private final CountryCallingCodeTable countryCallingCodeTable;
+
+  // The metadata of the main region of each country calling code, indexed by the calling code.
+  // Entries are set once that metadata has been loaded.
+  private final AtomicReferenceArray<PhoneMetadata> countryCodeToMetadata =
+      new AtomicReferenceArray<PhoneMetadata>(CountryCallingCodeTable.SIZE);
+
+  // Shares identical strings, number descriptions and number formats between the regions of this
+  // snapshot.
+  private final MetadataDeduplicator deduplicator = new MetadataDeduplicator();
+
+  MetadataSnapshot(MetadataSource source, Set<String> supportedRegions,
+                   CountryCallingCodeTable countryCallingCodeTable) {
+    this.source = source;
+    this.countryCallingCodeTable = countryCallingCodeTable;
+    // The initial capacities offer a load factor of roughly 0.75.
+    int capacity = supportedRegions.size() * 4 / 3 + 1;
+    regionToMetadataMap = new ConcurrentHashMap<String, PhoneMetadata>(capacity);
+    loadingLocks = new HashMap<String, Object>(capacity);
+    for (String regionCode : supportedRegions) {
+      loadingLocks.put(regionCode, new Object());
+    }
+  }
+
+  MetadataSource getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the metadata for the region passed in, loading it if this has not been done yet.
+   * Returns null if the region is not supported, or if its metadata could not be loaded.
+   *
+   * @param regionCode  the upper-case region code of a supported region
+   */
+  PhoneMetadata getMetadataForRegion(String regionCode) {
+    PhoneMetadata metadata = regionToMetadataMap.get(regionCode);
+    if (metadata == null) {
+      Object lock = loadingLocks.get(regionCode);
+      if (lock == null) {
+        return null;
+      }
+      synchronized (lock) {
+        // Another thread may have loaded the metadata while we were waiting for the lock.
+        metadata = regionToMetadataMap.get(regionCode);
+        if (metadata == null) {
+          try {
+            metadata = loadMetadataForRegion(regionCode);
+          } catch (IOException e) {
+            LOGGER.log(Level.WARNING, e.toString());
+          }
+        }
+      }
+    }
+    return metadata;
+  }
+
+  /**
+   * Returns the metadata for the main region of the country calling code passed in, loading it if
+   * this has not been done yet. Returns null if the calling code isn't assigned, or if the metadata
+   * could not be loaded.
+   */
+  PhoneMetadata getMetadataForCountryCode(int countryCode) {
+    if (countryCode <= 0 || countryCode >= CountryCallingCodeTable.SIZE) {
+      return null;
+    }
+    PhoneMetadata metadata = countryCodeToMetadata.get(countryCode);
+    if (metadata == null) {
+      String regionCode = countryCallingCodeTable.getMainRegionCode(countryCode);
+      if (regionCode == null) {
+        return null;
+      }
+      metadata = getMetadataForRegion(regionCode);
+      if (metadata != null) {
+        countryCodeToMetadata.set(countryCode, metadata);
+      }
+    }
+    return metadata;
+  }
+
+  // Must be called with the lock of the region held.
+  private PhoneMetadata loadMetadataForRegion(String regionCode) throws IOException {
+    PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+    if (metadata == null) {
+      throw new IOException("No metadata available for region " + regionCode);
+    }
+    deduplicator.deduplicate(metadata);
+    regionToMetadataMap.put(regionCode, metadata);
+    return metadata;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+
+import java.io.IOException;
+
+/**
+ * A source of phone number metadata, from which PhoneNumberUtil loads the metadata of each region
+ * the first time it is needed. The library provides sources that read a metadata bundle from the
+ * classpath (the default), from a directory on the file system, and from bytes already in memory.
+ *
+ * Implementations must be safe to call from several threads at the same time.
+ *
+ * @see PhoneNumberUtil#createInstance(MetadataSource)
+ */
+public interface MetadataSource {
+  /**
+   * Loads the metadata for a region.
+   *
+   * @param regionCode  the ISO 3166-1 two-letter country code, in upper case, of the region to load
+   *     the metadata for
+   * @return  a new PhoneMetadata object for the region, or null if this source has no metadata for
+   *     it
+   * @throws IOException  if the metadata could not be read
+   */
+  PhoneMetadata loadMetadataForRegion(String regionCode) throws IOException;
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * The replacements of one of the normalization mappings of PhoneNumberUtil, such as
+ * DIGIT_MAPPINGS, held in arrays of chars so that looking a character up neither boxes it nor
+ * hashes it.
+ *
+ * The mappings only have upper-case keys, and characters are looked up in them after being
+ * converted to upper case. The table folds that conversion in, so that it has an entry for each
+ * character whose upper case is a key. Characters of ASCII and Latin-1 are looked up in a dense
+ * array; the few others, such as fullwidth and Arabic-Indic digits, by binary search in a sorted
+ * array.
+ */
+final class NormalizationTable {
+  // The value of lookUp() for characters which have no replacement.
+  static final char NO_REPLACEMENT = '\u0000';
+
+  // The replacement of each character below 256, or NO_REPLACEMENT.
+  private final char[] latin1Replacements = new char[256];
+  // The characters above Latin-1 which have a replacement, in ascending order, and their
+  // replacements.
+  private final char[] otherChars;
+  private final char[] otherReplacements;
+
+  NormalizationTable(Map<Character, Character> mappings) {
+    BitSet keys = new BitSet(Character.MAX_VALUE + 1);
+    for (char key : mappings.keySet()) {
+      keys.set(key);
+    }
+    StringBuffer chars = new StringBuffer();
+    StringBuffer replacements = new StringBuffer();
+    // Goes through every character once, which takes well under a millisecond, so as to find all
+    // those whose upper case is a key, whatever the rules of Character.toUpperCase() for them.
+    for (int i = 0; i <= Character.MAX_VALUE; i++) {
+      char upperCase = Character.toUpperCase((char) i);
+      if (!keys.get(upperCase)) {
+        continue;
+      }
+      char replacement = mappings.get(upperCase);
+      if (i < latin1Replacements.length) {
+        latin1Replacements[i] = replacement;
+      } else {
+        chars.append((char) i);
+        replacements.append(replacement);
+      }
+    }
+    otherChars = chars.toString().toCharArray();
+    otherReplacements = replacements.toString().toCharArray();
+  }
+
+  /**
+   * Returns what the character is replaced by, or NO_REPLACEMENT if the mappings don't have it.
+   */
+  char lookUp(char c) {
+    if (c < latin1Replacements.length) {
+      return latin1Replacements[c];
+    }
+    int index = Arrays.binarySearch(otherChars, c);
+    return index >= 0 ? otherReplacements[index] : NO_REPLACEMENT;
+  }
+
+  /**
+   * Replaces each character of the number by what it is mapped to. Characters without a
+   * replacement are removed if removeNonMatches is true, and otherwise kept as they are.
+   */
+  String normalize(CharSequence number, boolean removeNonMatches) {
+    int length = number.length();
+    char[] normalizedNumber = new char[length];
+    int normalizedLength = 0;
+    for (int i = 0; i < length; i++) {
+      char c = number.charAt(i);
+      char replacement = lookUp(c);
+      if (replacement != NO_REPLACEMENT) {
+        normalizedNumber[normalizedLength++] = replacement;
+      } else if (!removeNonMatches) {
+        normalizedNumber[normalizedLength++] = c;
+      }
+    }
+    return new String(normalizedNumber, 0, normalizedLength);
+  }
+
+  /**
+   * Replaces each character of the number by what it is mapped to, in place, removing characters
+   * without a replacement.
+   */
+  void normalizeInPlace(StringBuffer number) {
+    // The normalized number is never longer than the number, so it is written over it.
+    int normalizedLength = 0;
+    for (int i = 0, length = number.length(); i < length; i++) {
+      char replacement = lookUp(number.charAt(i));
+      if (replacement != NO_REPLACEMENT) {
+        number.setCharAt(normalizedLength++, replacement);
+      }
+    }
+    number.setLength(normalizedLength);
+  }
+}
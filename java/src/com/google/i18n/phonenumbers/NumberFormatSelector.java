@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the number formats of a list whose leading digits pattern matches the start of a national
+ * number, in one pass over the first few digits of the number, instead of trying the leading
+ * digits pattern of each format in turn. The automata of the last leading digits pattern of all
+ * the formats are run together as one product automaton, each state of which knows which formats
+ * have matched the digits read so far. Once every leading digits pattern has either matched or
+ * failed, the rest of the number doesn't need to be read.
+ *
+ * Formats with no leading digits patterns are candidates for any number.
+ */
+final class NumberFormatSelector {
+  // Above this number of states the product automaton takes more memory than it is worth, and the
+  // formats are tried one by one instead.
+  static final int MAX_STATES = 10000;
+
+  private static final int[] NO_CANDIDATES = new int[0];
+
+  // The number of formats this selector was built for.
+  private final int formatCount;
+
+  // The state reached from state s on digit d is transitions[s * 10 + d]. The start state is 0.
+  // This is null if the product automaton couldn't be built.
+  private final char[] transitions;
+  // The indices of the candidate formats when the automaton stops in each state, in the order of
+  // the list of formats.
+  private final int[][] candidates;
+  // Whether the candidates of each state are the same whatever digits follow.
+  private final boolean[] decided;
+
+  private NumberFormatSelector(int formatCount, char[] transitions, int[][] candidates,
+                               boolean[] decided) {
+    this.formatCount = formatCount;
+    this.transitions = transitions;
+    this.candidates = candidates;
+    this.decided = decided;
+  }
+
+  /**
+   * Builds the selector for the list of formats passed in. If the product automaton can't be built,
+   * the selector can't select formats for any number, and the formats have to be tried one by one.
+   */
+  static NumberFormatSelector build(List<NumberFormat> formats) {
+    // The automata of the last leading digits pattern of each format, or null for formats without
+    // leading digits patterns.
+    DigitPatternMatcher[] matchers = new DigitPatternMatcher[formats.size()];
+    for (int i = 0; i < matchers.length; i++) {
+      NumberFormat format = formats.get(i);
+      int size = format.getLeadingDigitsPatternCount();
+      if (size > 0) {
+        matchers[i] = DigitPatternMatcher.compile(format.getCompiledLeadingDigitsPattern(size - 1));
+        if (!matchers[i].isCompiledToAutomaton()) {
+          return new NumberFormatSelector(matchers.length, null, null, null);
+        }
+      }
+    }
+    NumberFormatSelector selector = new Builder(matchers).build();
+    return selector != null ? selector
+                            : new NumberFormatSelector(matchers.length, null, null, null);
+  }
+
+  /**
+   * Returns the indices of the formats whose last leading digits pattern matches the start of the
+   * national number passed in, or which have no leading digits patterns, in the order of the list
+   * of formats. Returns null if the number contains anything other than digits or this selector has
+   * no automaton. The array returned must not be modified.
+   */
+  int[] getCandidates(CharSequence nationalNumber) {
+    if (transitions == null) {
+      return null;
+    }
+    int state = 0;
+    for (int i = 0, length = nationalNumber.length(); i < length && !decided[state]; i++) {
+      int digit = nationalNumber.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return null;
+      }
+      state = transitions[state * 10 + digit];
+    }
+    return candidates[state];
+  }
+
+  int getFormatCount() {
+    return formatCount;
+  }
+
+  int getStateCount() {
+    return candidates == null ? 0 : candidates.length;
+  }
+
+  /**
+   * Builds the reachable states of the product automaton. Each state is the tuple of the states of
+   * the automata of the leading digits patterns, stored as a string of chars so that it can be used
+   * as a key.
+   */
+  private static final class Builder {
+    // The values stored in a tuple for a leading digits pattern which has failed to match, and for
+    // one which has matched. The states of the automata are stored plus two.
+    private static final char FAILED = 0;
+    private static final char MATCHED = 1;
+
+    private final DigitPatternMatcher[] matchers;
+    private final Map<String, Integer> stateIds = new HashMap<String, Integer>();
+    private final List<char[]> states = new ArrayList<char[]>();
+
+    Builder(DigitPatternMatcher[] matchers) {
+      this.matchers = matchers;
+    }
+
+    NumberFormatSelector build() {
+      char[] start = new char[matchers.length];
+      for (int i = 0; i < matchers.length; i++) {
+        if (matchers[i] == null) {
+          start[i] = MATCHED;
+        } else {
+          start[i] = matchers[i].isAcceptingState(0) ? MATCHED : (char) 2;
+        }
+      }
+      stateIdOf(start);
+      List<char[]> transitionRows = new ArrayList<char[]>();
+      for (int id = 0; id < states.size(); id++) {
+        char[] state = states.get(id);
+        char[] row = new char[10];
+        for (int digit = 0; digit < 10; digit++) {
+          char[] nextState = new char[state.length];
+          for (int i = 0; i < state.length; i++) {
+            nextState[i] = next(i, state[i], digit);
+          }
+          int nextId = stateIdOf(nextState);
+          if (nextId < 0) {
+            return null;
+          }
+          row[digit] = (char) nextId;
+        }
+        transitionRows.add(row);
+      }
+      char[] transitions = new char[states.size() * 10];
+      int[][] candidates = new int[states.size()][];
+      boolean[] decided = new boolean[states.size()];
+      // Many states have the same candidates, so the arrays are shared.
+      Map<String, int[]> candidateArrays = new HashMap<String, int[]>();
+      for (int id = 0; id < states.size(); id++) {
+        System.arraycopy(transitionRows.get(id), 0, transitions, id * 10, 10);
+        char[] state = states.get(id);
+        List<Integer> matched = new ArrayList<Integer>();
+        boolean anyUndecided = false;
+        for (int i = 0; i < state.length; i++) {
+          if (state[i] == MATCHED) {
+            matched.add(i);
+          } else if (state[i] != FAILED) {
+            anyUndecided = true;
+          }
+        }
+        decided[id] = !anyUndecided;
+        String key = matched.toString();
+        int[] stateCandidates = candidateArrays.get(key);
+        if (stateCandidates == null) {
+          stateCandidates = matched.isEmpty() ? NO_CANDIDATES : new int[matched.size()];
+          for (int i = 0; i < stateCandidates.length; i++) {
+            stateCandidates[i] = matched.get(i);
+          }
+          candidateArrays.put(key, stateCandidates);
+        }
+        candidates[id] = stateCandidates;
+      }
+      return new NumberFormatSelector(matchers.length, transitions, candidates, decided);
+    }
+
+    private char next(int matcherIndex, char state, int digit) {
+      if (state == FAILED || state == MATCHED) {
+        return state;
+      }
+      DigitPatternMatcher matcher = matchers[matcherIndex];
+      int nextState = matcher.nextState(state - 2, digit);
+      if (nextState == DigitPatternMatcher.DEAD_STATE) {
+        return FAILED;
+      }
+      // lookingAt() only needs some prefix of the number to match.
+      return matcher.isAcceptingState(nextState) ? MATCHED : (char) (nextState + 2);
+    }
+
+    // Returns the id of the state, adding it if it's new, or -1 if there are too many states.
+    private int stateIdOf(char[] state) {
+      String key = new String(state);
+      Integer id = stateIds.get(key);
+      if (id == null) {
+        if (states.size() >= MAX_STATES) {
+          return -1;
+        }
+        id = states.size();
+        stateIds.put(key, id);
+        states.add(state);
+      }
+      return id;
+    }
+  }
+}
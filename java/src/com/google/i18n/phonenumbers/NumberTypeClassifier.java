@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberType;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out the type of a national number of one region in a single pass over its digits. The
+ * automata of the national number and possible number patterns of all the number descriptions of
+ * the region are run together as one product automaton, each state of which records which of the
+ * descriptions the digits read so far match. The type is then picked from those descriptions with
+ * the same precedence as PhoneNumberUtil.getNumberType() applies when it tries them one by one.
+ */
+final class NumberTypeClassifier {
+  // Above this number of states the product automaton takes more memory than it is worth, and the
+  // number descriptions are tried one by one instead.
+  static final int MAX_STATES = 10000;
+
+  // The bits of the number descriptions in the masks of matching descriptions.
+  private static final int GENERAL = 1 << 0;
+  private static final int PREMIUM_RATE = 1 << 1;
+  private static final int TOLL_FREE = 1 << 2;
+  private static final int SHARED_COST = 1 << 3;
+  private static final int VOIP = 1 << 4;
+  private static final int PERSONAL_NUMBER = 1 << 5;
+  private static final int PAGER = 1 << 6;
+  private static final int FIXED_LINE = 1 << 7;
+  private static final int MOBILE = 1 << 8;
+
+  // State 0 is the dead state, from which no description can match any more, and state 1 is the
+  // start state. The state reached from state s on digit d is transitions[s * 10 + d].
+  private static final int DEAD_STATE = 0;
+  private static final int START_STATE = 1;
+
+  // These are null if the product automaton couldn't be built.
+  private final char[] transitions;
+  // The descriptions matched by the digits read when the automaton stops in each state.
+  private final short[] matchingDescriptions;
+
+  private NumberTypeClassifier(char[] transitions, short[] matchingDescriptions) {
+    this.transitions = transitions;
+    this.matchingDescriptions = matchingDescriptions;
+  }
+
+  /**
+   * Builds the classifier for the metadata passed in. If the product automaton can't be built, the
+   * classifier can't classify any number, and the number descriptions have to be tried one by one.
+   */
+  static NumberTypeClassifier build(PhoneMetadata metadata) {
+    // In the order of the bits above.
+    PhoneNumberDesc[] descs = {
+        metadata.getGeneralDesc(), metadata.getPremiumRate(), metadata.getTollFree(),
+        metadata.getSharedCost(), metadata.getVoip(), metadata.getPersonalNumber(),
+        metadata.getPager(), metadata.getFixedLine(), metadata.getMobile() };
+    // The automata of each description: the possible number one followed by the national number
+    // one.
+    DigitPatternMatcher[] matchers = new DigitPatternMatcher[descs.length * 2];
+    for (int i = 0; i < descs.length; i++) {
+      if (descs[i] == null) {
+        return new NumberTypeClassifier(null, null);
+      }
+      matchers[2 * i] = descs[i].getPossibleNumberMatcher();
+      matchers[2 * i + 1] = descs[i].getNationalNumberMatcher();
+      if (!matchers[2 * i].isCompiledToAutomaton() ||
+          !matchers[2 * i + 1].isCompiledToAutomaton()) {
+        return new NumberTypeClassifier(null, null);
+      }
+    }
+    NumberTypeClassifier classifier = new Builder(matchers).build();
+    return classifier != null ? classifier : new NumberTypeClassifier(null, null);
+  }
+
+  /**
+   * Returns the type of the national number passed in, or null if the number contains anything
+   * other than digits or this classifier has no automaton.
+   */
+  PhoneNumberType classify(CharSequence nationalNumber, boolean sameMobileAndFixedLinePattern) {
+    if (transitions == null) {
+      return null;
+    }
+    int state = START_STATE;
+    for (int i = 0, length = nationalNumber.length(); i < length; i++) {
+      int digit = nationalNumber.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return null;
+      }
+      state = transitions[state * 10 + digit];
+      if (state == DEAD_STATE) {
+        return PhoneNumberType.UNKNOWN;
+      }
+    }
+    int matches = matchingDescriptions[state];
+    if ((matches & GENERAL) == 0) {
+      return PhoneNumberType.UNKNOWN;
+    }
+    if ((matches & PREMIUM_RATE) != 0) {
+      return PhoneNumberType.PREMIUM_RATE;
+    }
+    if ((matches & TOLL_FREE) != 0) {
+      return PhoneNumberType.TOLL_FREE;
+    }
+    if ((matches & SHARED_COST) != 0) {
+      return PhoneNumberType.SHARED_COST;
+    }
+    if ((matches & VOIP) != 0) {
+      return PhoneNumberType.VOIP;
+    }
+    if ((matches & PERSONAL_NUMBER) != 0) {
+      return PhoneNumberType.PERSONAL_NUMBER;
+    }
+    if ((matches & PAGER) != 0) {
+      return PhoneNumberType.PAGER;
+    }
+    if ((matches & FIXED_LINE) != 0) {
+      return (sameMobileAndFixedLinePattern || (matches & MOBILE) != 0)
+          ? PhoneNumberType.FIXED_LINE_OR_MOBILE : PhoneNumberType.FIXED_LINE;
+    }
+    if (!sameMobileAndFixedLinePattern && (matches & MOBILE) != 0) {
+      return PhoneNumberType.MOBILE;
+    }
+    return PhoneNumberType.UNKNOWN;
+  }
+
+  int getStateCount() {
+    return matchingDescriptions == null ? 0 : matchingDescriptions.length;
+  }
+
+  /**
+   * Builds the reachable states of the product automaton. Each state is the tuple of the states of
+   * the automata of the descriptions, stored as a string of chars so that it can be used as a key.
+   */
+  private static final class Builder {
+    private final DigitPatternMatcher[] matchers;
+    private final Map<String, Integer> stateIds = new HashMap<String, Integer>();
+    private final List<char[]> states = new ArrayList<char[]>();
+    // The value stored in a tuple for an automaton which is in its dead state. The states of the
+    // automata are stored plus one.
+    private static final char DEAD = 0;
+
+    Builder(DigitPatternMatcher[] matchers) {
+      this.matchers = matchers;
+    }
+
+    NumberTypeClassifier build() {
+      // The dead state isn't a tuple, but takes up index 0.
+      states.add(null);
+      char[] start = new char[matchers.length];
+      for (int i = 0; i < start.length; i++) {
+        start[i] = 1;
+      }
+      stateIdOf(start);
+      List<char[]> transitionRows = new ArrayList<char[]>();
+      transitionRows.add(new char[10]);
+      for (int id = START_STATE; id < states.size(); id++) {
+        char[] state = states.get(id);
+        char[] row = new char[10];
+        for (int digit = 0; digit < 10; digit++) {
+          char[] nextState = new char[state.length];
+          for (int i = 0; i < state.length; i += 2) {
+            // A description whose possible or national number pattern can no longer match can't
+            // match at all, so both its automata are put in the dead state. This keeps the number
+            // of distinct tuples down.
+            int possible = next(i, state[i], digit);
+            int national = next(i + 1, state[i + 1], digit);
+            if (possible != DEAD && national != DEAD) {
+              nextState[i] = (char) possible;
+              nextState[i + 1] = (char) national;
+            }
+          }
+          // The type is UNKNOWN whatever else matches once the general description can't match.
+          if (nextState[0] == DEAD) {
+            row[digit] = DEAD_STATE;
+          } else {
+            int nextId = stateIdOf(nextState);
+            if (nextId < 0) {
+              return null;
+            }
+            row[digit] = (char) nextId;
+          }
+        }
+        transitionRows.add(row);
+      }
+      char[] transitions = new char[states.size() * 10];
+      short[] matchingDescriptions = new short[states.size()];
+      for (int id = START_STATE; id < states.size(); id++) {
+        System.arraycopy(transitionRows.get(id), 0, transitions, id * 10, 10);
+        char[] state = states.get(id);
+        for (int i = 0; i < state.length; i += 2) {
+          if (state[i] != DEAD && matchers[i].isAcceptingState(state[i] - 1) &&
+              matchers[i + 1].isAcceptingState(state[i + 1] - 1)) {
+            matchingDescriptions[id] |= 1 << (i / 2);
+          }
+        }
+      }
+      return new NumberTypeClassifier(transitions, matchingDescriptions);
+    }
+
+    private int next(int matcherIndex, char state, int digit) {
+      if (state == DEAD) {
+        return DEAD;
+      }
+      int nextState = matchers[matcherIndex].nextState(state - 1, digit);
+      return nextState == DigitPatternMatcher.DEAD_STATE ? DEAD : nextState + 1;
+    }
+
+    // Returns the id of the state, adding it if it's new, or -1 if there are too many states.
+    private int stateIdOf(char[] state) {
+      String key = new String(state);
+      Integer id = stateIds.get(key);
+      if (id == null) {
+        if (states.size() >= MAX_STATES) {
+          return -1;
+        }
+        id = states.size();
+        stateIds.put(key, id);
+        states.add(state);
+      }
+      return id;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ParseResult;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the outcomes of parsing strings, keyed by the string, the default region and
+ * whether the raw input was kept. The cached phone numbers are never handed out: the fields parsing
+ * set in them are copied into the phone numbers of the callers, so that callers can't change them.
+ * Each phone number ends up as if it had been parsed into, including when parsing failed.
+ *
+ * The entries are only valid for the metadata snapshot they were parsed with. When the metadata is
+ * replaced, invalidate() drops all of them, and lookups made with any other snapshot miss.
+ */
+final class ParseCache {
+  private final int maxSize;
+  private volatile Generation generation;
+  // Hits are counted on every lookup of a cached number, so they use a counter which doesn't make
+  // threads hitting the cache at the same time contend.
+  private final StripedCounter hitCount = new StripedCounter();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+  // The evictions from the entries of the generations dropped so far.
+  private final AtomicLong droppedEvictionCount = new AtomicLong();
+
+  // The entries parsed with one metadata snapshot.
+  private static final class Generation {
+    final MetadataSnapshot snapshot;
+    final ConcurrentClockCache<Key, Entry> entries;
+
+    Generation(MetadataSnapshot snapshot, int maxSize) {
+      this.snapshot = snapshot;
+      entries = new ConcurrentClockCache<Key, Entry>(maxSize);
+    }
+  }
+
+  private static final class Key {
+    private final String numberToParse;
+    private final String defaultCountry;
+    private final boolean keepRawInput;
+    private final int hashCode;
+
+    Key(String numberToParse, String defaultCountry, boolean keepRawInput) {
+      this.numberToParse = numberToParse;
+      this.defaultCountry = defaultCountry;
+      this.keepRawInput = keepRawInput;
+      int hash = numberToParse.hashCode() * 31 +
+          (defaultCountry == null ? 0 : defaultCountry.hashCode());
+      hashCode = hash * 2 + (keepRawInput ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key otherKey = (Key) other;
+      return hashCode == otherKey.hashCode && keepRawInput == otherKey.keepRawInput &&
+          numberToParse.equals(otherKey.numberToParse) &&
+          (defaultCountry == null ? otherKey.defaultCountry == null
+                                  : defaultCountry.equals(otherKey.defaultCountry));
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /**
+   * The outcome of parsing a string: the result, the fields parsing set in an empty phone number,
+   * which it may have partly filled up even if it failed, and whether it cleared the country code
+   * source.
+   */
+  static final class Entry {
+    private final ParseResult result;
+    private final PhoneNumber number;
+    private final boolean clearsCountryCodeSource;
+
+    Entry(ParseResult result, PhoneNumber number, boolean clearsCountryCodeSource) {
+      this.result = result;
+      this.number = number;
+      this.clearsCountryCodeSource = clearsCountryCodeSource;
+    }
+
+    /**
+     * Sets the fields of the phone number passed in which parsing set, and clears those it
+     * cleared, leaving the others alone, and returns the result of parsing.
+     */
+    ParseResult copyTo(PhoneNumber phoneNumber) {
+      phoneNumber.mergeFrom(number);
+      if (clearsCountryCodeSource) {
+        phoneNumber.clearCountryCodeSource();
+      }
+      return result;
+    }
+  }
+
+  ParseCache(int maxSize, MetadataSnapshot snapshot) {
+    this.maxSize = maxSize;
+    generation = new Generation(snapshot, maxSize);
+  }
+
+  /**
+   * Returns the entry cached for the string parsed with the snapshot passed in, or null if there is
+   * none.
+   */
+  Entry get(MetadataSnapshot snapshot, String numberToParse, String defaultCountry,
+            boolean keepRawInput) {
+    Generation currentGeneration = generation;
+    Entry entry = null;
+    if (currentGeneration.snapshot == snapshot) {
+      entry = currentGeneration.entries.get(new Key(numberToParse, defaultCountry, keepRawInput));
+    }
+    if (entry == null) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.increment();
+    }
+    return entry;
+  }
+
+  /**
+   * Caches the entry for the string parsed with the snapshot passed in, unless the snapshot has
+   * been replaced since, and returns the entry which is cached for the string afterwards.
+   */
+  Entry putIfAbsent(MetadataSnapshot snapshot, String numberToParse, String defaultCountry,
+                    boolean keepRawInput, Entry entry) {
+    Generation currentGeneration = generation;
+    if (currentGeneration.snapshot != snapshot) {
+      return entry;
+    }
+    return currentGeneration.entries.putIfAbsent(
+        new Key(numberToParse, defaultCountry, keepRawInput), entry);
+  }
+
+  /**
+   * Drops all entries, and starts caching the numbers parsed with the snapshot passed in.
+   */
+  void invalidate(MetadataSnapshot snapshot) {
+    Generation droppedGeneration = generation;
+    generation = new Generation(snapshot, maxSize);
+    droppedEvictionCount.addAndGet(droppedGeneration.entries.getEvictionCount());
+    invalidationCount.incrementAndGet();
+  }
+
+  /**
+   * Returns a snapshot of the counters of this cache.
+   */
+  ParseCacheStats getStats() {
+    ConcurrentClockCache<Key, Entry> entries = generation.entries;
+    return new ParseCacheStats(hitCount.get(), missCount.get(),
+                               droppedEvictionCount.get() + entries.getEvictionCount(),
+                               invalidationCount.get(), entries.size(), maxSize);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * A snapshot of the counters of the parse cache of a PhoneNumberUtil, as returned by
+ * PhoneNumberUtil.getParseCacheStats(). The counters cover the whole life of the cache, from the
+ * last call to PhoneNumberUtil.setParseCacheSize() on.
+ */
+public final class ParseCacheStats {
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long invalidationCount;
+  private final int size;
+  private final int maxSize;
+
+  ParseCacheStats(long hitCount, long missCount, long evictionCount, long invalidationCount,
+                  int size, int maxSize) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.invalidationCount = invalidationCount;
+    this.size = size;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the number of parses which found the outcome in the cache.
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of parses which had to parse the number.
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getRequestCount() {
+    return hitCount + missCount;
+  }
+
+  /**
+   * Returns the fraction of parses which found the outcome in the cache, or 1 if there were no
+   * parses.
+   */
+  public double getHitRate() {
+    long requestCount = getRequestCount();
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Returns the number of numbers removed from the cache to make room for others. A high number
+   * compared to the number of misses means the cache is too small for its workload.
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the number of times the cache was emptied because the metadata was reloaded.
+   */
+  public long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  /**
+   * Returns the number of numbers in the cache.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the number of numbers the cache can hold, which is 0 if the cache is turned off.
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  @Override
+  public String toString() {
+    return "Parse cache: " + size + "/" + maxSize + " numbers, " + hitCount + " hits, " +
+        missCount + " misses (hit rate " + String.format("%.3f", getHitRate()) + "), " +
+        evictionCount + " evictions, " + invalidationCount + " invalidations";
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.nio.CharBuffer;
+
+/**
+ * The buffers PhoneNumberUtil uses while parsing a phone number. Passing the same ParseContext to
+ * PhoneNumberUtil.parse(String, String, PhoneNumber, ParseContext) for each number parsed lets the
+ * buffers be reused, so that parsing a well-formed number creates no objects other than those held
+ * by the PhoneNumber it fills in.
+ *
+ * A ParseContext must not be used by several threads at once. A thread parsing many numbers would
+ * typically keep one for itself.
+ */
+public final class ParseContext {
+  // The buffers grow as needed, but few phone numbers are longer than this.
+  private static final int INITIAL_CAPACITY = 32;
+
+  // The possible number extracted from the string being parsed.
+  final StringBuffer number = new StringBuffer(INITIAL_CAPACITY);
+  // The normalized national number, once any country code has been stripped.
+  final StringBuffer nationalNumber = new StringBuffer(INITIAL_CAPACITY);
+  // The number from which the country code is stripped.
+  final StringBuffer fullNumber = new StringBuffer(INITIAL_CAPACITY);
+  // The number with the country code of the default region stripped, to see whether it is valid.
+  final StringBuffer potentialNationalNumber = new StringBuffer(INITIAL_CAPACITY);
+  // Set when parsing clears the country code source of the phone number, which the parse cache
+  // can't tell from the number parsed alone.
+  boolean countryCodeSourceCleared = false;
+
+  // A copy of one of the buffers above, which can be scanned without taking the lock of the
+  // StringBuffer for every character, and a view of it.
+  private char[] chars = new char[INITIAL_CAPACITY];
+  private CharBuffer charsView = CharBuffer.wrap(chars);
+
+  public ParseContext() {
+  }
+
+  /**
+   * Returns the characters of the buffer passed in, copied into a sequence which stays the same
+   * until the next call.
+   */
+  CharSequence copyOf(StringBuffer buffer) {
+    int length = buffer.length();
+    if (length > chars.length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+      charsView = CharBuffer.wrap(chars);
+    }
+    buffer.getChars(0, length, chars, 0);
+    charsView.clear();
+    charsView.limit(length);
+    return charsView;
+  }
+}
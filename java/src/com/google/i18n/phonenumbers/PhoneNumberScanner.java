@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * Scans the text of a phone number to find where the number starts and ends, whether it is viable,
+ * whether it is written with letters and where its extension is, as PhoneNumberUtil did with
+ * VALID_START_CHAR_PATTERN, UNWANTED_END_CHAR_PATTERN, SECOND_NUMBER_START_PATTERN,
+ * VALID_PHONE_NUMBER_PATTERN, VALID_ALPHA_PHONE_PATTERN and EXTN_PATTERN. Each method looks at
+ * every character at most a few times, where some of these patterns backtrack, and none of them
+ * creates any object.
+ *
+ * The patterns remain in PhoneNumberUtil as the definition of what is accepted here, and the
+ * results are the same as theirs for any input, including the case-insensitive matching of
+ * letters and the way the patterns treat surrogate pairs.
+ */
+final class PhoneNumberScanner {
+  private PhoneNumberScanner() {
+  }
+
+  /**
+   * Returns the index of the first character which may start a phone number, that is a plus sign
+   * or a digit, or -1 if there is none.
+   */
+  static int findStart(CharSequence number) {
+    for (int i = 0, length = number.length(); i < length; i++) {
+      if (isStartChar(number.charAt(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index after the last character of the phone number starting at start. Trailing
+   * characters which are neither letters, numbers nor a hash sign are left out, as is anything from
+   * the start of a second number, such as the "/x2303" of "(530) 583-6985 x302/x2303".
+   */
+  static int findEnd(CharSequence number, int start) {
+    int end = trimUnwantedEnd(number, start, number.length());
+    int secondNumberStart = findSecondNumberStart(number, start, end);
+    return secondNumberStart >= 0 ? secondNumberStart : end;
+  }
+
+  // Returns the index of the first of the characters at the end of number, between start and end,
+  // which are all neither letters, numbers nor a hash sign. The characters are read as code points
+  // forwards from each index, the way UNWANTED_END_CHAR_PATTERN reads them, so that an unpaired
+  // surrogate is an unwanted character of its own.
+  private static int trimUnwantedEnd(CharSequence number, int start, int end) {
+    int trimmedEnd = end;
+    // Whether the characters from the index after the current one, and from the one after that, to
+    // the end are all unwanted.
+    boolean unwantedFromNext = true;
+    boolean unwantedFromAfterNext = true;
+    for (int i = end - 1; i >= start; i--) {
+      char c = number.charAt(i);
+      boolean unwantedFromHere;
+      if (Character.isHighSurrogate(c) && i + 1 < end &&
+          Character.isLowSurrogate(number.charAt(i + 1))) {
+        unwantedFromHere = unwantedFromAfterNext &&
+            isUnwantedEndChar(Character.toCodePoint(c, number.charAt(i + 1)));
+      } else {
+        unwantedFromHere = unwantedFromNext && isUnwantedEndChar(c);
+      }
+      if (unwantedFromHere) {
+        // Like the pattern, this never splits a surrogate pair, though it may start at a low
+        // surrogate which isn't part of one.
+        if (!(Character.isLowSurrogate(c) && i > start &&
+              Character.isHighSurrogate(number.charAt(i - 1)))) {
+          trimmedEnd = i;
+        }
+      } else if (!unwantedFromNext) {
+        // No earlier index can be followed only by unwanted characters.
+        break;
+      }
+      unwantedFromAfterNext = unwantedFromNext;
+      unwantedFromNext = unwantedFromHere;
+    }
+    return trimmedEnd;
+  }
+
+  // Returns the index of the first backslash or slash between start and end which is followed by
+  // any number of spaces and an 'x', or -1 if there is none.
+  private static int findSecondNumberStart(CharSequence number, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = number.charAt(i);
+      if (c == '\\' || c == '/') {
+        int j = i + 1;
+        while (j < end && number.charAt(j) == ' ') {
+          j++;
+        }
+        if (j < end && number.charAt(j) == 'x') {
+          return i;
+        }
+        // None of the spaces skipped can start a second number.
+        i = j - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns true if the number, which is expected to start with a plus sign or a digit, is made of
+   * any number of plus signs and then at least three digits, with only punctuation between them,
+   * followed by digits, letters and punctuation, and optionally an extension.
+   */
+  static boolean isViable(CharSequence number) {
+    return isViable(number, number.length());
+  }
+
+  /**
+   * Same as isViable(CharSequence), but only looks at the characters of the number before end.
+   */
+  static boolean isViable(CharSequence number, int end) {
+    int i = 0;
+    while (i < end && isPlus(number.charAt(i))) {
+      i++;
+    }
+    int digits = 0;
+    while (i < end && digits < 3) {
+      char c = number.charAt(i++);
+      if (isDigit(c)) {
+        digits++;
+      } else if (!isPunctuation(c)) {
+        return false;
+      }
+    }
+    if (digits < 3) {
+      return false;
+    }
+    int bodyStart = i;
+    while (i < end && isBodyChar(number.charAt(i))) {
+      i++;
+    }
+    if (i == end) {
+      return true;
+    }
+    int extensionStart = findExtensionStart(number, bodyStart, end);
+    return extensionStart >= 0 && extensionStart <= i;
+  }
+
+  /**
+   * Returns the index at which the extension at the end of the number starts, where EXTN_PATTERN
+   * would find it, or -1 if the number doesn't end with an extension. Like that pattern, this lets
+   * the number end with a line terminator after the extension.
+   */
+  static int findExtensionStart(CharSequence number) {
+    return findExtensionStart(number, 0, findExtensionEnd(number));
+  }
+
+  /**
+   * Returns the index after the digits of the extension at the end of the number, which must have
+   * been found by findExtensionStart(). The digits themselves start after the last character before
+   * this index which isn't a digit.
+   */
+  static int findExtensionDigitsEnd(CharSequence number) {
+    int end = findExtensionEnd(number);
+    return number.charAt(end - 1) == '#' ? end - 1 : end;
+  }
+
+  // Returns the index at which the "$" of EXTN_PATTERN matches after an extension, which is the
+  // length of the number unless the number ends with a line terminator.
+  private static int findExtensionEnd(CharSequence number) {
+    int length = number.length();
+    if (length >= 2 && number.charAt(length - 2) == '\r' && number.charAt(length - 1) == '\n') {
+      return length - 2;
+    }
+    if (length >= 1 && isLineTerminator(number.charAt(length - 1))) {
+      return length - 1;
+    }
+    return length;
+  }
+
+  // Returns the smallest index from which the characters of the number up to end match one of
+  // KNOWN_EXTN_PATTERNS, which is no less than from, or -1 if there is none. The extension patterns
+  // end with digits, which are found first, and are then matched backwards from them.
+  private static int findExtensionStart(CharSequence number, int from, int end) {
+    boolean endsWithHash = end > from && number.charAt(end - 1) == '#';
+    int digitsEnd = endsWithHash ? end - 1 : end;
+    int digitsStart = digitsEnd;
+    while (digitsStart > from && isDigit(number.charAt(digitsStart - 1))) {
+      digitsStart--;
+    }
+    int digits = digitsEnd - digitsStart;
+    if (digits == 0) {
+      return -1;
+    }
+    int extensionStart = -1;
+    // Same as "[- ]+([digits]{1,5})#", as in "- 503#".
+    if (endsWithHash && digits <= 5) {
+      int separatorStart = digitsStart;
+      while (separatorStart > from &&
+             (number.charAt(separatorStart - 1) == '-' ||
+              number.charAt(separatorStart - 1) == ' ')) {
+        separatorStart--;
+      }
+      if (separatorStart < digitsStart) {
+        extensionStart = separatorStart;
+      }
+    }
+    if (digits > 7) {
+      return extensionStart;
+    }
+    // Same as "[ \u00A0\\t,]*(?:<prefix>)[:\\.\uFF0E]?[ \u00A0\\t,-]*([digits]{1,7})#?". The prefix
+    // may end anywhere in the run of separators before the digits, since some separators can also
+    // be prefixes.
+    int separatorStart = digitsStart;
+    while (separatorStart > from && isExtensionSeparator(number.charAt(separatorStart - 1))) {
+      separatorStart--;
+    }
+    // The start of the last run of separators found before a prefix, which all prefixes starting
+    // in the same run share.
+    int runStart = -1;
+    int runEnd = -1;
+    for (int prefixEnd = digitsStart; prefixEnd >= separatorStart; prefixEnd--) {
+      for (int withPunctuation = 0; withPunctuation < 2; withPunctuation++) {
+        int wordEnd = prefixEnd;
+        if (withPunctuation == 1) {
+          if (wordEnd <= from || !isExtensionPunctuation(number.charAt(wordEnd - 1))) {
+            continue;
+          }
+          wordEnd--;
+        }
+        if (wordEnd <= from) {
+          continue;
+        }
+        // Most characters can't end any prefix, and those which can end only a few of them.
+        char lastChar = foldCase(number.charAt(wordEnd - 1));
+        for (int prefix = 0; prefix < EXTENSION_PREFIXES.length; prefix++) {
+          int prefixStart = wordEnd - EXTENSION_PREFIXES[prefix].length();
+          if (prefixStart < from ||
+              !matchesExtensionPrefix(number, prefixStart, prefix, lastChar)) {
+            continue;
+          }
+          if (prefixStart < runStart || prefixStart > runEnd) {
+            runEnd = prefixStart;
+            runStart = prefixStart;
+            while (runStart > from && isExtensionSpace(number.charAt(runStart - 1))) {
+              runStart--;
+            }
+          }
+          if (extensionStart < 0 || runStart < extensionStart) {
+            extensionStart = runStart;
+          }
+        }
+      }
+    }
+    return extensionStart;
+  }
+
+  // The words and characters which may start an extension, in lower case, as in
+  // KNOWN_EXTN_PATTERNS. The last one stands for any of the characters which may start an
+  // extension on their own.
+  private static final String[] EXTENSION_PREFIXES = {
+      "ext", "extn", "extensio", "extension", "\uFF45\uFF58\uFF54", "\uFF45\uFF58\uFF54\uFF4E",
+      "int", "anexo", "\uFF49\uFF4E\uFF54", "," };
+
+  // Returns true if the prefix matches the number from start. lastChar is the case-folded last
+  // character of the match, which is compared first.
+  private static boolean matchesExtensionPrefix(CharSequence number, int start, int prefix,
+                                                char lastChar) {
+    if (prefix == EXTENSION_PREFIXES.length - 1) {
+      char c = number.charAt(start);
+      return c == ',' || lastChar == 'x' || lastChar == '\uFF58' || c == '#' || c == '\uFF03' ||
+          c == '~' || c == '\uFF5E';
+    }
+    String prefixText = EXTENSION_PREFIXES[prefix];
+    int last = prefixText.length() - 1;
+    if (lastChar != prefixText.charAt(last)) {
+      return false;
+    }
+    for (int i = 0; i < last; i++) {
+      if (foldCase(number.charAt(start + i)) != prefixText.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Characters which may come between an extension prefix and the separators before the digits.
+  private static boolean isExtensionPunctuation(char c) {
+    return c == ':' || c == '.' || c == '\uFF0E';
+  }
+
+  // Characters which may come between an extension prefix, or the punctuation after it, and the
+  // digits.
+  private static boolean isExtensionSeparator(char c) {
+    return c == '-' || isExtensionSpace(c);
+  }
+
+  // Characters which may come before an extension prefix.
+  private static boolean isExtensionSpace(char c) {
+    return c == ' ' || c == '\u00A0' || c == '\t' || c == ',';
+  }
+
+  // The characters which Pattern treats as line terminators, other than in UNIX_LINES mode.
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+   * Returns true if the number has at least three ASCII letters in it, and no line terminators, as
+   * VALID_ALPHA_PHONE_PATTERN requires.
+   */
+  static boolean isAlphaNumber(CharSequence number) {
+    int letters = 0;
+    for (int i = 0, length = number.length(); i < length; i++) {
+      char c = number.charAt(i);
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+        letters++;
+      } else if (isLineTerminator(c)) {
+        return false;
+      }
+    }
+    return letters >= 3;
+  }
+
+  /**
+   * Returns true if the character may start a phone number, as VALID_START_CHAR_PATTERN does.
+   */
+  static boolean isStartChar(char c) {
+    return isPlus(c) || isDigit(c);
+  }
+
+  private static boolean isPlus(char c) {
+    return c == '+' || c == '\uFF0B';
+  }
+
+  // The keys of DIGIT_MAPPINGS.
+  static boolean isDigit(char c) {
+    return (c >= '0' && c <= '9') || (c >= '\u0660' && c <= '\u0669') ||
+        (c >= '\uFF10' && c <= '\uFF19');
+  }
+
+  // VALID_PUNCTUATION, matched case-insensitively.
+  private static boolean isPunctuation(char c) {
+    switch (c) {
+      case '-':
+      case 'x':
+      case 'X':
+      case '\u2212':
+      case ' ':
+      case '\u00A0':
+      case '\u200B':
+      case '\u2060':
+      case '\u3000':
+      case '(':
+      case ')':
+      case '\uFF08':
+      case '\uFF09':
+      case '\uFF3B':
+      case '\uFF3D':
+      case '.':
+      case '[':
+      case ']':
+      case '/':
+      case '~':
+      case '\u2053':
+      case '\u223C':
+      case '\uFF5E':
+        return true;
+      default:
+        return (c >= '\u2010' && c <= '\u2015') || (c >= '\uFF0D' && c <= '\uFF0F');
+    }
+  }
+
+  // The characters which may follow the first three digits of a viable number, as the characters
+  // of VALID_ALPHA, VALID_PUNCTUATION and VALID_DIGITS matched case-insensitively. Besides the
+  // ASCII letters, this takes in the few other letters whose case folds to one of them, such as
+  // the dotless i.
+  private static boolean isBodyChar(char c) {
+    char folded = foldCase(c);
+    return (folded >= 'a' && folded <= 'z') || isDigit(c) || isPunctuation(c);
+  }
+
+  // Folds the case of the character the way regular expressions matched with UNICODE_CASE and
+  // CASE_INSENSITIVE do.
+  private static char foldCase(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  // Characters that are neither letters, numbers nor a hash sign, as "[[\\P{N}&&\\P{L}]&&[^#]]".
+  private static boolean isUnwantedEndChar(int codePoint) {
+    if (codePoint == '#') {
+      return false;
+    }
+    switch (Character.getType(codePoint)) {
+      case Character.DECIMAL_DIGIT_NUMBER:
+      case Character.LETTER_NUMBER:
+      case Character.OTHER_NUMBER:
+      case Character.UPPERCASE_LETTER:
+      case Character.LOWERCASE_LETTER:
+      case Character.TITLECASE_LETTER:
+      case Character.MODIFIER_LETTER:
+      case Character.OTHER_LETTER:
+        return false;
+      default:
+        return true;
+    }
+  }
+}
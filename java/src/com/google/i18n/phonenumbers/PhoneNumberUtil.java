@@ -18,22 +18,27 @@ package com.google.i18n.phonenumbers;
 
 import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
 import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
-import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadataCollection;
 import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber.CountryCodeSource;
 
-import java.io.InputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -50,18 +55,17 @@ public class PhoneNumberUtil {
   // The minimum and maximum length of the national significant number.
   private static final int MIN_LENGTH_FOR_NSN = 3;
   private static final int MAX_LENGTH_FOR_NSN = 15;
-  static final String META_DATA_FILE_PREFIX =
+  static final String META_DATA_FILE =
       "/com/google/i18n/phonenumbers/data/PhoneNumberMetadataProto";
   static final String COUNTRY_CODE_TO_REGION_CODE_MAP_CLASS_NAME =
       "CountryCodeToRegionCodeMap";
-  private String currentFilePrefix = META_DATA_FILE_PREFIX;
   private static final Logger LOGGER = Logger.getLogger(PhoneNumberUtil.class.getName());
 
   // A mapping from a country code to the region codes which denote the country/region
   // represented by that country code. In the case of multiple countries sharing a calling code,
   // such as the NANPA countries, the one indicated with "isMainCountryForCode" in the metadata
   // should be first.
-  private Map<Integer, List<String>> countryCodeToRegionCodeMap = null;
+  private CountryCallingCodeTable countryCallingCodeTable = null;
 
   // The set of countries the library supports.
   // There are roughly 220 of them and we set the initial capacity of the HashSet to 300 to offer a
@@ -87,7 +91,11 @@ public class PhoneNumberUtil {
   private static final Map<Character, Character> ALPHA_MAPPINGS;
 
   // For performance reasons, amalgamate both into one map.
-  private static final Map<Character, Character> ALL_NORMALIZATION_MAPPINGS;
+  static final Map<Character, Character> ALL_NORMALIZATION_MAPPINGS;
+
+  // The mappings above, as looked up when normalizing.
+  static final NormalizationTable DIGIT_TABLE;
+  private static final NormalizationTable ALL_NORMALIZATION_TABLE;
 
   static {
     HashMap<Character, Character> digitMap = new HashMap<Character, Character>(50);
@@ -156,6 +164,9 @@ public class PhoneNumberUtil {
     combinedMap.putAll(alphaMap);
     combinedMap.putAll(digitMap);
     ALL_NORMALIZATION_MAPPINGS = Collections.unmodifiableMap(combinedMap);
+
+    DIGIT_TABLE = new NormalizationTable(DIGIT_MAPPINGS);
+    ALL_NORMALIZATION_TABLE = new NormalizationTable(ALL_NORMALIZATION_MAPPINGS);
   }
 
   // A list of all country codes where national significant numbers (excluding any national prefix)
@@ -217,17 +228,17 @@ public class PhoneNumberUtil {
   // actually two phone numbers, (530) 583-6985 x302 and (530) 583-6985 x2303. We remove the second
   // extension so that the first number is parsed correctly.
   private static final String SECOND_NUMBER_START = "[\\\\/] *x";
-  private static final Pattern SECOND_NUMBER_START_PATTERN = Pattern.compile(SECOND_NUMBER_START);
+  static final Pattern SECOND_NUMBER_START_PATTERN = Pattern.compile(SECOND_NUMBER_START);
 
   // Regular expression of trailing characters that we want to remove. We remove all characters that
   // are not alpha or numerical characters. The hash character is retained here, as it may signify
   // the previous block was an extension.
   private static final String UNWANTED_END_CHARS = "[[\\P{N}&&\\P{L}]&&[^#]]+$";
-  private static final Pattern UNWANTED_END_CHAR_PATTERN = Pattern.compile(UNWANTED_END_CHARS);
+  static final Pattern UNWANTED_END_CHAR_PATTERN = Pattern.compile(UNWANTED_END_CHARS);
 
   // We use this pattern to check if the phone number has at least three letters in it - if so, then
   // we treat it as a number where some phone-number digits are represented by letters.
-  private static final Pattern VALID_ALPHA_PHONE_PATTERN = Pattern.compile("(?:.*?[A-Za-z]){3}.*");
+  static final Pattern VALID_ALPHA_PHONE_PATTERN = Pattern.compile("(?:.*?[A-Za-z]){3}.*");
 
   // Regular expression of viable phone numbers. This is location independent. Checks we have at
   // least three leading digits, and only valid punctuation, alpha characters and
@@ -261,14 +272,16 @@ public class PhoneNumberUtil {
       "]{1,5})#";
 
   // Regexp of all known extension prefixes used by different countries followed by 1 or more valid
-  // digits, for use when parsing.
-  private static final Pattern EXTN_PATTERN =
+  // digits, for use when parsing. PhoneNumberScanner finds extensions without it.
+  static final Pattern EXTN_PATTERN =
       Pattern.compile("(?:" + KNOWN_EXTN_PATTERNS + ")$",
                       Pattern.UNICODE_CASE | Pattern.CASE_INSENSITIVE);
 
   // We append optionally the extension pattern to the end here, as a valid phone number may
   // have an extension prefix appended, followed by 1 or more digits.
-  private static final Pattern VALID_PHONE_NUMBER_PATTERN =
+  // PhoneNumberScanner does without this pattern, and those above used to extract and check
+  // possible numbers, when parsing; they remain as the definition of what it accepts.
+  static final Pattern VALID_PHONE_NUMBER_PATTERN =
       Pattern.compile(VALID_PHONE_NUMBER + "(?:" + KNOWN_EXTN_PATTERNS + ")?",
                       Pattern.UNICODE_CASE | Pattern.CASE_INSENSITIVE);
 
@@ -277,18 +290,24 @@ public class PhoneNumberUtil {
   private static final Pattern NP_PATTERN = Pattern.compile("\\$NP");
   private static final Pattern FG_PATTERN = Pattern.compile("\\$FG");
   private static final Pattern CC_PATTERN = Pattern.compile("\\$CC");
+  // Used as the international prefix when parsing numbers for which there is no default region.
+  private static final Pattern NON_MATCHING_IDD_PREFIX_PATTERN = Pattern.compile("NonMatch");
 
   private static PhoneNumberUtil instance = null;
 
-  // A mapping from a region code to the PhoneMetadata for that region.
-  private Map<String, PhoneMetadata> countryToMetadataMap =
-      new HashMap<String, PhoneMetadata>();
+  // The metadata currently in use. Each public method reads this field only once, and passes the
+  // snapshot it read on to the helper methods it calls, so that all the metadata used by one call
+  // comes from the same snapshot, even if reloadMetadata() replaces the snapshot in the meantime.
+  private volatile MetadataSnapshot metadataSnapshot;
 
-  // A cache for frequently used country-specific regular expressions.
-  // As most people use phone numbers primarily from one to two countries, and there are roughly 60
-  // regular expressions needed, the initial capacity of 100 offers a rough load factor of 0.75.
+  // A cache for regular expressions which are passed in as strings, rather than taken from the
+  // metadata. The patterns in the metadata are compiled once and kept by the metadata itself.
   private RegexCache regexCache = new RegexCache(100);
 
+  // The cache of the outcomes of parsing strings, or null if it is turned off, as it is by default.
+  // Its entries are only used with the metadata snapshot they were parsed with.
+  private volatile ParseCache parseCache = null;
+
   /**
    * INTERNATIONAL and NATIONAL formats are consistent with the definition in ITU-T Recommendation
    * E. 123. For example, the number of the Google Zurich office will be written as
@@ -352,34 +371,32 @@ public class PhoneNumberUtil {
     TOO_LONG,
   }
 
+  /**
+   * Possible outcomes of tryParse. Other than SUCCESS, each of them stands for the
+   * NumberParseException.ErrorType of the same name, with which parse would have failed.
+   */
+  public enum ParseResult {
+    SUCCESS,
+    INVALID_COUNTRY_CODE,
+    NOT_A_NUMBER,
+    TOO_SHORT_AFTER_IDD,
+    TOO_SHORT_NSN,
+    TOO_LONG,
+  }
+
   /**
    * This class implements a singleton, so the only constructor is private.
    */
   private PhoneNumberUtil() {
   }
 
-  private void init(String filePrefix) {
-    currentFilePrefix = filePrefix;
+  private void init(MetadataSource source, Map<Integer, List<String>> countryCodeToRegionCodeMap) {
     for (List<String> regionCodes : countryCodeToRegionCodeMap.values()) {
       supportedCountries.addAll(regionCodes);
     }
     nanpaCountries.addAll(countryCodeToRegionCodeMap.get(NANPA_COUNTRY_CODE));
-  }
-
-  private void loadMetadataForRegionFromFile(String filePrefix, String regionCode) {
-    InputStream source =
-        PhoneNumberUtil.class.getResourceAsStream(filePrefix + "_" + regionCode);
-    ObjectInputStream in;
-    try {
-      in = new ObjectInputStream(source);
-      PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
-      metadataCollection.readExternal(in);
-      for (PhoneMetadata metadata : metadataCollection.getMetadataList()) {
-        countryToMetadataMap.put(regionCode, metadata);
-      }
-    } catch (IOException e) {
-      LOGGER.log(Level.WARNING, e.toString());
-    }
+    countryCallingCodeTable = new CountryCallingCodeTable(countryCodeToRegionCodeMap);
+    metadataSnapshot = new MetadataSnapshot(source, supportedCountries, countryCallingCodeTable);
   }
 
   /**
@@ -398,22 +415,17 @@ public class PhoneNumberUtil {
    *                found in the number
    */
   static String extractPossibleNumber(String number) {
-    Matcher m = VALID_START_CHAR_PATTERN.matcher(number);
-    if (m.find()) {
-      number = number.substring(m.start());
-      // Remove trailing non-alpha non-numerical characters.
-      Matcher trailingCharsMatcher = UNWANTED_END_CHAR_PATTERN.matcher(number);
-      if (trailingCharsMatcher.find()) {
-        number = number.substring(0, trailingCharsMatcher.start());
-      }
-      // Check for extra numbers at the end.
-      Matcher secondNumber = SECOND_NUMBER_START_PATTERN.matcher(number);
-      if (secondNumber.find()) {
-        number = number.substring(0, secondNumber.start());
-      }
-      return number;
-    } else {
-      return "";
+    StringBuffer possibleNumber = new StringBuffer(number.length());
+    extractPossibleNumber(number, possibleNumber);
+    return possibleNumber.toString();
+  }
+
+  // Same as extractPossibleNumber(String), but appends the possible number to the buffer passed in.
+  private static void extractPossibleNumber(CharSequence number, StringBuffer possibleNumber) {
+    int start = PhoneNumberScanner.findStart(number);
+    if (start >= 0) {
+      // Removes trailing non-alpha non-numerical characters, and any second number at the end.
+      possibleNumber.append(number, start, PhoneNumberScanner.findEnd(number, start));
     }
   }
 
@@ -427,12 +439,16 @@ public class PhoneNumberUtil {
    * @param number  string to be checked for viability as a phone number
    * @return        true if the number could be a phone number of some sort, otherwise false
    */
-  static boolean isViablePhoneNumber(String number) {
-    if (number.length() < MIN_LENGTH_FOR_NSN) {
+  static boolean isViablePhoneNumber(CharSequence number) {
+    return isViablePhoneNumber(number, number.length());
+  }
+
+  // Same as isViablePhoneNumber(number.subSequence(0, end)), without creating the subsequence.
+  private static boolean isViablePhoneNumber(CharSequence number, int end) {
+    if (end < MIN_LENGTH_FOR_NSN) {
       return false;
     }
-    Matcher m = VALID_PHONE_NUMBER_PATTERN.matcher(number);
-    return m.matches();
+    return PhoneNumberScanner.isViable(number, end);
   }
 
   /**
@@ -450,11 +466,10 @@ public class PhoneNumberUtil {
    * @return        the normalized string version of the phone number
    */
   static String normalize(String number) {
-    Matcher m = VALID_ALPHA_PHONE_PATTERN.matcher(number);
-    if (m.matches()) {
-      return normalizeHelper(number, ALL_NORMALIZATION_MAPPINGS, true);
+    if (PhoneNumberScanner.isAlphaNumber(number)) {
+      return normalizeHelper(number, ALL_NORMALIZATION_TABLE, true);
     } else {
-      return normalizeHelper(number, DIGIT_MAPPINGS, true);
+      return normalizeHelper(number, DIGIT_TABLE, true);
     }
   }
 
@@ -466,8 +481,9 @@ public class PhoneNumberUtil {
    *     in place
    */
   static void normalize(StringBuffer number) {
-    String normalizedNumber = normalize(number.toString());
-    number.replace(0, number.length(), normalizedNumber);
+    NormalizationTable normalizationReplacements =
+        PhoneNumberScanner.isAlphaNumber(number) ? ALL_NORMALIZATION_TABLE : DIGIT_TABLE;
+    normalizationReplacements.normalizeInPlace(number);
   }
 
   /**
@@ -478,7 +494,7 @@ public class PhoneNumberUtil {
    * @return        the normalized string version of the phone number
    */
   public static String normalizeDigitsOnly(String number) {
-    return normalizeHelper(number, DIGIT_MAPPINGS, true);
+    return normalizeHelper(number, DIGIT_TABLE, true);
   }
 
   /**
@@ -487,7 +503,7 @@ public class PhoneNumberUtil {
    * to normal ascii digits, and converts Arabic-Indic numerals to European numerals.
    */
   public static String convertAlphaCharactersInNumber(String number) {
-    return normalizeHelper(number, ALL_NORMALIZATION_MAPPINGS, false);
+    return normalizeHelper(number, ALL_NORMALIZATION_TABLE, false);
   }
 
   /**
@@ -528,11 +544,12 @@ public class PhoneNumberUtil {
    * @return  the length of area code of the PhoneNumber object passed in.
    */
   public int getLengthOfGeographicalAreaCode(PhoneNumber number) {
-    String regionCode = getRegionCodeForNumber(number);
+    MetadataSnapshot snapshot = metadataSnapshot;
+    String regionCode = getRegionCodeForNumber(snapshot, number);
     if (!isValidRegionCode(regionCode)) {
       return 0;
     }
-    PhoneMetadata metadata = getMetadataForRegion(regionCode);
+    PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
     // For NANPA countries, national prefix is the same as country code, but it is not stored in
     // the metadata.
     if (!metadata.hasNationalPrefix() && !isNANPACountry(regionCode)) {
@@ -557,7 +574,7 @@ public class PhoneNumberUtil {
       copiedProto = number;
     }
 
-    String nationalSignificantNumber = format(copiedProto,
+    String nationalSignificantNumber = format(snapshot, copiedProto,
                                               PhoneNumberUtil.PhoneNumberFormat.INTERNATIONAL);
     String[] numberGroups = NON_DIGITS_PATTERN.split(nationalSignificantNumber);
     // The pattern will start with "+COUNTRY_CODE " so the first group will always be the empty
@@ -575,7 +592,7 @@ public class PhoneNumberUtil {
    * removeNonMatches is true.
    *
    * @param number                     a string of characters representing a phone number
-   * @param normalizationReplacements  a mapping of characters to what they should be replaced by in
+   * @param normalizationReplacements  a table of characters to what they should be replaced by in
    *                                   the normalized version of the phone number
    * @param removeNonMatches           indicates whether characters that are not able to be replaced
    *                                   should be stripped from the number. If this is false, they
@@ -583,33 +600,28 @@ public class PhoneNumberUtil {
    * @return  the normalized string version of the phone number
    */
   private static String normalizeHelper(String number,
-                                        Map<Character, Character> normalizationReplacements,
+                                        NormalizationTable normalizationReplacements,
                                         boolean removeNonMatches) {
-    StringBuffer normalizedNumber = new StringBuffer(number.length());
-    char[] numberAsCharArray = number.toCharArray();
-    for (char character : numberAsCharArray) {
-      Character newDigit = normalizationReplacements.get(Character.toUpperCase(character));
-      if (newDigit != null) {
-        normalizedNumber.append(newDigit);
-      } else if (!removeNonMatches) {
-        normalizedNumber.append(character);
-      }
-      // If neither of the above are true, we remove this character.
-    }
-    return normalizedNumber.toString();
+    return normalizationReplacements.normalize(number, removeNonMatches);
   }
 
   static synchronized PhoneNumberUtil getInstance(
-      String baseFileLocation,
+      String metadataFile,
       Map<Integer, List<String>> countryCodeToRegionCodeMap) {
     if (instance == null) {
-      instance = new PhoneNumberUtil();
-      instance.countryCodeToRegionCodeMap = countryCodeToRegionCodeMap;
-      instance.init(baseFileLocation);
+      instance = createInstance(new ClasspathMetadataSource(metadataFile),
+                                countryCodeToRegionCodeMap);
     }
     return instance;
   }
 
+  static PhoneNumberUtil createInstance(MetadataSource metadataSource,
+                                        Map<Integer, List<String>> countryCodeToRegionCodeMap) {
+    PhoneNumberUtil phoneUtil = new PhoneNumberUtil();
+    phoneUtil.init(metadataSource, countryCodeToRegionCodeMap);
+    return phoneUtil;
+  }
+
   /**
    * Used for testing purposes only to reset the PhoneNumberUtil singleton to null.
    */
@@ -637,12 +649,190 @@ public class PhoneNumberUtil {
    */
   public static synchronized PhoneNumberUtil getInstance() {
     if (instance == null) {
-      return getInstance(META_DATA_FILE_PREFIX,
+      return getInstance(META_DATA_FILE,
           CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap());
     }
     return instance;
   }
 
+  /**
+   * Creates a new PhoneNumberUtil instance which loads its metadata from the source passed in,
+   * instead of from the metadata packaged with the library on the classpath. Unlike getInstance(),
+   * this creates a new instance on each call, which is independent of the singleton.
+   *
+   * @param metadataSource  the source from which to load the metadata for each region
+   * @return a new PhoneNumberUtil instance
+   */
+  public static PhoneNumberUtil createInstance(MetadataSource metadataSource) {
+    return createInstance(metadataSource,
+                          CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap());
+  }
+
+  /**
+   * Warms up the library for all supported regions. See warmUp(Collection, Executor) for details.
+   */
+  public WarmUpStats warmUpAllRegions(Executor executor) throws InterruptedException {
+    return warmUp(supportedCountries, executor);
+  }
+
+  /**
+   * Loads the metadata for the regions passed in and compiles all the regular expressions it
+   * contains, so that the first numbers parsed, formatted or validated for these regions don't pay
+   * for this. Each region is warmed up by a separate task run on the executor passed in, and this
+   * method blocks until all of them have finished.
+   *
+   * The compiled patterns are kept with the metadata they belong to, so they stay compiled for as
+   * long as the metadata is in use.
+   *
+   * @param regionCodes  the ISO 3166-1 two-letter country codes of the regions to warm up
+   * @param executor  the executor on which the warm-up tasks are run
+   * @return  timing statistics of the warm-up, which include the regions that could not be loaded
+   * @throws InterruptedException  if the calling thread is interrupted while waiting for the
+   *     warm-up tasks to finish
+   */
+  public WarmUpStats warmUp(Collection<String> regionCodes, Executor executor)
+      throws InterruptedException {
+    return warmUp(metadataSnapshot, regionCodes, executor);
+  }
+
+  private WarmUpStats warmUp(final MetadataSnapshot snapshot, Collection<String> regionCodes,
+                             Executor executor) throws InterruptedException {
+    long startTime = System.nanoTime();
+    final AtomicInteger patternCount = new AtomicInteger();
+    Map<String, FutureTask<Long>> tasks = new LinkedHashMap<String, FutureTask<Long>>();
+    for (final String regionCode : regionCodes) {
+      FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>() {
+        public Long call() {
+          long regionStartTime = System.nanoTime();
+          PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
+          if (metadata == null) {
+            return null;
+          }
+          patternCount.addAndGet(compilePatterns(metadata));
+          return System.nanoTime() - regionStartTime;
+        }
+      });
+      tasks.put(regionCode, task);
+      executor.execute(task);
+    }
+    Map<String, Long> loadTimeByRegion = new HashMap<String, Long>(tasks.size() * 4 / 3 + 1);
+    List<String> failedRegions = new ArrayList<String>();
+    for (Map.Entry<String, FutureTask<Long>> entry : tasks.entrySet()) {
+      String regionCode = entry.getKey();
+      Long loadTime = null;
+      try {
+        loadTime = entry.getValue().get();
+      } catch (ExecutionException e) {
+        LOGGER.log(Level.WARNING, "Failed to warm up " + regionCode + ": " + e.getCause());
+      }
+      if (loadTime == null) {
+        failedRegions.add(regionCode);
+      } else {
+        loadTimeByRegion.put(regionCode, loadTime);
+      }
+    }
+    return new WarmUpStats(loadTimeByRegion, failedRegions, patternCount.get(),
+                           System.nanoTime() - startTime);
+  }
+
+  /**
+   * Replaces the metadata of this instance with the metadata loaded from the source passed in,
+   * without having to create a new instance. See reloadMetadata(MetadataSource, Executor) for
+   * details. The new metadata is loaded on the calling thread.
+   */
+  public WarmUpStats reloadMetadata(MetadataSource metadataSource)
+      throws IOException, InterruptedException {
+    return reloadMetadata(metadataSource, new Executor() {
+      public void execute(Runnable command) {
+        command.run();
+      }
+    });
+  }
+
+  /**
+   * Replaces the metadata of this instance with the metadata loaded from the source passed in,
+   * without having to create a new instance. The metadata of all supported regions is loaded, and
+   * its regular expressions compiled, before any of it is used, and then the new metadata replaces
+   * the old metadata in one step. Calls which are already running when this happens finish using
+   * the old metadata, and calls made afterwards use the new metadata, so no call ever sees a
+   * mixture of both. Calls never wait for a reload to finish.
+   *
+   * The set of supported regions and their country codes cannot be changed by a reload, so the new
+   * source must contain metadata for every supported region. If it does not, or if loading the
+   * metadata fails, the old metadata is kept and an IOException is thrown.
+   *
+   * AsYouTypeFormatters which were created before the reload keep using the old metadata. The
+   * parse cache, if it is turned on, is emptied.
+   *
+   * @param metadataSource  the source from which to load the new metadata
+   * @param executor  the executor on which the regions are loaded, one task per region
+   * @return  timing statistics of loading the new metadata
+   * @throws IOException  if the metadata of any supported region could not be loaded
+   * @throws InterruptedException  if the calling thread is interrupted while waiting for the
+   *     loading tasks to finish. The old metadata is kept in this case.
+   */
+  public WarmUpStats reloadMetadata(MetadataSource metadataSource, Executor executor)
+      throws IOException, InterruptedException {
+    MetadataSnapshot newSnapshot =
+        new MetadataSnapshot(metadataSource, supportedCountries, countryCallingCodeTable);
+    WarmUpStats stats = warmUp(newSnapshot, supportedCountries, executor);
+    if (!stats.getFailedRegions().isEmpty()) {
+      throw new IOException("Failed to load the metadata for regions " + stats.getFailedRegions());
+    }
+    replaceMetadataSnapshot(newSnapshot);
+    return stats;
+  }
+
+  // Makes the snapshot passed in the one in use, and empties the parse cache, whose entries were
+  // parsed with the old one. This is synchronized with setParseCacheSize(), so that a new cache
+  // can't be created for the old snapshot after the cache has been emptied.
+  private synchronized void replaceMetadataSnapshot(MetadataSnapshot newSnapshot) {
+    metadataSnapshot = newSnapshot;
+    if (parseCache != null) {
+      parseCache.invalidate(newSnapshot);
+    }
+  }
+
+  // Compiles all the regular expressions in the metadata passed in, and returns how many there are.
+  // The compiled patterns are kept by the metadata itself.
+  private int compilePatterns(PhoneMetadata metadata) {
+    int patternCount = 1;
+    metadata.getCompiledInternationalPrefix();
+    if (metadata.hasNationalPrefixForParsing()) {
+      metadata.getCompiledNationalPrefixForParsing();
+      patternCount++;
+    }
+    if (metadata.hasLeadingDigits()) {
+      metadata.getCompiledLeadingDigits();
+      patternCount++;
+    }
+    PhoneNumberDesc[] descs = {
+        metadata.getGeneralDesc(), metadata.getFixedLine(), metadata.getMobile(),
+        metadata.getTollFree(), metadata.getPremiumRate(), metadata.getSharedCost(),
+        metadata.getPersonalNumber(), metadata.getVoip(), metadata.getPager() };
+    for (PhoneNumberDesc desc : descs) {
+      if (desc != null) {
+        desc.getNationalNumberMatcher();
+        desc.getPossibleNumberMatcher();
+        patternCount += 2;
+      }
+    }
+    metadata.getNumberTypeClassifier();
+    metadata.getNumberFormatSelector();
+    metadata.getIntlNumberFormatSelector();
+    List<NumberFormat> numberFormats = new ArrayList<NumberFormat>(metadata.getNumberFormatList());
+    numberFormats.addAll(metadata.getIntlNumberFormatList());
+    for (NumberFormat numberFormat : numberFormats) {
+      numberFormat.getCompiledPattern();
+      patternCount++;
+      for (int i = 0; i < numberFormat.getLeadingDigitsPatternCount(); i++) {
+        numberFormat.getCompiledLeadingDigitsPattern(i);
+        patternCount++;
+      }
+    }
+    return patternCount;
+  }
+
   /**
    * Helper function to check region code is not unknown or null.
    */
@@ -664,8 +854,13 @@ public class PhoneNumberUtil {
    * @return  the formatted phone number
    */
   public String format(PhoneNumber number, PhoneNumberFormat numberFormat) {
+    return format(metadataSnapshot, number, numberFormat);
+  }
+
+  private String format(MetadataSnapshot snapshot, PhoneNumber number,
+                        PhoneNumberFormat numberFormat) {
     StringBuffer formattedNumber = new StringBuffer(20);
-    format(number, numberFormat, formattedNumber);
+    format(snapshot, number, numberFormat, formattedNumber);
     return formattedNumber.toString();
   }
 
@@ -673,6 +868,11 @@ public class PhoneNumberUtil {
   // to decrease object creation when invoked many times.
   public void format(PhoneNumber number, PhoneNumberFormat numberFormat,
                      StringBuffer formattedNumber) {
+    format(metadataSnapshot, number, numberFormat, formattedNumber);
+  }
+
+  private void format(MetadataSnapshot snapshot, PhoneNumber number,
+                      PhoneNumberFormat numberFormat, StringBuffer formattedNumber) {
     // Clear the StringBuffer first.
     formattedNumber.setLength(0);
     int countryCode = number.getCountryCode();
@@ -693,9 +893,9 @@ public class PhoneNumberUtil {
       return;
     }
 
-    formattedNumber.append(formatNationalNumber(nationalSignificantNumber,
+    formattedNumber.append(formatNationalNumber(snapshot, nationalSignificantNumber,
                                                 regionCode, numberFormat));
-    maybeGetFormattedExtension(number, regionCode, formattedNumber);
+    maybeGetFormattedExtension(snapshot, number, regionCode, formattedNumber);
     formatNumberByFormat(countryCode, numberFormat, formattedNumber);
   }
 
@@ -713,6 +913,7 @@ public class PhoneNumberUtil {
   public String formatByPattern(PhoneNumber number,
                                 PhoneNumberFormat numberFormat,
                                 List<NumberFormat> userDefinedFormats) {
+    MetadataSnapshot snapshot = metadataSnapshot;
     int countryCode = number.getCountryCode();
     String nationalSignificantNumber = getNationalSignificantNumber(number);
     // Note getRegionCodeForCountryCode() is used because formatting information for countries which
@@ -732,13 +933,14 @@ public class PhoneNumberUtil {
         // appropriate national prefix.
         NumberFormat numFormatCopy = new NumberFormat();
         numFormatCopy.mergeFrom(numFormat);
-        String nationalPrefix = getMetadataForRegion(regionCode).getNationalPrefix();
+        String nationalPrefix = getMetadataForRegion(snapshot, regionCode).getNationalPrefix();
         if (nationalPrefix.length() > 0) {
           // Replace $NP with national prefix and $FG with the first group ($1).
           nationalPrefixFormattingRule =
-              NP_PATTERN.matcher(nationalPrefixFormattingRule).replaceFirst(nationalPrefix);
+              MatcherPool.matcher(NP_PATTERN, nationalPrefixFormattingRule)
+                  .replaceFirst(nationalPrefix);
           nationalPrefixFormattingRule =
-              FG_PATTERN.matcher(nationalPrefixFormattingRule).replaceFirst("\\$1");
+              MatcherPool.matcher(FG_PATTERN, nationalPrefixFormattingRule).replaceFirst("\\$1");
           numFormatCopy.setNationalPrefixFormattingRule(nationalPrefixFormattingRule);
         } else {
           // We don't want to have a rule for how to format the national prefix if there isn't one.
@@ -755,12 +957,13 @@ public class PhoneNumberUtil {
         new StringBuffer(formatAccordingToFormats(nationalSignificantNumber,
                                                   userDefinedFormatsCopy,
                                                   numberFormat));
-    maybeGetFormattedExtension(number, regionCode, formattedNumber);
+    maybeGetFormattedExtension(snapshot, number, regionCode, formattedNumber);
     formatNumberByFormat(countryCode, numberFormat, formattedNumber);
     return formattedNumber.toString();
   }
 
   public String formatNationalNumberWithCarrierCode(PhoneNumber number, String carrierCode) {
+    MetadataSnapshot snapshot = metadataSnapshot;
     int countryCode = number.getCountryCode();
     String nationalSignificantNumber = getNationalSignificantNumber(number);
     // Note getRegionCodeForCountryCode() is used because formatting information for countries which
@@ -772,11 +975,12 @@ public class PhoneNumberUtil {
     }
 
     StringBuffer formattedNumber = new StringBuffer(20);
-    formattedNumber.append(formatNationalNumber(nationalSignificantNumber,
+    formattedNumber.append(formatNationalNumber(snapshot,
+                                                nationalSignificantNumber,
                                                 regionCode,
                                                 PhoneNumberFormat.NATIONAL,
                                                 carrierCode));
-    maybeGetFormattedExtension(number, regionCode, formattedNumber);
+    maybeGetFormattedExtension(snapshot, number, regionCode, formattedNumber);
     formatNumberByFormat(countryCode, PhoneNumberFormat.NATIONAL, formattedNumber);
     return formattedNumber.toString();
   }
@@ -801,8 +1005,13 @@ public class PhoneNumberUtil {
    */
   public String formatOutOfCountryCallingNumber(PhoneNumber number,
                                                 String countryCallingFrom) {
+    return formatOutOfCountryCallingNumber(metadataSnapshot, number, countryCallingFrom);
+  }
+
+  private String formatOutOfCountryCallingNumber(MetadataSnapshot snapshot, PhoneNumber number,
+                                                 String countryCallingFrom) {
     if (!isValidRegionCode(countryCallingFrom)) {
-      return format(number, PhoneNumberFormat.INTERNATIONAL);
+      return format(snapshot, number, PhoneNumberFormat.INTERNATIONAL);
     }
     int countryCode = number.getCountryCode();
     String regionCode = getRegionCodeForCountryCode(countryCode);
@@ -814,34 +1023,34 @@ public class PhoneNumberUtil {
       if (isNANPACountry(countryCallingFrom)) {
         // For NANPA countries, return the national format for these countries but prefix it with
         // the country code.
-        return countryCode + " " + format(number, PhoneNumberFormat.NATIONAL);
+        return countryCode + " " + format(snapshot, number, PhoneNumberFormat.NATIONAL);
       }
-    } else if (countryCode == getCountryCodeForRegion(countryCallingFrom)) {
+    } else if (countryCode == getCountryCodeForRegion(snapshot, countryCallingFrom)) {
     // For countries that share a country calling code, the country code need not be dialled. This
     // also applies when dialling within a country, so this if clause covers both these cases.
     // Technically this is the case for dialling from la Reunion to other overseas departments of
     // France (French Guiana, Martinique, Guadeloupe), but not vice versa - so we don't cover this
     // edge case for now and for those cases return the version including country code.
     // Details here: http://www.petitfute.com/voyage/225-info-pratiques-reunion
-      return format(number, PhoneNumberFormat.NATIONAL);
+      return format(snapshot, number, PhoneNumberFormat.NATIONAL);
     }
     String formattedNationalNumber =
-        formatNationalNumber(nationalSignificantNumber,
+        formatNationalNumber(snapshot, nationalSignificantNumber,
                              regionCode, PhoneNumberFormat.INTERNATIONAL);
-    PhoneMetadata metadata = getMetadataForRegion(countryCallingFrom);
+    PhoneMetadata metadata = getMetadataForRegion(snapshot, countryCallingFrom);
     String internationalPrefix = metadata.getInternationalPrefix();
 
     // For countries that have multiple international prefixes, the international format of the
     // number is returned, unless there is a preferred international prefix.
     String internationalPrefixForFormatting = "";
-    if (UNIQUE_INTERNATIONAL_PREFIX.matcher(internationalPrefix).matches()) {
+    if (MatcherPool.matcher(UNIQUE_INTERNATIONAL_PREFIX, internationalPrefix).matches()) {
       internationalPrefixForFormatting = internationalPrefix;
     } else if (metadata.hasPreferredInternationalPrefix()) {
       internationalPrefixForFormatting = metadata.getPreferredInternationalPrefix();
     }
 
     StringBuffer formattedNumber = new StringBuffer(formattedNationalNumber);
-    maybeGetFormattedExtension(number, regionCode, formattedNumber);
+    maybeGetFormattedExtension(snapshot, number, regionCode, formattedNumber);
     if (internationalPrefixForFormatting.length() > 0) {
       formattedNumber.insert(0, " ").insert(0, countryCode).insert(0, " ")
           .insert(0, internationalPrefixForFormatting);
@@ -865,19 +1074,20 @@ public class PhoneNumberUtil {
    * @return  the formatted phone number in its original number format
    */
   public String formatInOriginalFormat(PhoneNumber number, String countryCallingFrom) {
+    MetadataSnapshot snapshot = metadataSnapshot;
     if (!number.hasCountryCodeSource()) {
-      return format(number, PhoneNumberFormat.NATIONAL);
+      return format(snapshot, number, PhoneNumberFormat.NATIONAL);
     }
     switch (number.getCountryCodeSource()) {
       case FROM_NUMBER_WITH_PLUS_SIGN:
-        return format(number, PhoneNumberFormat.INTERNATIONAL);
+        return format(snapshot, number, PhoneNumberFormat.INTERNATIONAL);
       case FROM_NUMBER_WITH_IDD:
-        return formatOutOfCountryCallingNumber(number, countryCallingFrom);
+        return formatOutOfCountryCallingNumber(snapshot, number, countryCallingFrom);
       case FROM_NUMBER_WITHOUT_PLUS_SIGN:
-        return format(number, PhoneNumberFormat.INTERNATIONAL).substring(1);
+        return format(snapshot, number, PhoneNumberFormat.INTERNATIONAL).substring(1);
       case FROM_DEFAULT_COUNTRY:
       default:
-        return format(number, PhoneNumberFormat.NATIONAL);
+        return format(snapshot, number, PhoneNumberFormat.NATIONAL);
     }
   }
 
@@ -925,29 +1135,46 @@ public class PhoneNumberUtil {
   }
 
   // Simple wrapper of formatNationalNumber for the common case of no carrier code.
-  private String formatNationalNumber(String number,
+  private String formatNationalNumber(MetadataSnapshot snapshot,
+                                      String number,
                                       String regionCode,
                                       PhoneNumberFormat numberFormat) {
-    return formatNationalNumber(number, regionCode, numberFormat, null);
+    return formatNationalNumber(snapshot, number, regionCode, numberFormat, null);
   }
 
   // Note in some countries, the national number can be written in two completely different ways
   // depending on whether it forms part of the NATIONAL format or INTERNATIONAL format. The
   // numberFormat parameter here is used to specify which format to use for those cases. If a
   // carrierCode is specified, this will be inserted into the formatted string to replace $CC.
-  private String formatNationalNumber(String number,
+  private String formatNationalNumber(MetadataSnapshot snapshot,
+                                      String number,
                                       String regionCode,
                                       PhoneNumberFormat numberFormat,
                                       String carrierCode) {
-    PhoneMetadata metadata = getMetadataForRegion(regionCode);
+    PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
     List<NumberFormat> intlNumberFormats = metadata.getIntlNumberFormatList();
     // When the intlNumberFormats exists, we use that to format national number for the
     // INTERNATIONAL format instead of using the numberDesc.numberFormats.
+    boolean useIntlFormats =
+        intlNumberFormats.size() > 0 && numberFormat != PhoneNumberFormat.NATIONAL;
     List<NumberFormat> availableFormats =
-        (intlNumberFormats.size() == 0 || numberFormat == PhoneNumberFormat.NATIONAL)
-        ? metadata.getNumberFormatList()
-        : metadata.getIntlNumberFormatList();
-    return formatAccordingToFormats(number, availableFormats, numberFormat, carrierCode);
+        useIntlFormats ? intlNumberFormats : metadata.getNumberFormatList();
+    NumberFormatSelector selector = useIntlFormats ? metadata.getIntlNumberFormatSelector()
+                                                   : metadata.getNumberFormatSelector();
+    int[] candidates = selector.getCandidates(number);
+    if (candidates == null) {
+      return formatAccordingToFormats(number, availableFormats, numberFormat, carrierCode);
+    }
+    // Only the formats whose leading digits match need to be tried, and usually the first of them
+    // matches the whole number.
+    for (int candidate : candidates) {
+      String formattedNumber = formatIfMatchingFormat(number, availableFormats.get(candidate),
+                                                      numberFormat, carrierCode);
+      if (formattedNumber != null) {
+        return formattedNumber;
+      }
+    }
+    return number;
   }
 
   // Simple wrapper of formatAccordingToFormats for the common case of no carrier code.
@@ -965,32 +1192,14 @@ public class PhoneNumberUtil {
                                           String carrierCode) {
     for (NumberFormat numFormat : availableFormats) {
       int size = numFormat.getLeadingDigitsPatternCount();
-      if (size == 0 || regexCache.getPatternForRegex(
-              // We always use the last leading_digits_pattern, as it is the most detailed.
-              numFormat.getLeadingDigitsPattern(size - 1)).matcher(nationalNumber).lookingAt()) {
-        Matcher m = regexCache.getPatternForRegex(numFormat.getPattern()).matcher(nationalNumber);
-        String numberFormatRule = numFormat.getFormat();
-        if (m.matches()) {
-          if (carrierCode != null && carrierCode.length() > 0 &&
-              numFormat.getDomesticCarrierCodeFormattingRule().length() > 0) {
-            // Replace the $CC in the formatting rule with the desired carrier code.
-            String carrierCodeFormattingRule = numFormat.getDomesticCarrierCodeFormattingRule();
-            carrierCodeFormattingRule =
-                CC_PATTERN.matcher(carrierCodeFormattingRule).replaceFirst(carrierCode);
-            // Now replace the $FG in the formatting rule with the first group and the carrier code
-            // combined in the appropriate way.
-            numberFormatRule = FIRST_GROUP_PATTERN.matcher(numberFormatRule)
-                .replaceFirst(carrierCodeFormattingRule);
-          }
-          String nationalPrefixFormattingRule = numFormat.getNationalPrefixFormattingRule();
-          if (numberFormat == PhoneNumberFormat.NATIONAL &&
-              nationalPrefixFormattingRule != null &&
-              nationalPrefixFormattingRule.length() > 0) {
-            Matcher firstGroupMatcher = FIRST_GROUP_PATTERN.matcher(numberFormatRule);
-            return m.replaceAll(firstGroupMatcher.replaceFirst(nationalPrefixFormattingRule));
-          } else {
-            return m.replaceAll(numberFormatRule);
-          }
+      if (size == 0 ||
+          // We always use the last leading_digits_pattern, as it is the most detailed.
+          MatcherPool.matcher(numFormat.getCompiledLeadingDigitsPattern(size - 1), nationalNumber)
+              .lookingAt()) {
+        String formattedNumber =
+            formatIfMatchingFormat(nationalNumber, numFormat, numberFormat, carrierCode);
+        if (formattedNumber != null) {
+          return formattedNumber;
         }
       }
     }
@@ -999,6 +1208,39 @@ public class PhoneNumberUtil {
     return nationalNumber;
   }
 
+  // Formats the national number with the format passed in if the number matches its pattern, and
+  // returns null otherwise. The leading digits of the format are not checked.
+  private String formatIfMatchingFormat(String nationalNumber,
+                                        NumberFormat numFormat,
+                                        PhoneNumberFormat numberFormat,
+                                        String carrierCode) {
+    Matcher m = MatcherPool.matcher(numFormat.getCompiledPattern(), nationalNumber);
+    if (!m.matches()) {
+      return null;
+    }
+    String numberFormatRule = numFormat.getFormat();
+    if (carrierCode != null && carrierCode.length() > 0 &&
+        numFormat.getDomesticCarrierCodeFormattingRule().length() > 0) {
+      // Replace the $CC in the formatting rule with the desired carrier code.
+      String carrierCodeFormattingRule = numFormat.getDomesticCarrierCodeFormattingRule();
+      carrierCodeFormattingRule =
+          MatcherPool.matcher(CC_PATTERN, carrierCodeFormattingRule).replaceFirst(carrierCode);
+      // Now replace the $FG in the formatting rule with the first group and the carrier code
+      // combined in the appropriate way.
+      numberFormatRule = MatcherPool.matcher(FIRST_GROUP_PATTERN, numberFormatRule)
+          .replaceFirst(carrierCodeFormattingRule);
+    }
+    String nationalPrefixFormattingRule = numFormat.getNationalPrefixFormattingRule();
+    if (numberFormat == PhoneNumberFormat.NATIONAL &&
+        nationalPrefixFormattingRule != null &&
+        nationalPrefixFormattingRule.length() > 0) {
+      Matcher firstGroupMatcher = MatcherPool.matcher(FIRST_GROUP_PATTERN, numberFormatRule);
+      return m.replaceAll(firstGroupMatcher.replaceFirst(nationalPrefixFormattingRule));
+    } else {
+      return m.replaceAll(numberFormatRule);
+    }
+  }
+
   /**
    * Gets a valid number for the specified country.
    *
@@ -1021,10 +1263,13 @@ public class PhoneNumberUtil {
    *     does not contain such information.
    */
   public PhoneNumber getExampleNumberForType(String regionCode, PhoneNumberType type) {
-    PhoneNumberDesc desc = getNumberDescByType(getMetadataForRegion(regionCode), type);
+    MetadataSnapshot snapshot = metadataSnapshot;
+    PhoneNumberDesc desc = getNumberDescByType(getMetadataForRegion(snapshot, regionCode), type);
     try {
       if (desc.hasExampleNumber()) {
-        return parse(desc.getExampleNumber(), regionCode);
+        PhoneNumber exampleNumber = new PhoneNumber();
+        parse(snapshot, desc.getExampleNumber(), regionCode, exampleNumber, new ParseContext());
+        return exampleNumber;
       }
     } catch (NumberParseException e) {
       LOGGER.log(Level.SEVERE, e.toString());
@@ -1036,13 +1281,13 @@ public class PhoneNumberUtil {
    * Appends the formatted extension of a phone number to formattedNumber, if the phone number had
    * an extension specified.
    */
-  private void maybeGetFormattedExtension(PhoneNumber number, String regionCode,
-                                          StringBuffer formattedNumber) {
+  private void maybeGetFormattedExtension(MetadataSnapshot snapshot, PhoneNumber number,
+                                          String regionCode, StringBuffer formattedNumber) {
     if (number.hasExtension()) {
       // Formats the extension part of the phone number by prefixing it with the appropriate
       // extension prefix. This will be the default extension prefix, unless overridden by a
       // preferred extension prefix for this country.
-      PhoneMetadata metadata = getMetadataForRegion(regionCode);
+      PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
       if (metadata.hasPreferredExtnPrefix()) {
         formattedNumber.append(metadata.getPreferredExtnPrefix());
       } else {
@@ -1083,18 +1328,36 @@ public class PhoneNumberUtil {
    * @return  the type of the phone number
    */
   public PhoneNumberType getNumberType(PhoneNumber number) {
-    String regionCode = getRegionCodeForNumber(number);
+    MetadataSnapshot snapshot = metadataSnapshot;
+    String regionCode = getRegionCodeForNumber(snapshot, number);
     if (!isValidRegionCode(regionCode)) {
       return PhoneNumberType.UNKNOWN;
     }
     String nationalSignificantNumber = getNationalSignificantNumber(number);
-    return getNumberTypeHelper(nationalSignificantNumber, getMetadataForRegion(regionCode));
+    return getNumberTypeHelper(nationalSignificantNumber,
+                               getMetadataForRegion(snapshot, regionCode));
   }
 
   private PhoneNumberType getNumberTypeHelper(String nationalNumber, PhoneMetadata metadata) {
     PhoneNumberDesc generalNumberDesc = metadata.getGeneralDesc();
     if (!generalNumberDesc.hasNationalNumberPattern() ||
-        !isNumberMatchingDesc(nationalNumber, generalNumberDesc)) {
+        !generalNumberDesc.isPossibleLength(nationalNumber.length())) {
+      return PhoneNumberType.UNKNOWN;
+    }
+    PhoneNumberType type = metadata.getNumberTypeClassifier().classify(
+        nationalNumber, metadata.getSameMobileAndFixedLinePattern());
+    if (type != null) {
+      return type;
+    }
+    return getNumberTypeByMatchingEachDesc(nationalNumber, metadata);
+  }
+
+  // Works out the type of a number by trying the number descriptions one by one. The
+  // NumberTypeClassifier of the metadata gives the same results in a single pass, and this is only
+  // used when it can't classify the number. This method is also used for testing.
+  PhoneNumberType getNumberTypeByMatchingEachDesc(String nationalNumber,
+                                                  PhoneMetadata metadata) {
+    if (!isNumberMatchingDesc(nationalNumber, metadata.getGeneralDesc())) {
       return PhoneNumberType.UNKNOWN;
     }
 
@@ -1136,24 +1399,72 @@ public class PhoneNumberUtil {
   }
 
   PhoneMetadata getMetadataForRegion(String regionCode) {
+    return getMetadataForRegion(metadataSnapshot, regionCode);
+  }
+
+  PhoneMetadata getMetadataForRegion(MetadataSnapshot snapshot, String regionCode) {
     if (!isValidRegionCode(regionCode)) {
       return null;
     }
-    regionCode = regionCode.toUpperCase();
-    if (!countryToMetadataMap.containsKey(regionCode)) {
-      loadMetadataForRegionFromFile(currentFilePrefix, regionCode);
+    return snapshot.getMetadataForRegion(regionCode.toUpperCase());
+  }
+
+  /**
+   * Returns the metadata snapshot currently in use, for classes such as AsYouTypeFormatter which
+   * need to keep using the same metadata across several calls.
+   */
+  MetadataSnapshot getMetadataSnapshot() {
+    return metadataSnapshot;
+  }
+
+  /**
+   * Returns the counters of the cache holding the regular expressions this class compiles from
+   * strings, rather than taking from the metadata. This can be used to check whether the cache is
+   * big enough for the numbers being processed.
+   */
+  public RegexCacheStats getRegexCacheStats() {
+    return regexCache.getStats();
+  }
+
+  /**
+   * Turns on a cache of the outcomes of parsing strings, which holds up to maxSize of them, or
+   * turns it off if maxSize is 0. The cache is off by default. It pays off when the same strings
+   * are parsed over and over, as they often are when the numbers come from the same users or
+   * systems.
+   *
+   * Numbers passed to parse(), tryParse() and parseAndKeepRawInput() as strings are looked up by
+   * the string, the default country and whether the raw input is kept; other sequences of
+   * characters may change after the call, so they are never cached. The fields parsing sets are
+   * copied from the cache into the phone number being filled up, exactly as parsing would have
+   * set them, so turning the cache on doesn't change any result, and callers can't change the
+   * cached numbers. Failures are cached as well, and throw or return the same error.
+   *
+   * The cache is emptied when the metadata is reloaded, so that numbers are never parsed with old
+   * metadata. Calling this method again replaces the cache with an empty one of the new size, and
+   * resets its counters.
+   *
+   * @param maxSize  the number of strings the cache can hold, or 0 to turn it off
+   */
+  public synchronized void setParseCacheSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("The size of the cache must not be negative: " + maxSize);
     }
-    return countryToMetadataMap.get(regionCode);
+    parseCache = maxSize == 0 ? null : new ParseCache(maxSize, metadataSnapshot);
+  }
+
+  /**
+   * Returns the counters of the parse cache, which can be used to check whether it is big enough
+   * for the numbers being parsed. The counters are all 0 if the cache is turned off.
+   */
+  public ParseCacheStats getParseCacheStats() {
+    ParseCache cache = parseCache;
+    return cache == null ? new ParseCacheStats(0, 0, 0, 0, 0, 0) : cache.getStats();
   }
 
   private boolean isNumberMatchingDesc(String nationalNumber, PhoneNumberDesc numberDesc) {
-    Matcher possibleNumberPatternMatcher =
-        regexCache.getPatternForRegex(numberDesc.getPossibleNumberPattern())
-            .matcher(nationalNumber);
-    Matcher nationalNumberPatternMatcher =
-        regexCache.getPatternForRegex(numberDesc.getNationalNumberPattern())
-            .matcher(nationalNumber);
-    return possibleNumberPatternMatcher.matches() && nationalNumberPatternMatcher.matches();
+    return numberDesc.isPossibleLength(nationalNumber.length()) &&
+        numberDesc.getPossibleNumberMatcher().matches(nationalNumber) &&
+        numberDesc.getNationalNumberMatcher().matches(nationalNumber);
   }
 
   /**
@@ -1164,9 +1475,13 @@ public class PhoneNumberUtil {
    * @return  a boolean that indicates whether the number is of a valid pattern
    */
   public boolean isValidNumber(PhoneNumber number) {
-    String regionCode = getRegionCodeForNumber(number);
+    return isValidNumber(metadataSnapshot, number);
+  }
+
+  private boolean isValidNumber(MetadataSnapshot snapshot, PhoneNumber number) {
+    String regionCode = getRegionCodeForNumber(snapshot, number);
     return isValidRegionCode(regionCode)
-           && isValidNumberForRegion(number, regionCode);
+           && isValidNumberForRegion(snapshot, number, regionCode);
   }
 
   /**
@@ -1183,10 +1498,15 @@ public class PhoneNumberUtil {
    * @return  a boolean that indicates whether the number is of a valid pattern
    */
   public boolean isValidNumberForRegion(PhoneNumber number, String regionCode) {
-    if (number.getCountryCode() != getCountryCodeForRegion(regionCode)) {
+    return isValidNumberForRegion(metadataSnapshot, number, regionCode);
+  }
+
+  private boolean isValidNumberForRegion(MetadataSnapshot snapshot, PhoneNumber number,
+                                         String regionCode) {
+    if (number.getCountryCode() != getCountryCodeForRegion(snapshot, regionCode)) {
       return false;
     }
-    PhoneMetadata metadata = getMetadataForRegion(regionCode);
+    PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
     PhoneNumberDesc generalNumDesc = metadata.getGeneralDesc();
     String nationalSignificantNumber = getNationalSignificantNumber(number);
 
@@ -1209,27 +1529,31 @@ public class PhoneNumberUtil {
    *     calling code.
    */
   public String getRegionCodeForNumber(PhoneNumber number) {
+    return getRegionCodeForNumber(metadataSnapshot, number);
+  }
+
+  private String getRegionCodeForNumber(MetadataSnapshot snapshot, PhoneNumber number) {
     int countryCode = number.getCountryCode();
-    List<String> regions = countryCodeToRegionCodeMap.get(countryCode);
+    String[] regions = countryCallingCodeTable.getRegionCodes(countryCode);
     if (regions == null) {
       return null;
     }
-    if (regions.size() == 1) {
-      return regions.get(0);
+    if (regions.length == 1) {
+      return regions[0];
     } else {
-      return getRegionCodeForNumberFromRegionList(number, regions);
+      return getRegionCodeForNumberFromRegionList(snapshot, number, regions);
     }
   }
 
-  private String getRegionCodeForNumberFromRegionList(PhoneNumber number,
-                                                      List<String> regionCodes) {
+  private String getRegionCodeForNumberFromRegionList(MetadataSnapshot snapshot,
+                                                      PhoneNumber number,
+                                                      String[] regionCodes) {
     String nationalNumber = String.valueOf(number.getNationalNumber());
     for (String regionCode : regionCodes) {
       // If leadingDigits is present, use this. Otherwise, do full validation.
-      PhoneMetadata metadata = getMetadataForRegion(regionCode);
+      PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
       if (metadata.hasLeadingDigits()) {
-        if (regexCache.getPatternForRegex(metadata.getLeadingDigits())
-                .matcher(nationalNumber).lookingAt()) {
+        if (MatcherPool.matcher(metadata.getCompiledLeadingDigits(), nationalNumber).lookingAt()) {
           return regionCode;
         }
       } else if (getNumberTypeHelper(nationalNumber, metadata) != PhoneNumberType.UNKNOWN) {
@@ -1245,8 +1569,8 @@ public class PhoneNumberUtil {
    * metadata as the "main" country for this calling code will be returned.
    */
   public String getRegionCodeForCountryCode(int countryCode) {
-    List<String> regionCodes = countryCodeToRegionCodeMap.get(countryCode);
-    return regionCodes == null ? "ZZ" : regionCodes.get(0);
+    String regionCode = countryCallingCodeTable.getMainRegionCode(countryCode);
+    return regionCode == null ? "ZZ" : regionCode;
   }
 
   /**
@@ -1258,10 +1582,14 @@ public class PhoneNumberUtil {
    * @return  the country calling code for the country/region denoted by regionCode
    */
   public int getCountryCodeForRegion(String regionCode) {
+    return getCountryCodeForRegion(metadataSnapshot, regionCode);
+  }
+
+  private int getCountryCodeForRegion(MetadataSnapshot snapshot, String regionCode) {
     if (!isValidRegionCode(regionCode)) {
       return 0;
     }
-    PhoneMetadata metadata = getMetadataForRegion(regionCode);
+    PhoneMetadata metadata = getMetadataForRegion(snapshot, regionCode);
     if (metadata == null) {
       return 0;
     }
@@ -1355,6 +1683,11 @@ public class PhoneNumberUtil {
    * @return  a ValidationResult object which indicates whether the number is possible
    */
   public ValidationResult isPossibleNumberWithReason(PhoneNumber number) {
+    return isPossibleNumberWithReason(metadataSnapshot, number);
+  }
+
+  private ValidationResult isPossibleNumberWithReason(MetadataSnapshot snapshot,
+                                                      PhoneNumber number) {
     int countryCode = number.getCountryCode();
     // Note: For Russian Fed and NANPA numbers, we just use the rules from the default region (US or
     // Russia) since the getRegionCodeForNumber will not work if the number is possible but not
@@ -1365,7 +1698,8 @@ public class PhoneNumberUtil {
       return ValidationResult.INVALID_COUNTRY_CODE;
     }
     String nationalNumber = getNationalSignificantNumber(number);
-    PhoneNumberDesc generalNumDesc = getMetadataForRegion(regionCode).getGeneralDesc();
+    PhoneNumberDesc generalNumDesc =
+        snapshot.getMetadataForCountryCode(countryCode).getGeneralDesc();
     // Handling case of numbers with no metadata.
     if (!generalNumDesc.hasNationalNumberPattern()) {
       LOGGER.log(Level.FINER, "Checking if number is possible with incomplete metadata.");
@@ -1378,14 +1712,17 @@ public class PhoneNumberUtil {
         return ValidationResult.IS_POSSIBLE;
       }
     }
-    String possibleNumberPattern = generalNumDesc.getPossibleNumberPattern();
-    Matcher m = regexCache.getPatternForRegex(possibleNumberPattern).matcher(nationalNumber);
-    if (m.lookingAt()) {
-      return (m.end() == nationalNumber.length()) ? ValidationResult.IS_POSSIBLE
-                                                  : ValidationResult.TOO_LONG;
-    } else {
+    if (generalNumDesc.isShorterThanPossibleLengths(nationalNumber.length())) {
       return ValidationResult.TOO_SHORT;
     }
+    switch (generalNumDesc.getPossibleNumberMatcher().lookingAt(nationalNumber)) {
+      case MATCHES_ALL:
+        return ValidationResult.IS_POSSIBLE;
+      case MATCHES_PART:
+        return ValidationResult.TOO_LONG;
+      default:
+        return ValidationResult.TOO_SHORT;
+    }
   }
 
   /**
@@ -1409,11 +1746,11 @@ public class PhoneNumberUtil {
    * @return  true if the number is possible
    */
   public boolean isPossibleNumber(String number, String countryDialingFrom) {
-    try {
-      return isPossibleNumber(parse(number, countryDialingFrom));
-    } catch (NumberParseException e) {
-      return false;
-    }
+    MetadataSnapshot snapshot = metadataSnapshot;
+    PhoneNumber phoneNumber = new PhoneNumber();
+    return tryParse(snapshot, number, countryDialingFrom, false, phoneNumber, new ParseContext())
+               == ParseResult.SUCCESS &&
+           isPossibleNumberWithReason(snapshot, phoneNumber) == ValidationResult.IS_POSSIBLE;
   }
 
   /**
@@ -1424,7 +1761,8 @@ public class PhoneNumberUtil {
    * @return  true if a valid phone number can be successfully extracted.
    */
   public boolean truncateTooLongNumber(PhoneNumber number) {
-    if (isValidNumber(number)) {
+    MetadataSnapshot snapshot = metadataSnapshot;
+    if (isValidNumber(snapshot, number)) {
       return true;
     }
     PhoneNumber numberCopy = new PhoneNumber();
@@ -1433,11 +1771,11 @@ public class PhoneNumberUtil {
     do {
       nationalNumber /= 10;
       numberCopy.setNationalNumber(nationalNumber);
-      if (isPossibleNumberWithReason(numberCopy) == ValidationResult.TOO_SHORT ||
+      if (isPossibleNumberWithReason(snapshot, numberCopy) == ValidationResult.TOO_SHORT ||
           nationalNumber == 0) {
         return false;
       }
-    } while (!isValidNumber(numberCopy));
+    } while (!isValidNumber(snapshot, numberCopy));
     number.setNationalNumber(nationalNumber);
     return true;
   }
@@ -1452,19 +1790,25 @@ public class PhoneNumberUtil {
    *     specific country "as you type"
    */
   public AsYouTypeFormatter getAsYouTypeFormatter(String regionCode) {
-    return new AsYouTypeFormatter(regionCode);
+    return new AsYouTypeFormatter(this, regionCode);
   }
 
   // Extracts country code from fullNumber, returns it and places the remaining number in
   // nationalNumber. It assumes that the leading plus sign or IDD has already been removed. Returns
   // 0 if fullNumber doesn't start with a valid country code, and leaves nationalNumber unmodified.
   int extractCountryCode(StringBuffer fullNumber, StringBuffer nationalNumber) {
-    int potentialCountryCode;
+    int potentialCountryCode = 0;
     int numberLength = fullNumber.length();
     for (int i = 1; i <= 3 && i <= numberLength; i++) {
-      potentialCountryCode = Integer.parseInt(fullNumber.substring(0, i));
-      if (countryCodeToRegionCodeMap.containsKey(potentialCountryCode)) {
-        nationalNumber.append(fullNumber.substring(i));
+      char digit = fullNumber.charAt(i - 1);
+      if (digit >= '0' && digit <= '9') {
+        potentialCountryCode = potentialCountryCode * 10 + (digit - '0');
+      } else {
+        // Only normalized numbers are expected here; anything else is parsed as before.
+        potentialCountryCode = Integer.parseInt(fullNumber.substring(0, i));
+      }
+      if (countryCallingCodeTable.getRegionCodes(potentialCountryCode) != null) {
+        nationalNumber.append(fullNumber, i, numberLength);
         return potentialCountryCode;
       }
     }
@@ -1503,14 +1847,29 @@ public class PhoneNumberUtil {
                               StringBuffer nationalNumber, boolean storeCountryCodeSource,
                               PhoneNumber phoneNumber)
       throws NumberParseException {
+    throwIfFailed(maybeExtractCountryCode(number, defaultRegionMetadata, nationalNumber,
+                                          storeCountryCodeSource, phoneNumber, new ParseContext()));
+    return number.length() == 0 ? 0 : phoneNumber.getCountryCode();
+  }
+
+  // Same as above, but uses the buffers of the context passed in, and returns whether a country
+  // code could be extracted rather than throwing an exception. The country code extracted, or 0,
+  // is only stored in phoneNumber, which is left alone if the number is empty.
+  private ParseResult maybeExtractCountryCode(CharSequence number,
+                                              PhoneMetadata defaultRegionMetadata,
+                                              StringBuffer nationalNumber,
+                                              boolean storeCountryCodeSource,
+                                              PhoneNumber phoneNumber, ParseContext context) {
     if (number.length() == 0) {
-      return 0;
+      return ParseResult.SUCCESS;
     }
-    StringBuffer fullNumber = new StringBuffer(number);
+    StringBuffer fullNumber = context.fullNumber;
+    fullNumber.setLength(0);
+    fullNumber.append(number);
     // Set the default prefix to be something that will never match.
-    String possibleCountryIddPrefix = "NonMatch";
+    Pattern possibleCountryIddPrefix = NON_MATCHING_IDD_PREFIX_PATTERN;
     if (defaultRegionMetadata != null) {
-      possibleCountryIddPrefix = defaultRegionMetadata.getInternationalPrefix();
+      possibleCountryIddPrefix = defaultRegionMetadata.getCompiledInternationalPrefix();
     }
 
     CountryCodeSource countryCodeSource =
@@ -1520,60 +1879,72 @@ public class PhoneNumberUtil {
     }
     if (countryCodeSource != CountryCodeSource.FROM_DEFAULT_COUNTRY) {
       if (fullNumber.length() < MIN_LENGTH_FOR_NSN) {
-        throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_AFTER_IDD,
-                                       "Phone number had an IDD, but after this was not "
-                                       + "long enough to be a viable phone number.");
+        return ParseResult.TOO_SHORT_AFTER_IDD;
       }
       int potentialCountryCode = extractCountryCode(fullNumber, nationalNumber);
       if (potentialCountryCode != 0) {
         phoneNumber.setCountryCode(potentialCountryCode);
-        return potentialCountryCode;
+        return ParseResult.SUCCESS;
       }
 
       // If this fails, they must be using a strange country code that we don't recognize, or
       // that doesn't exist.
-      throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
-                                     "Country code supplied was not recognised.");
+      return ParseResult.INVALID_COUNTRY_CODE;
     } else if (defaultRegionMetadata != null) {
       // Check to see if the number is valid for the default region already. If not, we check to
       // see if the country code for the default region is present at the start of the number.
       PhoneNumberDesc generalDesc = defaultRegionMetadata.getGeneralDesc();
-      Pattern validNumberPattern =
-          regexCache.getPatternForRegex(generalDesc.getNationalNumberPattern());
-      if (!validNumberPattern.matcher(fullNumber).matches()) {
+      DigitPatternMatcher validNumberMatcher = generalDesc.getNationalNumberMatcher();
+      if (!validNumberMatcher.matches(fullNumber)) {
         int defaultCountryCode = defaultRegionMetadata.getCountryCode();
-        String defaultCountryCodeString = String.valueOf(defaultCountryCode);
-        String normalizedNumber = fullNumber.toString();
-        if (normalizedNumber.startsWith(defaultCountryCodeString)) {
+        int countryCodeLength = getCountryCodeLength(fullNumber, defaultCountryCode);
+        if (countryCodeLength > 0) {
           // If so, strip this, and see if the resultant number is valid.
-          StringBuffer potentialNationalNumber =
-              new StringBuffer(normalizedNumber.substring(defaultCountryCodeString.length()));
+          StringBuffer potentialNationalNumber = context.potentialNationalNumber;
+          potentialNationalNumber.setLength(0);
+          potentialNationalNumber.append(fullNumber, countryCodeLength, fullNumber.length());
           maybeStripNationalPrefix(
               potentialNationalNumber,
-              defaultRegionMetadata.getNationalPrefixForParsing(),
-              defaultRegionMetadata.getNationalPrefixTransformRule(),
-              validNumberPattern);
-          Matcher possibleNumberMatcher =
-              regexCache.getPatternForRegex(generalDesc.getPossibleNumberPattern()).matcher(
-                  potentialNationalNumber);
+              defaultRegionMetadata,
+              generalDesc.getCompiledNationalNumberPattern());
           // If the resultant number is either valid, or still too long even with the country code
           // stripped, we consider this a better result and keep the potential national number.
-          if (validNumberPattern.matcher(potentialNationalNumber).matches() ||
-              (possibleNumberMatcher.lookingAt() &&
-               possibleNumberMatcher.end() != potentialNationalNumber.length())) {
+          if (validNumberMatcher.matches(potentialNationalNumber) ||
+              generalDesc.getPossibleNumberMatcher().lookingAt(potentialNationalNumber) ==
+                  DigitPatternMatcher.LookingAtResult.MATCHES_PART) {
             nationalNumber.append(potentialNationalNumber);
             if (storeCountryCodeSource) {
               phoneNumber.setCountryCodeSource(CountryCodeSource.FROM_NUMBER_WITHOUT_PLUS_SIGN);
             }
             phoneNumber.setCountryCode(defaultCountryCode);
-            return defaultCountryCode;
+            return ParseResult.SUCCESS;
           }
         }
       }
     }
     // No country code present.
     phoneNumber.setCountryCode(0);
-    return 0;
+    return ParseResult.SUCCESS;
+  }
+
+  // Returns the number of digits of the country code passed in if the number starts with them, and
+  // 0 otherwise.
+  private static int getCountryCodeLength(CharSequence number, int countryCode) {
+    int divisor = 1;
+    int countryCodeLength = 1;
+    while (countryCode / divisor >= 10) {
+      divisor *= 10;
+      countryCodeLength++;
+    }
+    if (number.length() < countryCodeLength) {
+      return 0;
+    }
+    for (int i = 0; i < countryCodeLength; i++, divisor /= 10) {
+      if (number.charAt(i) != (char) ('0' + countryCode / divisor % 10)) {
+        return 0;
+      }
+    }
+    return countryCodeLength;
   }
 
   /**
@@ -1581,15 +1952,20 @@ public class PhoneNumberUtil {
    * maybeStripInternationalPrefixAndNormalize.
    */
   private boolean parsePrefixAsIdd(Pattern iddPattern, StringBuffer number) {
-    Matcher m = iddPattern.matcher(number);
+    Matcher m = MatcherPool.matcher(iddPattern, number);
     if (m.lookingAt()) {
       int matchEnd = m.end();
       // Only strip this if the first digit after the match is not a 0, since country codes cannot
       // begin with 0.
-      Matcher digitMatcher = CAPTURING_DIGIT_PATTERN.matcher(number.substring(matchEnd));
+      Matcher digitMatcher =
+          MatcherPool.matcher(CAPTURING_DIGIT_PATTERN, number).region(matchEnd, number.length());
       if (digitMatcher.find()) {
-        String normalizedGroup = normalizeHelper(digitMatcher.group(1), DIGIT_MAPPINGS, true);
-        if (normalizedGroup.equals("0")) {
+        // The group is a single digit, unless it is one outside the Basic Multilingual Plane, which
+        // normalizes to nothing.
+        char normalizedDigit = digitMatcher.end(1) - digitMatcher.start(1) == 1
+            ? DIGIT_TABLE.lookUp(number.charAt(digitMatcher.start(1)))
+            : NormalizationTable.NO_REPLACEMENT;
+        if (normalizedDigit == '0') {
           return false;
         }
       }
@@ -1614,11 +1990,17 @@ public class PhoneNumberUtil {
   CountryCodeSource maybeStripInternationalPrefixAndNormalize(
       StringBuffer number,
       String possibleIddPrefix) {
+    return maybeStripInternationalPrefixAndNormalize(
+        number, regexCache.getPatternForRegex(possibleIddPrefix));
+  }
+
+  private CountryCodeSource maybeStripInternationalPrefixAndNormalize(StringBuffer number,
+                                                                      Pattern iddPattern) {
     if (number.length() == 0) {
       return CountryCodeSource.FROM_DEFAULT_COUNTRY;
     }
     // Check to see if the number begins with one or more plus signs.
-    Matcher m = PLUS_CHARS_PATTERN.matcher(number);
+    Matcher m = MatcherPool.matcher(PLUS_CHARS_PATTERN, number);
     if (m.lookingAt()) {
       number.delete(0, m.end());
       // Can now normalize the rest of the number since we've consumed the "+" sign at the start.
@@ -1626,7 +2008,6 @@ public class PhoneNumberUtil {
       return CountryCodeSource.FROM_NUMBER_WITH_PLUS_SIGN;
     }
     // Attempt to parse the first digits as an international prefix.
-    Pattern iddPattern = regexCache.getPatternForRegex(possibleIddPrefix);
     if (parsePrefixAsIdd(iddPattern, number)) {
       normalize(number);
       return CountryCodeSource.FROM_NUMBER_WITH_IDD;
@@ -1654,34 +2035,50 @@ public class PhoneNumberUtil {
    */
   void maybeStripNationalPrefix(StringBuffer number, String possibleNationalPrefix,
                                 String transformRule, Pattern nationalNumberRule) {
-    int numberLength = number.length();
-    if (numberLength == 0 || possibleNationalPrefix.length() == 0) {
+    if (number.length() == 0 || possibleNationalPrefix.length() == 0) {
+      // Early return for numbers of zero length.
+      return;
+    }
+    maybeStripNationalPrefix(number, regexCache.getPatternForRegex(possibleNationalPrefix),
+                             transformRule, nationalNumberRule);
+  }
+
+  // Same as above, but uses the national prefix of the region whose metadata is passed in.
+  private void maybeStripNationalPrefix(StringBuffer number, PhoneMetadata metadata,
+                                        Pattern nationalNumberRule) {
+    if (number.length() == 0 || metadata.getNationalPrefixForParsing().length() == 0) {
       // Early return for numbers of zero length.
       return;
     }
+    maybeStripNationalPrefix(number, metadata.getCompiledNationalPrefixForParsing(),
+                             metadata.getNationalPrefixTransformRule(), nationalNumberRule);
+  }
+
+  private void maybeStripNationalPrefix(StringBuffer number, Pattern nationalPrefixPattern,
+                                        String transformRule, Pattern nationalNumberRule) {
     // Attempt to parse the first digits as a national prefix.
-    Matcher m = regexCache.getPatternForRegex(possibleNationalPrefix).matcher(number);
+    Matcher m = MatcherPool.matcher(nationalPrefixPattern, number);
     if (m.lookingAt()) {
       // m.group(1) == null implies nothing was captured by the capturing groups in
       // possibleNationalPrefix; therefore, no transformation is necessary, and we
       // just remove the national prefix.
       if (transformRule == null || transformRule.length() == 0 || m.group(1) == null) {
+        int prefixEnd = m.end();
         // Check that the resultant number is viable. If not, return.
-        Matcher nationalNumber = nationalNumberRule.matcher(number.substring(m.end()));
+        Matcher nationalNumber =
+            MatcherPool.matcher(nationalNumberRule, number).region(prefixEnd, number.length());
         if (!nationalNumber.matches()) {
           return;
         }
-        number.delete(0, m.end());
+        number.delete(0, prefixEnd);
       } else {
-        // Check that the resultant number is viable. If not, return. Check this by copying the
-        // string buffer and making the transformation on the copy first.
-        StringBuffer transformedNumber = new StringBuffer(number);
-        transformedNumber.replace(0, numberLength, m.replaceFirst(transformRule));
-        Matcher nationalNumber = nationalNumberRule.matcher(transformedNumber.toString());
-        if (!nationalNumber.matches()) {
+        // Check that the resultant number is viable. If not, return. Check this by making the
+        // transformation on a copy of the number first.
+        String transformedNumber = m.replaceFirst(transformRule);
+        if (!MatcherPool.matcher(nationalNumberRule, transformedNumber).matches()) {
           return;
         }
-        number.replace(0, number.length(), transformedNumber.toString());
+        number.replace(0, number.length(), transformedNumber);
       }
     }
   }
@@ -1694,20 +2091,25 @@ public class PhoneNumberUtil {
    * @return        the phone extension
    */
   String maybeStripExtension(StringBuffer number) {
-    Matcher m = EXTN_PATTERN.matcher(number);
+    return maybeStripExtension(number, number.toString());
+  }
+
+  // Same as maybeStripExtension(StringBuffer), but scans numberText, which holds the same
+  // characters as the number. Every call to charAt() of a StringBuffer takes its lock, which would
+  // make up most of the time taken to scan it.
+  private String maybeStripExtension(StringBuffer number, CharSequence numberText) {
+    int extensionStart = PhoneNumberScanner.findExtensionStart(numberText);
     // If we find a potential extension, and the number preceding this is a viable number, we assume
     // it is an extension.
-    if (m.find() && isViablePhoneNumber(number.substring(0, m.start()))) {
-      // The numbers are captured into groups in the regular expression.
-      for (int i = 1, length = m.groupCount(); i <= length; i++) {
-        if (m.group(i) != null) {
-          // We go through the capturing groups until we find one that captured some digits. If none
-          // did, then we will return the empty string.
-          String extension = m.group(i);
-          number.delete(m.start(), number.length());
-          return extension;
-        }
+    if (extensionStart >= 0 && isViablePhoneNumber(numberText, extensionStart)) {
+      int digitsEnd = PhoneNumberScanner.findExtensionDigitsEnd(numberText);
+      int digitsStart = digitsEnd;
+      while (PhoneNumberScanner.isDigit(numberText.charAt(digitsStart - 1))) {
+        digitsStart--;
       }
+      String extension = number.substring(digitsStart, digitsEnd);
+      number.setLength(extensionStart);
+      return extension;
     }
     return "";
   }
@@ -1743,13 +2145,143 @@ public class PhoneNumberUtil {
   // decrease object creation when invoked many times.
   public void parse(String numberToParse, String defaultCountry, PhoneNumber phoneNumber)
       throws NumberParseException {
+    parse(metadataSnapshot, numberToParse, defaultCountry, phoneNumber, new ParseContext());
+  }
+
+  /**
+   * Same as parse(String, String, PhoneNumber), but also reuses the buffers of the ParseContext
+   * passed in, so that parsing a well-formed number creates no objects other than those stored in
+   * the phone number. The context must not be used by another thread during the call.
+   */
+  public void parse(String numberToParse, String defaultCountry, PhoneNumber phoneNumber,
+                    ParseContext context) throws NumberParseException {
+    parse(metadataSnapshot, numberToParse, defaultCountry, phoneNumber, context);
+  }
+
+  /**
+   * Same as parse(String, String), but parses any sequence of characters, such as a CharBuffer or
+   * a StringBuilder holding the number, without making a string of it first.
+   */
+  public PhoneNumber parse(CharSequence numberToParse, String defaultCountry)
+      throws NumberParseException {
+    PhoneNumber phoneNumber = new PhoneNumber();
+    parse(metadataSnapshot, numberToParse, defaultCountry, phoneNumber, new ParseContext());
+    return phoneNumber;
+  }
+
+  // Same as parse(CharSequence, String), but accepts mutable PhoneNumber as a parameter to
+  // decrease object creation when invoked many times.
+  public void parse(CharSequence numberToParse, String defaultCountry, PhoneNumber phoneNumber)
+      throws NumberParseException {
+    parse(metadataSnapshot, numberToParse, defaultCountry, phoneNumber, new ParseContext());
+  }
+
+  // Same as parse(String, String, PhoneNumber, ParseContext), for any sequence of characters.
+  public void parse(CharSequence numberToParse, String defaultCountry, PhoneNumber phoneNumber,
+                    ParseContext context) throws NumberParseException {
+    parse(metadataSnapshot, numberToParse, defaultCountry, phoneNumber, context);
+  }
+
+  /**
+   * Same as parse(String, String, PhoneNumber, ParseContext), but parses the number held in the
+   * length characters of the buffer starting at offset, without copying them.
+   */
+  public void parse(char[] buffer, int offset, int length, String defaultCountry,
+                    PhoneNumber phoneNumber, ParseContext context) throws NumberParseException {
+    parse(metadataSnapshot, CharBuffer.wrap(buffer, offset, length), defaultCountry, phoneNumber,
+          context);
+  }
+
+  private void parse(MetadataSnapshot snapshot, CharSequence numberToParse, String defaultCountry,
+                     PhoneNumber phoneNumber, ParseContext context) throws NumberParseException {
+    if (!checkRegionForParsing(numberToParse, defaultCountry)) {
+      throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                                     "Missing or invalid default country.");
+    }
+    throwIfFailed(cachedParseHelper(snapshot, numberToParse, defaultCountry, false, phoneNumber,
+                                    context));
+  }
+
+  /**
+   * Parses a string and fills up the phoneNumber, as parse(String, String, PhoneNumber) does, but
+   * returns the outcome of parsing instead of throwing a NumberParseException when the string
+   * can't be parsed. This is cheaper when many of the strings parsed are not phone numbers, as no
+   * exception is created for them. The phoneNumber may have been partly filled up when parsing
+   * fails.
+   *
+   * @param numberToParse     number that we are attempting to parse. This can contain formatting
+   *                          such as +, ( and -, as well as a phone number extension.
+   * @param defaultCountry    the ISO 3166-1 two-letter country code that denotes the country that
+   *                          we are expecting the number to be from, as for parse()
+   * @param phoneNumber       the phone number proto buffer to fill with the parsed number
+   * @return                  SUCCESS if the number was parsed, otherwise the reason why it couldn't
+   *                          be, which is the error type with which parse() would have failed
+   */
+  public ParseResult tryParse(CharSequence numberToParse, String defaultCountry,
+                              PhoneNumber phoneNumber) {
+    return tryParse(metadataSnapshot, numberToParse, defaultCountry, false, phoneNumber,
+                    new ParseContext());
+  }
+
+  // Same as tryParse(CharSequence, String, PhoneNumber), but uses the buffers of the context
+  // passed in, as parse(String, String, PhoneNumber, ParseContext) does.
+  public ParseResult tryParse(CharSequence numberToParse, String defaultCountry,
+                              PhoneNumber phoneNumber, ParseContext context) {
+    return tryParse(metadataSnapshot, numberToParse, defaultCountry, false, phoneNumber, context);
+  }
+
+  // Same as tryParse(CharSequence, String, PhoneNumber, ParseContext), but parses the number held
+  // in the length characters of the buffer starting at offset.
+  public ParseResult tryParse(char[] buffer, int offset, int length, String defaultCountry,
+                              PhoneNumber phoneNumber, ParseContext context) {
+    return tryParse(metadataSnapshot, CharBuffer.wrap(buffer, offset, length), defaultCountry,
+                    false, phoneNumber, context);
+  }
+
+  private ParseResult tryParse(MetadataSnapshot snapshot, CharSequence numberToParse,
+                               String defaultCountry, boolean keepRawInput,
+                               PhoneNumber phoneNumber, ParseContext context) {
+    if (!checkRegionForParsing(numberToParse, defaultCountry)) {
+      return ParseResult.INVALID_COUNTRY_CODE;
+    }
+    return cachedParseHelper(snapshot, numberToParse, defaultCountry, keepRawInput, phoneNumber,
+                             context);
+  }
+
+  // Checks that a default region was supplied unless the number to parse starts with a plus
+  // sign, without which its country code can't be known.
+  private boolean checkRegionForParsing(CharSequence numberToParse, String defaultCountry) {
     if (!isValidRegionCode(defaultCountry)) {
       if (numberToParse.length() > 0 && numberToParse.charAt(0) != PLUS_SIGN) {
-        throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
-                                       "Missing or invalid default country.");
+        return false;
       }
     }
-    parseHelper(numberToParse, defaultCountry, false, phoneNumber);
+    return true;
+  }
+
+  // Throws the NumberParseException with which parsing fails for the result passed in, unless it
+  // is SUCCESS.
+  private static void throwIfFailed(ParseResult result) throws NumberParseException {
+    switch (result) {
+      case SUCCESS:
+        return;
+      case INVALID_COUNTRY_CODE:
+        throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                                       "Country code supplied was not recognised.");
+      case NOT_A_NUMBER:
+        throw new NumberParseException(NumberParseException.ErrorType.NOT_A_NUMBER,
+                                       "The string supplied did not seem to be a phone number.");
+      case TOO_SHORT_AFTER_IDD:
+        throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_AFTER_IDD,
+                                       "Phone number had an IDD, but after this was not "
+                                       + "long enough to be a viable phone number.");
+      case TOO_SHORT_NSN:
+        throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_NSN,
+                                       "The string supplied is too short to be a phone number.");
+      default:
+        throw new NumberParseException(NumberParseException.ErrorType.TOO_LONG,
+                                       "The string supplied is too long to be a phone number.");
+    }
   }
 
   /**
@@ -1780,53 +2312,103 @@ public class PhoneNumberUtil {
   public void parseAndKeepRawInput(String numberToParse, String defaultCountry,
                                    PhoneNumber phoneNumber)
       throws NumberParseException {
-    if (!isValidRegionCode(defaultCountry)) {
-      if (numberToParse.length() > 0 && numberToParse.charAt(0) != PLUS_SIGN) {
-        throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
-                                       "Missing or invalid default country.");
-      }
-    }
-    parseHelper(numberToParse, defaultCountry, true, phoneNumber);
+    parseAndKeepRawInput((CharSequence) numberToParse, defaultCountry, phoneNumber);
+  }
+
+  /**
+   * Same as parseAndKeepRawInput(String, String), but parses any sequence of characters. Only the
+   * raw input stored in the phone number is made into a string.
+   */
+  public PhoneNumber parseAndKeepRawInput(CharSequence numberToParse, String defaultCountry)
+      throws NumberParseException {
+    PhoneNumber phoneNumber = new PhoneNumber();
+    parseAndKeepRawInput(numberToParse, defaultCountry, phoneNumber);
+    return phoneNumber;
+  }
+
+  // Same as parseAndKeepRawInput(CharSequence, String), but accepts mutable PhoneNumber as a
+  // parameter to decrease object creation when invoked many times.
+  public void parseAndKeepRawInput(CharSequence numberToParse, String defaultCountry,
+                                   PhoneNumber phoneNumber)
+      throws NumberParseException {
+    if (!checkRegionForParsing(numberToParse, defaultCountry)) {
+      throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                                     "Missing or invalid default country.");
+    }
+    throwIfFailed(cachedParseHelper(metadataSnapshot, numberToParse, defaultCountry, true,
+                                    phoneNumber, new ParseContext()));
+  }
+
+  // Same as parseHelper(), but looks the outcome up in the parse cache first if it is turned on and
+  // the number to parse is a string, and caches it if it isn't found.
+  private ParseResult cachedParseHelper(MetadataSnapshot snapshot, CharSequence numberToParse,
+                                        String defaultCountry, boolean keepRawInput,
+                                        PhoneNumber phoneNumber, ParseContext context) {
+    ParseCache cache = parseCache;
+    if (cache == null || !(numberToParse instanceof String)) {
+      return parseHelper(snapshot, numberToParse, defaultCountry, keepRawInput, phoneNumber,
+                         context);
+    }
+    String number = (String) numberToParse;
+    ParseCache.Entry entry = cache.get(snapshot, number, defaultCountry, keepRawInput);
+    if (entry == null) {
+      // The number is parsed into one of its own, which only the cache holds, and which records
+      // every field parsing sets, even when it fails.
+      PhoneNumber parsedNumber = new PhoneNumber();
+      context.countryCodeSourceCleared = false;
+      ParseResult result = parseHelper(snapshot, number, defaultCountry, keepRawInput,
+                                       parsedNumber, context);
+      entry = cache.putIfAbsent(snapshot, number, defaultCountry, keepRawInput,
+                                new ParseCache.Entry(result, parsedNumber,
+                                                     context.countryCodeSourceCleared));
+    }
+    return entry.copyTo(phoneNumber);
   }
 
   /**
    * Parses a string and fills up the phoneNumber. This method is the same as the public
    * parse() method, with the exception that it allows the default country to be null, for use by
-   * isNumberMatch().
+   * isNumberMatch(). It returns the outcome of parsing rather than throwing an exception.
    */
-  private void parseHelper(String numberToParse, String defaultCountry,
-                           boolean keepRawInput, PhoneNumber phoneNumber)
-      throws NumberParseException {
+  private ParseResult parseHelper(MetadataSnapshot snapshot, CharSequence numberToParse,
+                                  String defaultCountry, boolean keepRawInput,
+                                  PhoneNumber phoneNumber, ParseContext context) {
+    if (isE164Input(numberToParse)) {
+      return parseE164Input(snapshot, numberToParse, keepRawInput, phoneNumber, context);
+    }
     // Extract a possible number from the string passed in (this strips leading characters that
     // could not be the start of a phone number.)
-    String number = extractPossibleNumber(numberToParse);
-    if (!isViablePhoneNumber(number)) {
-      throw new NumberParseException(NumberParseException.ErrorType.NOT_A_NUMBER,
-                                     "The string supplied did not seem to be a phone number.");
+    StringBuffer nationalNumber = context.number;
+    nationalNumber.setLength(0);
+    extractPossibleNumber(numberToParse, nationalNumber);
+    if (!isViablePhoneNumber(nationalNumber)) {
+      return ParseResult.NOT_A_NUMBER;
     }
 
     if (keepRawInput) {
-      phoneNumber.setRawInput(numberToParse);
+      phoneNumber.setRawInput(numberToParse.toString());
     }
-    StringBuffer nationalNumber = new StringBuffer(number);
     // Attempt to parse extension first, since it doesn't require country-specific data and we want
     // to have the non-normalised number here.
-    String extension = maybeStripExtension(nationalNumber);
+    String extension = maybeStripExtension(nationalNumber, context.copyOf(nationalNumber));
     if (extension.length() > 0) {
       phoneNumber.setExtension(extension);
     }
 
-    PhoneMetadata countryMetadata = getMetadataForRegion(defaultCountry);
+    PhoneMetadata countryMetadata = getMetadataForRegion(snapshot, defaultCountry);
     // Check to see if the number is given in international format so we know whether this number is
     // from the default country or not.
-    StringBuffer normalizedNationalNumber = new StringBuffer();
-    int countryCode = maybeExtractCountryCode(nationalNumber.toString(), countryMetadata,
-                                              normalizedNationalNumber, keepRawInput, phoneNumber);
+    StringBuffer normalizedNationalNumber = context.nationalNumber;
+    normalizedNationalNumber.setLength(0);
+    ParseResult result = maybeExtractCountryCode(nationalNumber, countryMetadata,
+                                                 normalizedNationalNumber, keepRawInput,
+                                                 phoneNumber, context);
+    if (result != ParseResult.SUCCESS) {
+      return result;
+    }
+    int countryCode = phoneNumber.getCountryCode();
     if (countryCode != 0) {
-      String phoneNumberRegion = getRegionCodeForCountryCode(countryCode);
-      if (!phoneNumberRegion.equals(defaultCountry)) {
-        countryMetadata = getMetadataForRegion(phoneNumberRegion);
-      }
+      countryMetadata = snapshot.getMetadataForCountryCode(countryCode);
     } else {
       // If no extracted country code, use the region supplied instead. The national number is just
       // the normalized version of the number we were given to parse.
@@ -1837,35 +2419,94 @@ public class PhoneNumberUtil {
         phoneNumber.setCountryCode(countryCode);
       } else if (keepRawInput) {
         phoneNumber.clearCountryCodeSource();
+        context.countryCodeSourceCleared = true;
       }
     }
+    return setNationalNumber(normalizedNationalNumber, countryMetadata, countryCode, phoneNumber);
+  }
+
+  // Returns true if the number is a plus sign followed by nothing but ASCII digits, at least as
+  // many as the shortest viable phone number has. This is the form of numbers formatted in E164,
+  // in which most stored numbers are.
+  private static boolean isE164Input(CharSequence numberToParse) {
+    int length = numberToParse.length();
+    if (length <= MIN_LENGTH_FOR_NSN || numberToParse.charAt(0) != PLUS_SIGN) {
+      return false;
+    }
+    for (int i = 1; i < length; i++) {
+      char c = numberToParse.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Parses a number for which isE164Input() is true, with the same outcome as parseHelper() has
+  // for any other number. Such a number is already viable and normalized, and has no extension or
+  // international prefix, so none of these need to be looked for: the country code is read right
+  // after the plus sign, and the national significant number is built from the digits after it.
+  private ParseResult parseE164Input(MetadataSnapshot snapshot, CharSequence numberToParse,
+                                     boolean keepRawInput, PhoneNumber phoneNumber,
+                                     ParseContext context) {
+    if (keepRawInput) {
+      phoneNumber.setRawInput(numberToParse.toString());
+      phoneNumber.setCountryCodeSource(CountryCodeSource.FROM_NUMBER_WITH_PLUS_SIGN);
+    }
+    StringBuffer fullNumber = context.fullNumber;
+    fullNumber.setLength(0);
+    fullNumber.append(numberToParse, 1, numberToParse.length());
+    StringBuffer normalizedNationalNumber = context.nationalNumber;
+    normalizedNationalNumber.setLength(0);
+    int countryCode = extractCountryCode(fullNumber, normalizedNationalNumber);
+    if (countryCode == 0) {
+      return ParseResult.INVALID_COUNTRY_CODE;
+    }
+    phoneNumber.setCountryCode(countryCode);
+    PhoneMetadata countryMetadata = snapshot.getMetadataForCountryCode(countryCode);
+    return setNationalNumber(normalizedNationalNumber, countryMetadata, countryCode, phoneNumber);
+  }
+
+  // Strips any national prefix from the national significant number, and sets it on the phone
+  // number once it is known to be neither too short nor too long.
+  private ParseResult setNationalNumber(StringBuffer normalizedNationalNumber,
+                                        PhoneMetadata countryMetadata, int countryCode,
+                                        PhoneNumber phoneNumber) {
     if (normalizedNationalNumber.length() < MIN_LENGTH_FOR_NSN) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_NSN,
-                                     "The string supplied is too short to be a phone number.");
+      return ParseResult.TOO_SHORT_NSN;
     }
     if (countryMetadata != null) {
       Pattern validNumberPattern =
-          regexCache.getPatternForRegex(countryMetadata.getGeneralDesc()
-              .getNationalNumberPattern());
-      maybeStripNationalPrefix(normalizedNationalNumber,
-                               countryMetadata.getNationalPrefixForParsing(),
-                               countryMetadata.getNationalPrefixTransformRule(),
-                               validNumberPattern);
+          countryMetadata.getGeneralDesc().getCompiledNationalNumberPattern();
+      maybeStripNationalPrefix(normalizedNationalNumber, countryMetadata, validNumberPattern);
     }
     int lengthOfNationalNumber = normalizedNationalNumber.length();
     if (lengthOfNationalNumber < MIN_LENGTH_FOR_NSN) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_NSN,
-                                     "The string supplied is too short to be a phone number.");
+      return ParseResult.TOO_SHORT_NSN;
     }
     if (lengthOfNationalNumber > MAX_LENGTH_FOR_NSN) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_LONG,
-                                     "The string supplied is too long to be a phone number.");
+      return ParseResult.TOO_LONG;
     }
     if (normalizedNationalNumber.charAt(0) == '0' &&
         isLeadingZeroCountry(countryCode)) {
       phoneNumber.setItalianLeadingZero(true);
     }
-    phoneNumber.setNationalNumber(Long.parseLong(normalizedNationalNumber.toString()));
+    phoneNumber.setNationalNumber(parseNationalNumber(normalizedNationalNumber));
+    return ParseResult.SUCCESS;
+  }
+
+  // Same as Long.parseLong(nationalNumber.toString()), without creating the string for numbers made
+  // of ASCII digits only, which all normalized numbers are.
+  private static long parseNationalNumber(CharSequence nationalNumber) {
+    long value = 0;
+    for (int i = 0, length = nationalNumber.length(); i < length; i++) {
+      char digit = nationalNumber.charAt(i);
+      if (digit < '0' || digit > '9') {
+        return Long.parseLong(nationalNumber.toString());
+      }
+      value = value * 10 + (digit - '0');
+    }
+    return value;
   }
 
   /**
@@ -1968,10 +2609,18 @@ public class PhoneNumberUtil {
    */
   public MatchType isNumberMatch(String firstNumber, String secondNumber)
       throws NumberParseException {
+    return isNumberMatch((CharSequence) firstNumber, (CharSequence) secondNumber);
+  }
+
+  // Same as isNumberMatch(String, String), for any sequences of characters.
+  public MatchType isNumberMatch(CharSequence firstNumber, CharSequence secondNumber)
+      throws NumberParseException {
+    MetadataSnapshot snapshot = metadataSnapshot;
+    ParseContext context = new ParseContext();
     PhoneNumber number1 = new PhoneNumber();
-    parseHelper(firstNumber, null, false, number1);
+    throwIfFailed(parseHelper(snapshot, firstNumber, null, false, number1, context));
     PhoneNumber number2 = new PhoneNumber();
-    parseHelper(secondNumber, null, false, number2);
+    throwIfFailed(parseHelper(snapshot, secondNumber, null, false, number2, context));
     return isNumberMatch(number1, number2);
   }
 
@@ -1989,8 +2638,15 @@ public class PhoneNumberUtil {
    */
   public MatchType isNumberMatch(PhoneNumber firstNumber, String secondNumber)
       throws NumberParseException {
+    return isNumberMatch(firstNumber, (CharSequence) secondNumber);
+  }
+
+  // Same as isNumberMatch(PhoneNumber, String), for any sequence of characters.
+  public MatchType isNumberMatch(PhoneNumber firstNumber, CharSequence secondNumber)
+      throws NumberParseException {
     PhoneNumber number2 = new PhoneNumber();
-    parseHelper(secondNumber, null, false, number2);
+    throwIfFailed(parseHelper(metadataSnapshot, secondNumber, null, false, number2,
+                              new ParseContext()));
     return isNumberMatch(firstNumber, number2);
   }
 }
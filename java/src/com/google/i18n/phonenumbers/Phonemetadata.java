@@ -26,6 +26,7 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.regex.Pattern;
 
 public final class Phonemetadata {
   private Phonemetadata() {}
@@ -41,6 +42,7 @@ public final class Phonemetadata {
     public NumberFormat setPattern(String value) {
       hasPattern = true;
       pattern_ = value;
+      compiledPattern_ = null;
       return this;
     }
 
@@ -69,6 +71,7 @@ public final class Phonemetadata {
         throw new NullPointerException();
       }
       leadingDigitsPattern_.add(value);
+      compiledLeadingDigitsPatterns_ = null;
       return this;
     }
 
@@ -101,6 +104,36 @@ public final class Phonemetadata {
       return this;
     }
 
+    // The compiled forms of the patterns above. These are not part of the proto - they are
+    // compiled the first time they are needed, and kept for as long as the patterns don't change.
+    // No lock is taken: two threads may happen to compile the same pattern at the same time, which
+    // is harmless, as either compiled pattern will do. The lazily built fields of the other classes
+    // below rely on the same reasoning.
+    private volatile Pattern compiledPattern_;
+    Pattern getCompiledPattern() {
+      Pattern compiledPattern = compiledPattern_;
+      if (compiledPattern == null) {
+        compiledPattern = Pattern.compile(pattern_);
+        compiledPattern_ = compiledPattern;
+      }
+      return compiledPattern;
+    }
+
+    // Leading digits patterns added after these were compiled are noticed, but other changes made
+    // through getLeadingDigitsPatternList() are not.
+    private volatile Pattern[] compiledLeadingDigitsPatterns_;
+    Pattern getCompiledLeadingDigitsPattern(int index) {
+      Pattern[] compiledPatterns = compiledLeadingDigitsPatterns_;
+      if (compiledPatterns == null || compiledPatterns.length != leadingDigitsPattern_.size()) {
+        compiledPatterns = new Pattern[leadingDigitsPattern_.size()];
+        for (int i = 0; i < compiledPatterns.length; i++) {
+          compiledPatterns[i] = Pattern.compile(leadingDigitsPattern_.get(i));
+        }
+        compiledLeadingDigitsPatterns_ = compiledPatterns;
+      }
+      return compiledPatterns[index];
+    }
+
     public NumberFormat mergeFrom(NumberFormat other) {
       if (other.hasPattern()) {
         setPattern(other.getPattern());
@@ -168,6 +201,8 @@ public final class Phonemetadata {
     public PhoneNumberDesc setNationalNumberPattern(String value) {
       hasNationalNumberPattern = true;
       nationalNumberPattern_ = value;
+      compiledNationalNumberPattern_ = null;
+      nationalNumberMatcher_ = null;
       return this;
     }
 
@@ -177,8 +212,16 @@ public final class Phonemetadata {
     public boolean hasPossibleNumberPattern() { return hasPossibleNumberPattern; }
     public String getPossibleNumberPattern() { return possibleNumberPattern_; }
     public PhoneNumberDesc setPossibleNumberPattern(String value) {
+      // The possible lengths are worked out from the possible number pattern, so they no longer
+      // apply if the pattern changes. Setting the same pattern again, as when it is interned,
+      // keeps them.
+      if (value == null ? possibleNumberPattern_ != null : !value.equals(possibleNumberPattern_)) {
+        clearPossibleLengthMask();
+      }
       hasPossibleNumberPattern = true;
       possibleNumberPattern_ = value;
+      compiledPossibleNumberPattern_ = null;
+      possibleNumberMatcher_ = null;
       return this;
     }
 
@@ -193,6 +236,86 @@ public final class Phonemetadata {
       return this;
     }
 
+    // optional int32 possible_length_mask = 7;
+    // Bit n of the mask is set if a national number of n digits may match the possible number
+    // pattern. The highest bit stands for all lengths of MAX_POSSIBLE_LENGTH_BIT digits or more.
+    static final int MAX_POSSIBLE_LENGTH_BIT = 31;
+    private boolean hasPossibleLengthMask;
+    private int possibleLengthMask_ = 0;
+    public boolean hasPossibleLengthMask() { return hasPossibleLengthMask; }
+    public int getPossibleLengthMask() { return possibleLengthMask_; }
+    public PhoneNumberDesc setPossibleLengthMask(int value) {
+      hasPossibleLengthMask = true;
+      possibleLengthMask_ = value;
+      return this;
+    }
+    public PhoneNumberDesc clearPossibleLengthMask() {
+      hasPossibleLengthMask = false;
+      possibleLengthMask_ = 0;
+      return this;
+    }
+
+    /**
+     * Returns whether a national number of the length passed in may match the possible number
+     * pattern. This is always true if there is no possible length mask.
+     */
+    boolean isPossibleLength(int length) {
+      return !hasPossibleLengthMask ||
+          (possibleLengthMask_ & (1 << Math.min(length, MAX_POSSIBLE_LENGTH_BIT))) != 0;
+    }
+
+    /**
+     * Returns whether a national number of the length passed in is shorter than any number which
+     * may match the possible number pattern. This is always false if there is no possible length
+     * mask.
+     */
+    boolean isShorterThanPossibleLengths(int length) {
+      return hasPossibleLengthMask && length < Integer.numberOfTrailingZeros(possibleLengthMask_);
+    }
+
+    // The compiled forms of the national number and possible number patterns, and the digit
+    // matchers built from them, which are not part of the proto either.
+    private volatile Pattern compiledNationalNumberPattern_;
+    Pattern getCompiledNationalNumberPattern() {
+      Pattern compiledPattern = compiledNationalNumberPattern_;
+      if (compiledPattern == null) {
+        compiledPattern = Pattern.compile(nationalNumberPattern_);
+        compiledNationalNumberPattern_ = compiledPattern;
+      }
+      return compiledPattern;
+    }
+
+    private volatile Pattern compiledPossibleNumberPattern_;
+    Pattern getCompiledPossibleNumberPattern() {
+      Pattern compiledPattern = compiledPossibleNumberPattern_;
+      if (compiledPattern == null) {
+        compiledPattern = Pattern.compile(possibleNumberPattern_);
+        compiledPossibleNumberPattern_ = compiledPattern;
+      }
+      return compiledPattern;
+    }
+
+    // The patterns above compiled into automata, which match numbers faster than the Patterns.
+    private volatile DigitPatternMatcher nationalNumberMatcher_;
+    DigitPatternMatcher getNationalNumberMatcher() {
+      DigitPatternMatcher matcher = nationalNumberMatcher_;
+      if (matcher == null) {
+        matcher = DigitPatternMatcher.compile(getCompiledNationalNumberPattern());
+        nationalNumberMatcher_ = matcher;
+      }
+      return matcher;
+    }
+
+    private volatile DigitPatternMatcher possibleNumberMatcher_;
+    DigitPatternMatcher getPossibleNumberMatcher() {
+      DigitPatternMatcher matcher = possibleNumberMatcher_;
+      if (matcher == null) {
+        matcher = DigitPatternMatcher.compile(getCompiledPossibleNumberPattern());
+        possibleNumberMatcher_ = matcher;
+      }
+      return matcher;
+    }
+
     public PhoneNumberDesc mergeFrom(PhoneNumberDesc other) {
       if (other.hasNationalNumberPattern()) {
         setNationalNumberPattern(other.getNationalNumberPattern());
@@ -203,13 +326,17 @@ public final class Phonemetadata {
       if (other.hasExampleNumber()) {
         setExampleNumber(other.getExampleNumber());
       }
+      if (other.hasPossibleLengthMask()) {
+        setPossibleLengthMask(other.getPossibleLengthMask());
+      }
       return this;
     }
 
     public boolean exactlySameAs(PhoneNumberDesc other) {
       return nationalNumberPattern_.equals(other.nationalNumberPattern_) &&
           possibleNumberPattern_.equals(other.possibleNumberPattern_) &&
-          exampleNumber_.equals(other.exampleNumber_);
+          exampleNumber_.equals(other.exampleNumber_) &&
+          possibleLengthMask_ == other.possibleLengthMask_;
     }
 
     public void writeExternal(ObjectOutput objectOutput) throws IOException {
@@ -227,6 +354,11 @@ public final class Phonemetadata {
       if (hasExampleNumber) {
         objectOutput.writeUTF(exampleNumber_);
       }
+
+      objectOutput.writeBoolean(hasPossibleLengthMask);
+      if (hasPossibleLengthMask) {
+        objectOutput.writeInt(possibleLengthMask_);
+      }
     }
 
     public void readExternal(ObjectInput objectInput) throws IOException {
@@ -241,6 +373,10 @@ public final class Phonemetadata {
       if (objectInput.readBoolean()) {
         setExampleNumber(objectInput.readUTF());
       }
+
+      if (objectInput.readBoolean()) {
+        setPossibleLengthMask(objectInput.readInt());
+      }
     }
   }
 
@@ -259,6 +395,7 @@ public final class Phonemetadata {
       }
       hasGeneralDesc = true;
       generalDesc_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -273,6 +410,7 @@ public final class Phonemetadata {
       }
       hasFixedLine = true;
       fixedLine_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -287,6 +425,7 @@ public final class Phonemetadata {
       }
       hasMobile = true;
       mobile_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -301,6 +440,7 @@ public final class Phonemetadata {
       }
       hasTollFree = true;
       tollFree_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -315,6 +455,7 @@ public final class Phonemetadata {
       }
       hasPremiumRate = true;
       premiumRate_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -329,6 +470,7 @@ public final class Phonemetadata {
       }
       hasSharedCost = true;
       sharedCost_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -343,6 +485,7 @@ public final class Phonemetadata {
       }
       hasPersonalNumber = true;
       personalNumber_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -357,6 +500,7 @@ public final class Phonemetadata {
       }
       hasVoip = true;
       voip_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -371,6 +515,7 @@ public final class Phonemetadata {
       }
       hasPager = true;
       pager_ = value;
+      numberTypeClassifier_ = null;
       return this;
     }
 
@@ -404,6 +549,7 @@ public final class Phonemetadata {
     public PhoneMetadata setInternationalPrefix(String value) {
       hasInternationalPrefix = true;
       internationalPrefix_ = value;
+      compiledInternationalPrefix_ = null;
       return this;
     }
 
@@ -448,6 +594,7 @@ public final class Phonemetadata {
     public PhoneMetadata setNationalPrefixForParsing(String value) {
       hasNationalPrefixForParsing = true;
       nationalPrefixForParsing_ = value;
+      compiledNationalPrefixForParsing_ = null;
       return this;
     }
 
@@ -528,9 +675,78 @@ public final class Phonemetadata {
     public PhoneMetadata setLeadingDigits(String value) {
       hasLeadingDigits = true;
       leadingDigits_ = value;
+      compiledLeadingDigits_ = null;
       return this;
     }
 
+    // The compiled forms of the international prefix, national prefix for parsing and leading
+    // digits patterns, which are not part of the proto either.
+    private volatile Pattern compiledInternationalPrefix_;
+    Pattern getCompiledInternationalPrefix() {
+      Pattern compiledPattern = compiledInternationalPrefix_;
+      if (compiledPattern == null) {
+        compiledPattern = Pattern.compile(internationalPrefix_);
+        compiledInternationalPrefix_ = compiledPattern;
+      }
+      return compiledPattern;
+    }
+
+    private volatile Pattern compiledNationalPrefixForParsing_;
+    Pattern getCompiledNationalPrefixForParsing() {
+      Pattern compiledPattern = compiledNationalPrefixForParsing_;
+      if (compiledPattern == null) {
+        compiledPattern = Pattern.compile(nationalPrefixForParsing_);
+        compiledNationalPrefixForParsing_ = compiledPattern;
+      }
+      return compiledPattern;
+    }
+
+    private volatile Pattern compiledLeadingDigits_;
+    Pattern getCompiledLeadingDigits() {
+      Pattern compiledPattern = compiledLeadingDigits_;
+      if (compiledPattern == null) {
+        compiledPattern = Pattern.compile(leadingDigits_);
+        compiledLeadingDigits_ = compiledPattern;
+      }
+      return compiledPattern;
+    }
+
+    // Select the formats of the lists of number formats above whose leading digits match a national
+    // number. They are built from the formats when first needed, and rebuilt if formats are added
+    // afterwards, but don't notice changes made to the formats themselves.
+    private volatile NumberFormatSelector numberFormatSelector_;
+    NumberFormatSelector getNumberFormatSelector() {
+      NumberFormatSelector selector = numberFormatSelector_;
+      if (selector == null || selector.getFormatCount() != numberFormat_.size()) {
+        selector = NumberFormatSelector.build(numberFormat_);
+        numberFormatSelector_ = selector;
+      }
+      return selector;
+    }
+
+    private volatile NumberFormatSelector intlNumberFormatSelector_;
+    NumberFormatSelector getIntlNumberFormatSelector() {
+      NumberFormatSelector selector = intlNumberFormatSelector_;
+      if (selector == null || selector.getFormatCount() != intlNumberFormat_.size()) {
+        selector = NumberFormatSelector.build(intlNumberFormat_);
+        intlNumberFormatSelector_ = selector;
+      }
+      return selector;
+    }
+
+    // Classifies national numbers using the patterns of all the number descriptions above at once.
+    // It is built from the descriptions set when it is first needed, and so doesn't notice changes
+    // made to the descriptions themselves afterwards.
+    private volatile NumberTypeClassifier numberTypeClassifier_;
+    NumberTypeClassifier getNumberTypeClassifier() {
+      NumberTypeClassifier classifier = numberTypeClassifier_;
+      if (classifier == null) {
+        classifier = NumberTypeClassifier.build(this);
+        numberTypeClassifier_ = classifier;
+      }
+      return classifier;
+    }
+
     public void writeExternal(ObjectOutput objectOutput) throws IOException {
       objectOutput.writeBoolean(hasGeneralDesc);
       if (hasGeneralDesc) {
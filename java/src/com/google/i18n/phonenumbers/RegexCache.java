@@ -16,63 +16,53 @@
 
 package com.google.i18n.phonenumbers;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
- * LRU Cache for compiled regular expressions used by the libphonenumbers libary.
+ * Cache for compiled regular expressions used by the libphonenumbers libary. It holds a bounded
+ * number of patterns, evicting the least recently used ones (approximately) when it is full, and
+ * can be used by many threads at once without them blocking each other on a cache hit. The cache
+ * counts its hits, misses and evictions and the time spent compiling patterns, which getStats()
+ * returns, so that its size can be checked against real workloads.
  *
  * @author Shaopeng Jia
  */
 public class RegexCache {
-  private LRUCache<String, Pattern> cache;
+  private final ConcurrentClockCache<String, Pattern> cache;
+  // Hits are counted on every lookup of a cached pattern, so they use a counter which doesn't make
+  // threads hitting the cache at the same time contend. Misses are rare enough not to need one.
+  private final StripedCounter hitCount = new StripedCounter();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong totalCompileTime = new AtomicLong();
 
   public RegexCache(int size) {
-    cache = new LRUCache<String, Pattern>(size);
+    cache = new ConcurrentClockCache<String, Pattern>(size);
   }
 
   public Pattern getPatternForRegex(String regex) {
     Pattern pattern = cache.get(regex);
-    if (pattern == null) {
-      pattern = Pattern.compile(regex);
-      cache.put(regex, pattern);
+    if (pattern != null) {
+      hitCount.increment();
+      return pattern;
     }
-    return pattern;
+    missCount.incrementAndGet();
+    long startTime = System.nanoTime();
+    pattern = Pattern.compile(regex);
+    totalCompileTime.addAndGet(System.nanoTime() - startTime);
+    return cache.putIfAbsent(regex, pattern);
+  }
+
+  /**
+   * Returns a snapshot of the counters of this cache.
+   */
+  public RegexCacheStats getStats() {
+    return new RegexCacheStats(hitCount.get(), missCount.get(), cache.getEvictionCount(),
+                               totalCompileTime.get(), cache.size(), cache.maxSize());
   }
 
   // This method is used for testing.
   boolean containsRegex(String regex) {
     return cache.containsKey(regex);
   }
-
-  private class LRUCache<K, V> {
-    // LinkedHashMap offers a straightforward implementation of LRU cache.
-    private LinkedHashMap<K, V> map;
-    private int size;
-
-    @SuppressWarnings("serial")
-    public LRUCache(int size) {
-      this.size = size;
-      map = new LinkedHashMap<K, V>(size * 4 / 3 + 1, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-          return size() > LRUCache.this.size;
-        }
-      };
-    }
-
-    public synchronized V get(K key) {
-      return map.get(key);
-    }
-
-    public synchronized void put(K key, V value) {
-      map.put(key, value);
-    }
-
-    public synchronized boolean containsKey(K key) {
-      return map.containsKey(key);
-    }
-  }
 }
-
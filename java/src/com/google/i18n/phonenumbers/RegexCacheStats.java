@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * A snapshot of the counters of a RegexCache, as returned by RegexCache.getStats(),
+ * PhoneNumberUtil.getRegexCacheStats() and AsYouTypeFormatter.getRegexCacheStats(). The counters
+ * cover the whole life of the cache. Times are in nanoseconds.
+ */
+public final class RegexCacheStats {
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long totalCompileTime;
+  private final int size;
+  private final int maxSize;
+
+  RegexCacheStats(long hitCount, long missCount, long evictionCount, long totalCompileTime,
+                  int size, int maxSize) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.totalCompileTime = totalCompileTime;
+    this.size = size;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the number of lookups which found the pattern in the cache.
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of lookups which had to compile the pattern.
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getRequestCount() {
+    return hitCount + missCount;
+  }
+
+  /**
+   * Returns the fraction of lookups which found the pattern in the cache, or 1 if there were no
+   * lookups.
+   */
+  public double getHitRate() {
+    long requestCount = getRequestCount();
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Returns the number of patterns removed from the cache to make room for others. A high number
+   * compared to the number of misses means the cache is too small for its workload.
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the total time spent compiling patterns on cache misses.
+   */
+  public long getTotalCompileTime() {
+    return totalCompileTime;
+  }
+
+  /**
+   * Returns the number of patterns in the cache.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the number of patterns the cache can hold.
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  @Override
+  public String toString() {
+    return "Regex cache: " + size + "/" + maxSize + " patterns, " + hitCount + " hits, " +
+        missCount + " misses (hit rate " + String.format("%.3f", getHitRate()) + "), " +
+        evictionCount + " evictions, " + totalCompileTime / 1000000 + " ms compiling";
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads can increment at once without all writing to the same memory. The
+ * count starts out in a single AtomicLong; the first time two threads are seen incrementing it at
+ * the same time, the counter switches to a set of cells spread over separate cache lines, and each
+ * thread then increments the cell picked by its id. Reading the count adds up all the cells, so it
+ * is slower than incrementing, and is only exact when no thread is incrementing at the same time.
+ */
+final class StripedCounter {
+  // The number of cells, which must be a power of two.
+  private static final int CELL_COUNT = 16;
+  // The cells are this many longs apart in the array, so that no two cells share a cache line.
+  private static final int CELL_SPACING = 8;
+
+  private final AtomicLong base = new AtomicLong();
+  private volatile AtomicLongArray cells = null;
+
+  void increment() {
+    AtomicLongArray currentCells = cells;
+    if (currentCells == null) {
+      long value = base.get();
+      if (base.compareAndSet(value, value + 1)) {
+        return;
+      }
+      currentCells = createCells();
+    }
+    int cell = (int) Thread.currentThread().getId() & (CELL_COUNT - 1);
+    currentCells.incrementAndGet(cell * CELL_SPACING);
+  }
+
+  private synchronized AtomicLongArray createCells() {
+    if (cells == null) {
+      cells = new AtomicLongArray(CELL_COUNT * CELL_SPACING);
+    }
+    return cells;
+  }
+
+  long get() {
+    long count = base.get();
+    AtomicLongArray currentCells = cells;
+    if (currentCells != null) {
+      for (int i = 0; i < CELL_COUNT; i++) {
+        count += currentCells.get(i * CELL_SPACING);
+      }
+    }
+    return count;
+  }
+}
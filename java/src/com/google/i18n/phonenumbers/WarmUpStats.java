@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timing statistics of a warm-up run of PhoneNumberUtil, as returned by PhoneNumberUtil.warmUp().
+ * All times are in nanoseconds.
+ */
+public final class WarmUpStats {
+  private final Map<String, Long> loadTimeByRegion;
+  private final List<String> failedRegions;
+  private final int patternCount;
+  private final long elapsedTime;
+
+  WarmUpStats(Map<String, Long> loadTimeByRegion, List<String> failedRegions, int patternCount,
+              long elapsedTime) {
+    this.loadTimeByRegion = Collections.unmodifiableMap(loadTimeByRegion);
+    this.failedRegions = Collections.unmodifiableList(failedRegions);
+    this.patternCount = patternCount;
+    this.elapsedTime = elapsedTime;
+  }
+
+  /**
+   * Returns the number of regions whose metadata was loaded and whose patterns were compiled.
+   */
+  public int getRegionCount() {
+    return loadTimeByRegion.size();
+  }
+
+  /**
+   * Returns the region codes that were asked for but for which no metadata could be loaded, for
+   * example because they are not supported by the library.
+   */
+  public List<String> getFailedRegions() {
+    return failedRegions;
+  }
+
+  /**
+   * Returns the number of regular expressions that were compiled.
+   */
+  public int getPatternCount() {
+    return patternCount;
+  }
+
+  /**
+   * Returns the time spent warming up each region, keyed by region code. This includes loading its
+   * metadata and compiling its patterns.
+   */
+  public Map<String, Long> getLoadTimeByRegion() {
+    return loadTimeByRegion;
+  }
+
+  /**
+   * Returns the sum of the times spent warming up each region. When the warm-up ran in parallel,
+   * this is larger than the elapsed time.
+   */
+  public long getTotalLoadTime() {
+    long totalLoadTime = 0;
+    for (long loadTime : loadTimeByRegion.values()) {
+      totalLoadTime += loadTime;
+    }
+    return totalLoadTime;
+  }
+
+  /**
+   * Returns the wall-clock time from the start of the warm-up until all regions were warmed up.
+   */
+  public long getElapsedTime() {
+    return elapsedTime;
+  }
+
+  @Override
+  public String toString() {
+    return "Warmed up " + getRegionCount() + " regions (" + failedRegions.size() + " failed) and " +
+        patternCount + " patterns in " + elapsedTime / 1000000 + " ms, " +
+        getTotalLoadTime() / 1000000 + " ms in total across threads";
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the memory allocated by the current thread while it runs some code in a steady state,
+ * for the tests which check that a code path creates few objects, or none.
+ */
+final class AllocationMeasurer {
+  static final int ITERATIONS = 20000;
+
+  /**
+   * The code measured. The iteration passed in counts up from 0, so that the code can cycle through
+   * its inputs.
+   */
+  interface Task {
+    void run(int iteration) throws Exception;
+  }
+
+  private AllocationMeasurer() {
+  }
+
+  /**
+   * Runs the task ITERATIONS times to warm up the code and its caches, then as many times again,
+   * and returns the number of bytes allocated by each run of the second lot, or -1 if the JVM can't
+   * measure the memory allocated by a thread, in which case the task isn't run at all.
+   */
+  static long bytesPerRun(Task task) throws Exception {
+    if (getAllocatedBytes() < 0) {
+      return -1;
+    }
+    for (int i = 0; i < ITERATIONS; i++) {
+      task.run(i);
+    }
+    long start = getAllocatedBytes();
+    for (int i = 0; i < ITERATIONS; i++) {
+      task.run(i);
+    }
+    return (getAllocatedBytes() - start) / ITERATIONS;
+  }
+
+  // Returns the number of bytes allocated by this thread so far, or -1 if the JVM can't tell.
+  private static long getAllocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+    if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -21,8 +21,8 @@ import junit.framework.TestCase;
 /**
  * Unit tests for PhoneNumberUtil.java
  *
- * Note that these tests use the metadata contained in the files with TEST_META_DATA_FILE_PREFIX,
- * not the normal metadata files, so should not be used for regression test purposes - these tests
+ * Note that these tests use the metadata contained in the file TEST_META_DATA_FILE, not the
+ * normal metadata file, so should not be used for regression test purposes - these tests
  * are illustrative only and test functionality.
  *
  * @author Shaopeng Jia
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the throughput of BatchNormalizer with thread pools of one thread up to one thread per
+ * core, on a file of the example numbers of every supported country written in the international
+ * and national formats. This is not run as part of the unit tests; run it with:
+ *
+ *   ant test-jar && java -cp build/jar/libphonenumber-test.jar \
+ *       com.google.i18n.phonenumbers.BatchNormalizerBenchmark [millions of lines]
+ */
+public class BatchNormalizerBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int lineCount = args.length > 0 ? Integer.parseInt(args[0]) * 1000000 : 2000000;
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    List<String> numbers = new ArrayList<String>();
+    for (String regionCode : phoneUtil.getSupportedCountries()) {
+      PhoneNumber exampleNumber = phoneUtil.getExampleNumber(regionCode);
+      if (exampleNumber != null) {
+        numbers.add(phoneUtil.format(exampleNumber, PhoneNumberFormat.E164));
+        numbers.add(phoneUtil.format(exampleNumber, PhoneNumberFormat.INTERNATIONAL));
+        if (exampleNumber.getCountryCode() == 1) {
+          numbers.add(phoneUtil.format(exampleNumber, PhoneNumberFormat.NATIONAL));
+        }
+      }
+    }
+    File input = File.createTempFile("numbers", ".txt");
+    File output = File.createTempFile("normalized", ".txt");
+    try {
+      OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(input));
+      try {
+        for (int i = 0; i < lineCount; i++) {
+          outputStream.write(numbers.get(i % numbers.size()).getBytes("UTF-8"));
+          outputStream.write('\n');
+        }
+      } finally {
+        outputStream.close();
+      }
+      BatchNormalizer normalizer = new BatchNormalizer(phoneUtil, "US");
+      int cores = Runtime.getRuntime().availableProcessors();
+      System.out.println(lineCount + " lines, " + input.length() / 1000000 + " MB, " + cores +
+                         " cores");
+      System.out.println("threads  lines/s");
+      for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+          // The first run warms up the JIT and the page cache.
+          normalizer.normalize(input, output, executor);
+          BatchNormalizationStats stats = normalizer.normalize(input, output, executor);
+          System.out.println(String.format("%7d  %7.0f", threads,
+                                           stats.getLineCount() * 1e9 / stats.getElapsedTime()));
+        } finally {
+          executor.shutdown();
+        }
+        if (threads == cores) {
+          break;
+        }
+      }
+    } finally {
+      input.delete();
+      output.delete();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ParseResult;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unit tests for BatchNormalizer.
+ */
+public class BatchNormalizerTest extends TestCase {
+  private static final String[] NUMBERS = {
+      "+1 650 253 0000", "(650) 253-0000", "+44 20 7031 3000 ext. 1234", "not a number",
+      "", "+210 3456 56789", "\uFF10\uFF13\uFF0D\uFF13\uFF13\uFF11 \uFF16\uFF10\uFF10\uFF15",
+      "1-800-FLOWERS", "12", "tel:+61-2-9876-5432", "01495 72553301873 810104"};
+
+  private PhoneNumberUtil phoneUtil;
+  private File input;
+  private File output;
+  private ExecutorService executor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    phoneUtil = PhoneNumberUtil.getInstance();
+    input = File.createTempFile("numbers", ".txt");
+    output = File.createTempFile("normalized", ".txt");
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdown();
+    input.delete();
+    output.delete();
+    super.tearDown();
+  }
+
+  public void testNormalizesEachLineInOrder() throws Exception {
+    StringBuffer text = new StringBuffer();
+    StringBuffer expected = new StringBuffer();
+    int normalizedLines = 0;
+    for (int i = 0; i < 5000; i++) {
+      String number = NUMBERS[i % NUMBERS.length];
+      // Lines end with either kind of line break, and the last one with none.
+      text.append(number).append(i % 3 == 0 ? "\r\n" : "\n");
+      String normalizedNumber = normalize(number);
+      expected.append(normalizedNumber).append('\n');
+      if (normalizedNumber.startsWith("+")) {
+        normalizedLines++;
+      }
+    }
+    text.append("030 123456");
+    expected.append(normalize("030 123456")).append('\n');
+    normalizedLines++;
+    write(input, text.toString());
+    // Small chunks make lines fall across the tentative ends of many of them.
+    BatchNormalizer normalizer = new BatchNormalizer(phoneUtil, "US", 1000, 3);
+    BatchNormalizationStats stats = normalizer.normalize(input, output, executor);
+    assertEquals(expected.toString(), read(output));
+    assertEquals(5001, stats.getLineCount());
+    assertTrue(stats.getChunkCount() > 50);
+    assertEquals(normalizedLines, stats.getNormalizedLineCount());
+    assertEquals(454, stats.getLineCount(ParseResult.TOO_LONG));
+    assertEquals(0, stats.getLineCount(ParseResult.TOO_SHORT_AFTER_IDD));
+  }
+
+  public void testNormalizesEmptyInputAndLinesLongerThanChunks() throws Exception {
+    write(input, "");
+    BatchNormalizer normalizer = new BatchNormalizer(phoneUtil, null, 4, 1);
+    assertEquals(0, normalizer.normalize(input, output, executor).getLineCount());
+    assertEquals("", read(output));
+    write(input, "\n+16502530000\n\n");
+    BatchNormalizationStats stats = normalizer.normalize(input, output, executor);
+    assertEquals("NOT_A_NUMBER\n+16502530000\nNOT_A_NUMBER\n", read(output));
+    assertEquals(2, stats.getChunkCount());
+  }
+
+  // The way the lines are expected to be normalized, one by one.
+  private String normalize(String line) {
+    PhoneNumber number = new PhoneNumber();
+    ParseResult result = phoneUtil.tryParse(line, "US", number);
+    return result == ParseResult.SUCCESS ? phoneUtil.format(number, PhoneNumberFormat.E164)
+                                         : result.name();
+  }
+
+  private static void write(File file, String text) throws IOException {
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(text.getBytes("UTF-8"));
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private static String read(File file) throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = inputStream.read(buffer)) > 0) {
+        bytes.write(buffer, 0, read);
+      }
+      return bytes.toString("UTF-8");
+    } finally {
+      inputStream.close();
+    }
+  }
+}
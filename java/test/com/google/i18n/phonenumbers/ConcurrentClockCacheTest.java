@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for ConcurrentClockCache.
+ */
+public class ConcurrentClockCacheTest extends TestCase {
+
+  public void testRecentlyReadEntriesAreKept() {
+    ConcurrentClockCache<String, Integer> cache = new ConcurrentClockCache<String, Integer>(3);
+    cache.putIfAbsent("a", 1);
+    cache.putIfAbsent("b", 2);
+    cache.putIfAbsent("c", 3);
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    assertEquals(Integer.valueOf(3), cache.get("c"));
+
+    // "b" is the only entry which has not been read since it was added.
+    cache.putIfAbsent("d", 4);
+    assertEquals(3, cache.size());
+    assertFalse(cache.containsKey("b"));
+    assertNull(cache.get("b"));
+    assertTrue(cache.containsKey("a"));
+    assertTrue(cache.containsKey("c"));
+    assertTrue(cache.containsKey("d"));
+
+    // Adding "b" back clears the referenced bit of "c", and evicts "a", whose bit was cleared when
+    // "d" was added.
+    cache.putIfAbsent("b", 2);
+    assertFalse(cache.containsKey("a"));
+    assertTrue(cache.containsKey("c"));
+    assertTrue(cache.containsKey("d"));
+    // The clock hand has moved on to "d" now, which has not been read.
+    cache.putIfAbsent("e", 5);
+    assertFalse(cache.containsKey("d"));
+    assertTrue(cache.containsKey("b"));
+    assertTrue(cache.containsKey("c"));
+  }
+
+  public void testPutIfAbsentKeepsExistingValue() {
+    ConcurrentClockCache<String, Integer> cache = new ConcurrentClockCache<String, Integer>(2);
+    assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 1));
+    assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 2));
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    assertEquals(1, cache.size());
+  }
+
+  public void testInvalidSize() {
+    try {
+      new ConcurrentClockCache<String, Integer>(0);
+      fail("A cache must hold at least one entry.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testConcurrentAccessStaysBounded() throws Exception {
+    final int cacheSize = 50;
+    final ConcurrentClockCache<Integer, Integer> cache =
+        new ConcurrentClockCache<Integer, Integer>(cacheSize);
+    final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    int numThreads = 16;
+    final CountDownLatch finished = new CountDownLatch(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      final int seed = i;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 20000; j++) {
+              Integer key = (j * 31 + seed * 7) % 120;
+              Integer value = cache.get(key);
+              if (value == null) {
+                value = cache.putIfAbsent(key, key * 2);
+              }
+              if (value.intValue() != key * 2) {
+                failures.add("Wrong value " + value + " for key " + key);
+              }
+            }
+          } finally {
+            finished.countDown();
+          }
+        }
+      }.start();
+    }
+    assertTrue(finished.await(60, TimeUnit.SECONDS));
+    assertEquals(failures.toString(), 0, failures.size());
+    assertTrue(cache.size() <= cacheSize);
+  }
+}
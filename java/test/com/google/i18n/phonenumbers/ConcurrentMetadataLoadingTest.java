@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test for the lazy loading of metadata by PhoneNumberUtil. Many threads ask for the
+ * metadata of every supported region at the same time, each in a different order, and every thread
+ * must get back the very same PhoneMetadata object for a region.
+ */
+public class ConcurrentMetadataLoadingTest extends TestCase {
+  private static final int NUM_THREADS = 32;
+  private static final int NUM_ROUNDS = 5;
+
+  private final ConcurrentMap<String, PhoneMetadata> firstSeenMetadata =
+      new ConcurrentHashMap<String, PhoneMetadata>();
+  private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+  public void testAllRegionsLoadedOnceUnderContention() throws Exception {
+    for (int round = 0; round < NUM_ROUNDS; round++) {
+      PhoneNumberUtil.resetInstance();
+      final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+      final List<String> regionCodes = new ArrayList<String>(phoneUtil.getSupportedCountries());
+      firstSeenMetadata.clear();
+
+      final CyclicBarrier startBarrier = new CyclicBarrier(NUM_THREADS);
+      final CountDownLatch finished = new CountDownLatch(NUM_THREADS);
+      for (int i = 0; i < NUM_THREADS; i++) {
+        final List<String> regionsInOrder = new ArrayList<String>(regionCodes);
+        Collections.shuffle(regionsInOrder, new Random(round * NUM_THREADS + i));
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              startBarrier.await();
+              for (String regionCode : regionsInOrder) {
+                checkMetadata(phoneUtil, regionCode);
+              }
+            } catch (Throwable t) {
+              failures.add(t.toString());
+            } finally {
+              finished.countDown();
+            }
+          }
+        }.start();
+      }
+      assertTrue("Timed out waiting for the loading threads.",
+                 finished.await(60, TimeUnit.SECONDS));
+      assertEquals(failures.toString(), 0, failures.size());
+      assertEquals(regionCodes.size(), firstSeenMetadata.size());
+    }
+  }
+
+  private void checkMetadata(PhoneNumberUtil phoneUtil, String regionCode) {
+    PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+    if (metadata == null) {
+      failures.add("No metadata loaded for " + regionCode);
+      return;
+    }
+    if (!metadata.getId().equals(regionCode)) {
+      failures.add("Metadata for " + metadata.getId() + " returned for " + regionCode);
+    }
+    PhoneMetadata previous = firstSeenMetadata.putIfAbsent(regionCode, metadata);
+    if (previous != null && previous != metadata) {
+      failures.add("Metadata for " + regionCode + " was loaded more than once");
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for CountryCallingCodeTable.
+ */
+public class CountryCallingCodeTableTest extends TestCase {
+
+  public void testHoldsRegionCodesOfEachCallingCode() {
+    Map<Integer, List<String>> countryCodeToRegionCodeMap =
+        CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap();
+    CountryCallingCodeTable table = new CountryCallingCodeTable(countryCodeToRegionCodeMap);
+    for (int countryCode = -1; countryCode <= CountryCallingCodeTable.SIZE; countryCode++) {
+      List<String> regionCodes = countryCodeToRegionCodeMap.get(countryCode);
+      if (regionCodes == null) {
+        assertNull(table.getRegionCodes(countryCode));
+        assertNull(table.getMainRegionCode(countryCode));
+      } else {
+        assertEquals(regionCodes, Arrays.asList(table.getRegionCodes(countryCode)));
+        assertEquals(regionCodes.get(0), table.getMainRegionCode(countryCode));
+      }
+    }
+    assertEquals("US", table.getMainRegionCode(1));
+    assertEquals("UZ", table.getMainRegionCode(998));
+  }
+
+  public void testRejectsCallingCodesOfMoreThanThreeDigits() {
+    Map<Integer, List<String>> countryCodeToRegionCodeMap = new HashMap<Integer, List<String>>();
+    countryCodeToRegionCodeMap.put(1000, Arrays.asList("XX"));
+    try {
+      new CountryCallingCodeTable(countryCodeToRegionCodeMap);
+      fail("Calling codes of more than three digits should be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testLooksUpCallingCodesWithoutAllocating() throws Exception {
+    final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    // Calling codes above 127 are past the cache of Integer.valueOf(), so looking them up in a map
+    // would create an Integer each time.
+    final int[] countryCodes = {1, 44, 262, 998, 999};
+    long bytesPerLookup = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+      public void run(int iteration) {
+        int countryCode = countryCodes[iteration % countryCodes.length];
+        assertTrue(phoneUtil.getRegionCodeForCountryCode(countryCode).length() == 2);
+      }
+    });
+    if (bytesPerLookup < 0) {
+      return;
+    }
+    assertTrue("Allocated " + bytesPerLookup + " bytes per lookup", bytesPerLookup < 1);
+  }
+
+  public void testHoldsMetadataOfMainRegion() {
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    MetadataSnapshot snapshot = phoneUtil.getMetadataSnapshot();
+    assertSame(phoneUtil.getMetadataForRegion("US"), snapshot.getMetadataForCountryCode(1));
+    assertSame(phoneUtil.getMetadataForRegion("RE"), snapshot.getMetadataForCountryCode(262));
+    assertNull(snapshot.getMetadataForCountryCode(999));
+    assertNull(snapshot.getMetadataForCountryCode(0));
+    assertNull(snapshot.getMetadataForCountryCode(CountryCallingCodeTable.SIZE));
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.DigitPatternMatcher.LookingAtResult;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for DigitPatternMatcher.
+ */
+public class DigitPatternMatcherTest extends TestCase {
+
+  private static DigitPatternMatcher compile(String regex) {
+    return DigitPatternMatcher.compile(Pattern.compile(regex));
+  }
+
+  public void testMatches() {
+    DigitPatternMatcher matcher = compile("[2-9]\\d{2}(?:1|55)?");
+    assertTrue(matcher.isCompiledToAutomaton());
+    assertTrue(matcher.matches("234"));
+    assertTrue(matcher.matches("2341"));
+    assertTrue(matcher.matches("23455"));
+    assertFalse(matcher.matches("134"));
+    assertFalse(matcher.matches("2345"));
+    assertFalse(matcher.matches("234555"));
+    assertFalse(matcher.matches(""));
+  }
+
+  public void testLookingAt() {
+    DigitPatternMatcher matcher = compile("\\d{7}(?:\\d{3})?");
+    assertEquals(LookingAtResult.NO_MATCH, matcher.lookingAt("123456"));
+    assertEquals(LookingAtResult.MATCHES_ALL, matcher.lookingAt("1234567"));
+    assertEquals(LookingAtResult.MATCHES_PART, matcher.lookingAt("12345678"));
+    // Both a prefix and the whole number match; the greedy quantifier makes lookingAt() take the
+    // whole number.
+    assertEquals(LookingAtResult.MATCHES_ALL, matcher.lookingAt("1234567890"));
+    // Here the first alternative is taken, although the second one matches the whole number.
+    assertEquals(LookingAtResult.MATCHES_PART, compile("\\d{3}|\\d{5}").lookingAt("12345"));
+  }
+
+  public void testPlaceholderPatternMatchesNoDigits() {
+    DigitPatternMatcher matcher = compile("NA");
+    assertTrue(matcher.isCompiledToAutomaton());
+    assertFalse(matcher.matches("12345"));
+    assertEquals(LookingAtResult.NO_MATCH, matcher.lookingAt("12345"));
+    // Input other than digits is matched with the Pattern.
+    assertTrue(matcher.matches("NA"));
+  }
+
+  public void testGetPossibleLengthMask() {
+    assertEquals((1 << 7) | (1 << 10), compile("\\d{7}(?:\\d{3})?").getPossibleLengthMask());
+    assertEquals((1 << 2) | (1 << 4), compile("1[2-4]|(?:56){2}").getPossibleLengthMask());
+    assertEquals(0, compile("NA").getPossibleLengthMask());
+    // The highest bit stands for all lengths from 31 digits up.
+    assertEquals(~0 << 5, compile("\\d{5,}").getPossibleLengthMask());
+  }
+
+  public void testUnsupportedPatternsUsePattern() {
+    String[] regexes = {"(\\d)\\1", "\\d{2}+", "(?=1)\\d", "^1\\d$", "[\\d&&[^5]]{2}", "\\s1"};
+    for (String regex : regexes) {
+      DigitPatternMatcher matcher = compile(regex);
+      assertFalse(regex, matcher.isCompiledToAutomaton());
+      Pattern pattern = Pattern.compile(regex);
+      for (String number : new String[] {"11", "12", "55", "1"}) {
+        assertEquals(regex + " " + number, pattern.matcher(number).matches(),
+                     matcher.matches(number));
+      }
+    }
+  }
+
+  // Compares the results of the automata with those of the Patterns, for all the national number
+  // and possible number patterns of the metadata, on their example numbers and random numbers.
+  public void testAgreesWithPatternForAllMetadata() throws Exception {
+    MetadataSource source = new ClasspathMetadataSource(PhoneNumberUtil.META_DATA_FILE);
+    Random random = new Random(42);
+    int patternCount = 0;
+    int automatonCount = 0;
+    for (String regionCode :
+         MetadataBundle.loadFromClasspath(PhoneNumberUtil.META_DATA_FILE).getRegionCodes()) {
+      PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+      PhoneNumberDesc[] descs = {
+          metadata.getGeneralDesc(), metadata.getFixedLine(), metadata.getMobile(),
+          metadata.getTollFree(), metadata.getPremiumRate(), metadata.getSharedCost(),
+          metadata.getPersonalNumber(), metadata.getVoip(), metadata.getPager() };
+      List<String> numbers = new ArrayList<String>();
+      for (PhoneNumberDesc desc : descs) {
+        if (desc != null && desc.hasExampleNumber()) {
+          String example = desc.getExampleNumber();
+          numbers.add(example);
+          numbers.add(example.substring(1));
+          numbers.add(example + "0");
+        }
+      }
+      for (int i = 0; i < 300; i++) {
+        StringBuffer number = new StringBuffer();
+        int length = random.nextInt(18);
+        for (int j = 0; j < length; j++) {
+          number.append((char) ('0' + random.nextInt(10)));
+        }
+        numbers.add(number.toString());
+      }
+      for (PhoneNumberDesc desc : descs) {
+        if (desc == null) {
+          continue;
+        }
+        for (String regex :
+             new String[] {desc.getNationalNumberPattern(), desc.getPossibleNumberPattern()}) {
+          DigitPatternMatcher matcher = compile(regex);
+          patternCount++;
+          if (matcher.isCompiledToAutomaton()) {
+            automatonCount++;
+          }
+          Pattern pattern = Pattern.compile(regex);
+          for (String number : numbers) {
+            Matcher m = pattern.matcher(number);
+            String message = regionCode + " " + regex + " " + number;
+            assertEquals(message, m.matches(), matcher.matches(number));
+            LookingAtResult expected = !m.lookingAt() ? LookingAtResult.NO_MATCH
+                : m.end() == number.length() ? LookingAtResult.MATCHES_ALL
+                : LookingAtResult.MATCHES_PART;
+            assertEquals(message, expected, matcher.lookingAt(number));
+          }
+        }
+      }
+    }
+    // All the patterns in the metadata use the syntax the automata support.
+    assertEquals(patternCount, automatonCount);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures parsing numbers formatted in E164, such as "+14155550123", which skips most of the
+ * steps of parsing, compared to parsing the same numbers with a space after the plus sign, which
+ * goes through all of them. The numbers are the example numbers of every supported country.
+ * This is not run as part of the unit tests; run it with:
+ *
+ *   ant test-jar && java -cp build/jar/libphonenumber-test.jar \
+ *       com.google.i18n.phonenumbers.E164ParsingBenchmark [seconds per run]
+ */
+public class E164ParsingBenchmark {
+  private static final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+
+  public static void main(String[] args) throws Exception {
+    long runMillis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+    List<String> e164Numbers = new ArrayList<String>();
+    List<String> spacedNumbers = new ArrayList<String>();
+    for (String regionCode : phoneUtil.getSupportedCountries()) {
+      PhoneNumber exampleNumber = phoneUtil.getExampleNumber(regionCode);
+      if (exampleNumber != null) {
+        String e164Number = phoneUtil.format(exampleNumber, PhoneNumberFormat.E164);
+        e164Numbers.add(e164Number);
+        spacedNumbers.add("+ " + e164Number.substring(1));
+      }
+    }
+    System.out.println(e164Numbers.size() + " numbers");
+    System.out.println("input                  parse (ns/op)  parse with context (ns/op)");
+    report("+ and a space", spacedNumbers.toArray(new String[spacedNumbers.size()]), runMillis);
+    report("E164", e164Numbers.toArray(new String[e164Numbers.size()]), runMillis);
+  }
+
+  private static void report(String input, String[] numbers, long runMillis) throws Exception {
+    double parseNanos = measure(numbers, null, runMillis);
+    double contextNanos = measure(numbers, new ParseContext(), runMillis);
+    System.out.println(String.format("%-21s  %13.1f  %26.1f", input, parseNanos, contextNanos));
+  }
+
+  // Returns the average time of one parse, in nanoseconds. The context is used if it isn't null.
+  private static double measure(String[] numbers, ParseContext context, long runMillis)
+      throws Exception {
+    PhoneNumber number = new PhoneNumber();
+    long sum = 0;
+    // Warms up the JIT before the measured run.
+    for (int i = 0; i < 1000000; i++) {
+      sum += parse(numbers[i % numbers.length], number, context);
+    }
+    long ops = 0;
+    long startTime = System.nanoTime();
+    long endTime = startTime + runMillis * 1000000;
+    long now;
+    do {
+      for (int i = 0; i < 10000; i++) {
+        sum += parse(numbers[i % numbers.length], number, context);
+      }
+      ops += 10000;
+      now = System.nanoTime();
+    } while (now < endTime);
+    if (sum == 0) {
+      // Keeps the results alive, so that the calls can't be optimized away.
+      System.out.println();
+    }
+    return (double) (now - startTime) / ops;
+  }
+
+  private static long parse(String numberToParse, PhoneNumber number, ParseContext context)
+      throws Exception {
+    number.clear();
+    if (context == null) {
+      phoneUtil.parse(numberToParse, "ZZ", number);
+    } else {
+      phoneUtil.parse(numberToParse, "ZZ", number, context);
+    }
+    return number.getNationalNumber();
+  }
+}
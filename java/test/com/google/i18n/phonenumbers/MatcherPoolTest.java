@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import junit.framework.TestCase;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for MatcherPool.
+ */
+public class MatcherPoolTest extends TestCase {
+
+  public void testReusesMatcherOfPattern() {
+    Pattern pattern = Pattern.compile("(\\d{3})(\\d{4})");
+    Matcher matcher = MatcherPool.matcher(pattern, "1234567");
+    assertTrue(matcher.matches());
+    assertEquals("123", matcher.group(1));
+    Matcher reused = MatcherPool.matcher(pattern, "7654");
+    assertSame(matcher, reused);
+    assertFalse(reused.matches());
+    // The Matcher is reset for each new input, which also drops any region set on it.
+    reused.region(1, 4);
+    assertTrue(MatcherPool.matcher(pattern, "7654321").matches());
+    assertNotSame(matcher, MatcherPool.matcher(Pattern.compile("(\\d{3})(\\d{4})"), "1234567"));
+  }
+
+  public void testKeepsMatchersOfEachThread() throws Exception {
+    final Pattern pattern = Pattern.compile("\\d+");
+    final Matcher[] otherThreadMatcher = new Matcher[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        otherThreadMatcher[0] = MatcherPool.matcher(pattern, "123");
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotNull(otherThreadMatcher[0]);
+    assertNotSame(otherThreadMatcher[0], MatcherPool.matcher(pattern, "123"));
+  }
+
+  public void testDropsLeastRecentlyUsedMatchers() {
+    Pattern first = Pattern.compile("1");
+    Matcher firstMatcher = MatcherPool.matcher(first, "1");
+    for (int i = 0; i < MatcherPool.MAX_MATCHERS_PER_THREAD; i++) {
+      MatcherPool.matcher(Pattern.compile("2"), "2");
+    }
+    assertEquals(MatcherPool.MAX_MATCHERS_PER_THREAD, MatcherPool.size());
+    assertNotSame(firstMatcher, MatcherPool.matcher(first, "1"));
+  }
+
+  public void testPooledMatchingAllocatesNothing() throws Exception {
+    final Pattern pattern = Pattern.compile("(?:1[2-9]|2\\d)\\d{5}");
+    final String[] numbers = {"1234567", "2987654", "3123456"};
+    long bytesPerMatch = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+      public void run(int iteration) {
+        int index = iteration % numbers.length;
+        assertEquals(index < 2, MatcherPool.matcher(pattern, numbers[index]).matches());
+      }
+    });
+    if (bytesPerMatch < 0) {
+      // The JVM can't measure the memory allocated by a thread.
+      return;
+    }
+    // Creating a Matcher for each match would take over a hundred bytes.
+    assertTrue("Allocated " + bytesPerMatch + " bytes per match", bytesPerMatch < 1);
+  }
+
+  // A Matcher takes at least a hundred bytes, so a parse which doesn't create any allocates far
+  // less than the parse which created a dozen of them used to.
+  public void testSteadyStateParsingAllocatesFewMatchers() throws Exception {
+    final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    final PhoneNumber number = new PhoneNumber();
+    long bytesPerParse = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+      public void run(int iteration) throws Exception {
+        phoneUtil.parse("011 54 9 11 8765 4321", "US", number);
+      }
+    });
+    if (bytesPerParse < 0) {
+      return;
+    }
+    // About 500 bytes remain, taken by the strings of the number and its ParseContext.
+    assertTrue("Allocated " + bytesPerParse + " bytes per parse", bytesPerParse < 1000);
+  }
+
+  // Validating runs on the digit automata, so all it allocates is the string of the national
+  // significant number, once for each region the country code is shared by.
+  public void testSteadyStateValidationAllocatesNoMatchers() throws Exception {
+    final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    final PhoneNumber[] numbers = {phoneUtil.parse("011 54 9 11 8765 4321", "US"),
+                                   phoneUtil.parse("(650) 253-0000", "US")};
+    long bytesPerCall = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+      public void run(int iteration) {
+        assertTrue(phoneUtil.isValidNumber(numbers[iteration % numbers.length]));
+      }
+    });
+    if (bytesPerCall < 0) {
+      return;
+    }
+    assertTrue("Allocated " + bytesPerCall + " bytes per call", bytesPerCall < 300);
+  }
+
+  // Formatting takes its Matchers from the pool, but still creates the strings of the national
+  // significant number, of each replacement made by a format rule, and of the result.
+  public void testSteadyStateFormattingAllocatesNoMatchers() throws Exception {
+    final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    final PhoneNumber[] numbers = {phoneUtil.parse("011 54 9 11 8765 4321", "US"),
+                                   phoneUtil.parse("(650) 253-0000", "US")};
+    final PhoneNumberFormat[] formats =
+        {PhoneNumberFormat.NATIONAL, PhoneNumberFormat.INTERNATIONAL};
+    long bytesPerCall = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+      public void run(int iteration) {
+        String formatted = phoneUtil.format(numbers[iteration % 2], formats[iteration / 2 % 2]);
+        assertTrue(formatted.length() > 0);
+      }
+    });
+    if (bytesPerCall < 0) {
+      return;
+    }
+    assertTrue("Allocated " + bytesPerCall + " bytes per call", bytesPerCall < 800);
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadataCollection;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Unit tests for MetadataBundle.
+ */
+public class MetadataBundleTest extends TestCase {
+  private byte[] testBundle;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    InputStream source =
+        MetadataBundleTest.class.getResourceAsStream(PhoneNumberUtilTest.TEST_META_DATA_FILE);
+    try {
+      testBundle = MetadataBundle.readFully(source);
+    } finally {
+      source.close();
+    }
+  }
+
+  public void testReadsBackWrittenMetadata() throws Exception {
+    PhoneMetadataCollection metadataCollection = readAll(testBundle);
+    assertTrue(metadataCollection.getMetadataCount() > 0);
+    byte[] written = write(metadataCollection);
+    MetadataBundle bundle = MetadataBundle.readFrom(ByteBuffer.wrap(written));
+    assertEquals(metadataCollection.getMetadataCount(), bundle.getRegionCodes().size());
+    for (PhoneMetadata expected : metadataCollection.getMetadataList()) {
+      assertSameMetadata(expected, bundle.getMetadataForRegion(expected.getId()));
+    }
+    assertNull(bundle.getMetadataForRegion("XX"));
+    // Writing the metadata read back gives the same bytes, which covers the fields not compared
+    // above.
+    assertTrue(Arrays.equals(written, write(readAll(written))));
+  }
+
+  public void testReadsBundleFromPositionOfBuffer() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(testBundle.length + 3);
+    buffer.put(new byte[] {1, 2, 3}).put(testBundle).position(3);
+    MetadataBundle bundle = MetadataBundle.readFrom(buffer);
+    assertEquals(3, buffer.position());
+    assertEquals(1, bundle.getMetadataForRegion("US").getCountryCode());
+  }
+
+  public void testRejectsBadMagicNumber() {
+    byte[] bundle = testBundle.clone();
+    bundle[0] ^= 1;
+    assertRejected(bundle);
+  }
+
+  public void testRejectsUnsupportedVersion() {
+    byte[] bundle = testBundle.clone();
+    ByteBuffer.wrap(bundle).putInt(4, MetadataBundle.FORMAT_VERSION + 1);
+    assertRejected(bundle);
+  }
+
+  public void testRejectsTruncatedIndex() {
+    assertRejected(truncate(20));
+    assertRejected(truncate(10));
+  }
+
+  public void testRejectsCorruptRegionCount() {
+    byte[] bundle = testBundle.clone();
+    ByteBuffer.wrap(bundle).putInt(8, -1);
+    assertRejected(bundle);
+    ByteBuffer.wrap(bundle).putInt(8, Integer.MAX_VALUE);
+    assertRejected(bundle);
+  }
+
+  public void testRejectsSlicesOutsideBundle() throws Exception {
+    // The last slice runs past the end of the truncated bundle.
+    assertRejected(truncate(testBundle.length - 1));
+    // The offset of the first slice follows the first region code, which is preceded by its length.
+    ByteBuffer buffer = ByteBuffer.wrap(testBundle);
+    int offsetPosition = 14 + buffer.getShort(12);
+    buffer.putInt(offsetPosition, -1);
+    assertRejected(testBundle);
+    buffer.putInt(offsetPosition, testBundle.length);
+    assertRejected(testBundle);
+  }
+
+  private static void assertRejected(byte[] bundle) {
+    try {
+      MetadataBundle.readFrom(ByteBuffer.wrap(bundle));
+      fail("A corrupt bundle should be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private byte[] truncate(int length) {
+    byte[] bundle = new byte[length];
+    System.arraycopy(testBundle, 0, bundle, 0, length);
+    return bundle;
+  }
+
+  private static PhoneMetadataCollection readAll(byte[] bundleBytes) throws IOException {
+    MetadataBundle bundle = MetadataBundle.readFrom(ByteBuffer.wrap(bundleBytes));
+    PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
+    for (String regionCode : bundle.getRegionCodes()) {
+      metadataCollection.addMetadata(bundle.getMetadataForRegion(regionCode));
+    }
+    return metadataCollection;
+  }
+
+  private static byte[] write(PhoneMetadataCollection metadataCollection) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    MetadataBundle.write(metadataCollection, output);
+    return output.toByteArray();
+  }
+
+  private static void assertSameMetadata(PhoneMetadata expected, PhoneMetadata actual) {
+    String regionCode = expected.getId();
+    assertNotNull(regionCode, actual);
+    assertEquals(regionCode, actual.getId());
+    assertEquals(regionCode, expected.getCountryCode(), actual.getCountryCode());
+    assertEquals(regionCode, expected.getInternationalPrefix(), actual.getInternationalPrefix());
+    assertEquals(regionCode, expected.getNationalPrefix(), actual.getNationalPrefix());
+    assertEquals(regionCode, expected.getNationalPrefixForParsing(),
+                 actual.getNationalPrefixForParsing());
+    PhoneNumberDesc[] expectedDescs = getDescs(expected);
+    PhoneNumberDesc[] actualDescs = getDescs(actual);
+    for (int i = 0; i < expectedDescs.length; i++) {
+      assertTrue(regionCode, expectedDescs[i].exactlySameAs(actualDescs[i]));
+    }
+    assertEquals(regionCode, expected.getNumberFormatCount(), actual.getNumberFormatCount());
+    for (int i = 0; i < expected.getNumberFormatCount(); i++) {
+      NumberFormat expectedFormat = expected.getNumberFormat(i);
+      NumberFormat actualFormat = actual.getNumberFormat(i);
+      assertEquals(regionCode, expectedFormat.getPattern(), actualFormat.getPattern());
+      assertEquals(regionCode, expectedFormat.getFormat(), actualFormat.getFormat());
+    }
+  }
+
+  private static PhoneNumberDesc[] getDescs(PhoneMetadata metadata) {
+    return new PhoneNumberDesc[] {
+        metadata.getGeneralDesc(), metadata.getFixedLine(), metadata.getMobile(),
+        metadata.getTollFree(), metadata.getPremiumRate(), metadata.getSharedCost(),
+        metadata.getPersonalNumber(), metadata.getVoip(), metadata.getPager()};
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for MetadataDeduplicator. The heap retained by the metadata of all regions is
+ * estimated by walking the object graph of the metadata and adding up the approximate size of each
+ * distinct object, which unlike measuring the free memory of the JVM gives the same result on
+ * every run.
+ */
+public class MetadataDeduplicatorTest extends TestCase {
+  // Approximate sizes in bytes of the objects making up the metadata, assuming compressed
+  // references: an object header of 12 bytes and 4 bytes per reference, rounded up to 8 bytes.
+  private static final int PHONE_METADATA_SIZE = 104;
+  private static final int PHONE_NUMBER_DESC_SIZE = 32;
+  private static final int NUMBER_FORMAT_SIZE = 40;
+  private static final int ARRAY_LIST_SIZE = 24;
+  private static final int STRING_SIZE = 24;
+
+  private final MetadataSource source =
+      new ClasspathMetadataSource(PhoneNumberUtil.META_DATA_FILE);
+
+  private List<PhoneMetadata> loadAllRegions(MetadataDeduplicator deduplicator) throws Exception {
+    List<PhoneMetadata> allMetadata = new ArrayList<PhoneMetadata>();
+    for (String regionCode :
+         MetadataBundle.loadFromClasspath(PhoneNumberUtil.META_DATA_FILE).getRegionCodes()) {
+      PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+      if (deduplicator != null) {
+        deduplicator.deduplicate(metadata);
+      }
+      allMetadata.add(metadata);
+    }
+    return allMetadata;
+  }
+
+  public void testDeduplicationKeepsMetadataUnchanged() throws Exception {
+    List<PhoneMetadata> originalMetadata = loadAllRegions(null);
+    List<PhoneMetadata> deduplicatedMetadata = loadAllRegions(new MetadataDeduplicator());
+    assertEquals(originalMetadata.size(), deduplicatedMetadata.size());
+    for (int i = 0; i < originalMetadata.size(); i++) {
+      PhoneMetadata original = originalMetadata.get(i);
+      PhoneMetadata deduplicated = deduplicatedMetadata.get(i);
+      assertEquals(original.getId(), deduplicated.getId());
+      assertEquals(original.getInternationalPrefix(), deduplicated.getInternationalPrefix());
+      assertEquals(original.hasNationalPrefix(), deduplicated.hasNationalPrefix());
+      assertEquals(original.getNationalPrefix(), deduplicated.getNationalPrefix());
+      assertTrue(original.getGeneralDesc().exactlySameAs(deduplicated.getGeneralDesc()));
+      assertTrue(original.getFixedLine().exactlySameAs(deduplicated.getFixedLine()));
+      assertTrue(original.getMobile().exactlySameAs(deduplicated.getMobile()));
+      assertEquals(original.getNumberFormatCount(), deduplicated.getNumberFormatCount());
+      for (int j = 0; j < original.getNumberFormatCount(); j++) {
+        NumberFormat originalFormat = original.getNumberFormat(j);
+        NumberFormat deduplicatedFormat = deduplicated.getNumberFormat(j);
+        assertEquals(originalFormat.getPattern(), deduplicatedFormat.getPattern());
+        assertEquals(originalFormat.getFormat(), deduplicatedFormat.getFormat());
+        assertEquals(originalFormat.getLeadingDigitsPatternList(),
+                     deduplicatedFormat.getLeadingDigitsPatternList());
+        assertEquals(originalFormat.getNationalPrefixFormattingRule(),
+                     deduplicatedFormat.getNationalPrefixFormattingRule());
+      }
+    }
+  }
+
+  public void testIdenticalValuesAreShared() throws Exception {
+    MetadataDeduplicator deduplicator = new MetadataDeduplicator();
+    PhoneMetadata usMetadata = source.loadMetadataForRegion("US");
+    PhoneMetadata caMetadata = source.loadMetadataForRegion("CA");
+    deduplicator.deduplicate(usMetadata);
+    deduplicator.deduplicate(caMetadata);
+    // The NANPA countries all have the same international prefix and no-international-dialling
+    // description.
+    assertSame(usMetadata.getInternationalPrefix(), caMetadata.getInternationalPrefix());
+    assertSame(usMetadata.getPager(), caMetadata.getPager());
+  }
+
+  public void testDeduplicationReducesRetainedHeap() throws Exception {
+    long originalSize = estimateRetainedSize(loadAllRegions(null));
+    long deduplicatedSize = estimateRetainedSize(loadAllRegions(new MetadataDeduplicator()));
+    // Deduplication roughly halves the size of the metadata.
+    assertTrue("Deduplicated metadata takes " + deduplicatedSize + " bytes, compared to " +
+               originalSize + " bytes before", deduplicatedSize * 5 < originalSize * 3);
+  }
+
+  private long estimateRetainedSize(List<PhoneMetadata> allMetadata) {
+    Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+    long size = 0;
+    for (PhoneMetadata metadata : allMetadata) {
+      size += sizeOf(metadata, seen);
+    }
+    return size;
+  }
+
+  private long sizeOf(PhoneMetadata metadata, Map<Object, Object> seen) {
+    if (!firstVisit(metadata, seen)) {
+      return 0;
+    }
+    long size = PHONE_METADATA_SIZE + 2 * ARRAY_LIST_SIZE;
+    PhoneNumberDesc[] descs = {
+        metadata.getGeneralDesc(), metadata.getFixedLine(), metadata.getMobile(),
+        metadata.getTollFree(), metadata.getPremiumRate(), metadata.getSharedCost(),
+        metadata.getPersonalNumber(), metadata.getVoip(), metadata.getPager() };
+    for (PhoneNumberDesc desc : descs) {
+      if (desc != null && firstVisit(desc, seen)) {
+        size += PHONE_NUMBER_DESC_SIZE + sizeOf(desc.getNationalNumberPattern(), seen) +
+            sizeOf(desc.getPossibleNumberPattern(), seen) + sizeOf(desc.getExampleNumber(), seen);
+      }
+    }
+    String[] strings = {
+        metadata.getId(), metadata.getInternationalPrefix(),
+        metadata.getPreferredInternationalPrefix(), metadata.getNationalPrefix(),
+        metadata.getPreferredExtnPrefix(), metadata.getNationalPrefixForParsing(),
+        metadata.getNationalPrefixTransformRule(), metadata.getLeadingDigits() };
+    for (String string : strings) {
+      size += sizeOf(string, seen);
+    }
+    List<NumberFormat> numberFormats = new ArrayList<NumberFormat>(metadata.getNumberFormatList());
+    numberFormats.addAll(metadata.getIntlNumberFormatList());
+    size += 4 * numberFormats.size();
+    for (NumberFormat numberFormat : numberFormats) {
+      if (firstVisit(numberFormat, seen)) {
+        size += NUMBER_FORMAT_SIZE + ARRAY_LIST_SIZE + sizeOf(numberFormat.getPattern(), seen) +
+            sizeOf(numberFormat.getFormat(), seen) +
+            sizeOf(numberFormat.getNationalPrefixFormattingRule(), seen) +
+            sizeOf(numberFormat.getDomesticCarrierCodeFormattingRule(), seen);
+        for (String leadingDigitsPattern : numberFormat.getLeadingDigitsPatternList()) {
+          size += 4 + sizeOf(leadingDigitsPattern, seen);
+        }
+      }
+    }
+    return size;
+  }
+
+  private long sizeOf(String string, Map<Object, Object> seen) {
+    if (!firstVisit(string, seen)) {
+      return 0;
+    }
+    // The string object itself, plus its character array.
+    return STRING_SIZE + ((16 + 2 * string.length() + 7) & ~7);
+  }
+
+  private boolean firstVisit(Object object, Map<Object, Object> seen) {
+    return seen.put(object, object) == null;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Unit tests for the MetadataSource implementations. Each source is given the test metadata
+ * bundle, and must produce the same metadata as the classpath source.
+ */
+public class MetadataSourceTest extends TestCase {
+  private byte[] testBundle;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    InputStream source =
+        MetadataSourceTest.class.getResourceAsStream(PhoneNumberUtilTest.TEST_META_DATA_FILE);
+    try {
+      testBundle = MetadataBundle.readFully(source);
+    } finally {
+      source.close();
+    }
+  }
+
+  private void checkSource(MetadataSource source) throws Exception {
+    PhoneMetadata metadata = source.loadMetadataForRegion("US");
+    assertEquals("US", metadata.getId());
+    assertEquals(1, metadata.getCountryCode());
+    assertEquals("[13-9]\\d{9}|2[0-35-9]\\d{8}",
+                 metadata.getGeneralDesc().getNationalNumberPattern());
+    assertNull(source.loadMetadataForRegion("XX"));
+
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.createInstance(
+        source, CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
+    PhoneNumber number = phoneUtil.parse("030 123456", "DE");
+    assertEquals(49, number.getCountryCode());
+    assertEquals("+49 30 123456", phoneUtil.format(number, PhoneNumberFormat.INTERNATIONAL));
+    assertTrue(phoneUtil.isValidNumber(phoneUtil.parse("+1 650 253 0000", "ZZ")));
+  }
+
+  public void testClasspathMetadataSource() throws Exception {
+    checkSource(new ClasspathMetadataSource(PhoneNumberUtilTest.TEST_META_DATA_FILE));
+  }
+
+  public void testByteArrayMetadataSource() throws Exception {
+    checkSource(new ByteBufferMetadataSource(testBundle));
+  }
+
+  public void testByteBufferMetadataSource() throws Exception {
+    // The bundle does not need to start at the beginning of the buffer.
+    ByteBuffer buffer = ByteBuffer.allocateDirect(testBundle.length + 10);
+    buffer.position(10);
+    buffer.put(testBundle);
+    buffer.position(10);
+    checkSource(new ByteBufferMetadataSource(buffer));
+    assertEquals(10, buffer.position());
+  }
+
+  public void testDirectoryMetadataSource() throws Exception {
+    File baseDirectory = File.createTempFile("metadata", "");
+    assertTrue(baseDirectory.delete());
+    File bundleFile = new File(baseDirectory, PhoneNumberUtilTest.TEST_META_DATA_FILE);
+    try {
+      assertTrue(bundleFile.getParentFile().mkdirs());
+      FileOutputStream output = new FileOutputStream(bundleFile);
+      output.write(testBundle);
+      output.close();
+      checkSource(new DirectoryMetadataSource(baseDirectory,
+                                              PhoneNumberUtilTest.TEST_META_DATA_FILE));
+    } finally {
+      for (File file = bundleFile; !file.equals(baseDirectory); file = file.getParentFile()) {
+        file.delete();
+      }
+      baseDirectory.delete();
+    }
+  }
+
+  public void testReloadMetadata() throws Exception {
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.createInstance(
+        new ClasspathMetadataSource(PhoneNumberUtilTest.TEST_META_DATA_FILE),
+        CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
+    MetadataSnapshot oldSnapshot = phoneUtil.getMetadataSnapshot();
+    PhoneMetadata oldMetadata = phoneUtil.getMetadataForRegion("US");
+    AsYouTypeFormatter formatter = phoneUtil.getAsYouTypeFormatter("US");
+    assertEquals("6", formatter.inputDigit('6'));
+
+    WarmUpStats stats = phoneUtil.reloadMetadata(new ByteBufferMetadataSource(testBundle));
+    assertEquals(phoneUtil.getSupportedCountries().size(), stats.getRegionCount());
+    assertEquals(0, stats.getFailedRegions().size());
+    PhoneMetadata newMetadata = phoneUtil.getMetadataForRegion("US");
+    assertNotSame(oldMetadata, newMetadata);
+    assertEquals(oldMetadata.getGeneralDesc().getNationalNumberPattern(),
+                 newMetadata.getGeneralDesc().getNationalNumberPattern());
+    assertEquals("+1 650 253 0000",
+                 phoneUtil.format(phoneUtil.parse("6502530000", "US"),
+                                  PhoneNumberFormat.INTERNATIONAL));
+    // The old snapshot is left untouched, so a formatter created before the reload carries on
+    // with the metadata it started with.
+    assertNotSame(oldSnapshot, phoneUtil.getMetadataSnapshot());
+    assertSame(oldMetadata, phoneUtil.getMetadataForRegion(oldSnapshot, "US"));
+    assertEquals("65", formatter.inputDigit('5'));
+    assertEquals("650", formatter.inputDigit('0'));
+  }
+
+  public void testReloadMetadataKeepsOldMetadataOnFailure() throws Exception {
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.createInstance(
+        new ByteBufferMetadataSource(testBundle),
+        CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
+    PhoneMetadata oldMetadata = phoneUtil.getMetadataForRegion("DE");
+    final MetadataSource completeSource = new ByteBufferMetadataSource(testBundle);
+    MetadataSource incompleteSource = new MetadataSource() {
+      public PhoneMetadata loadMetadataForRegion(String regionCode) throws IOException {
+        return regionCode.equals("GB") ? null : completeSource.loadMetadataForRegion(regionCode);
+      }
+    };
+    try {
+      phoneUtil.reloadMetadata(incompleteSource);
+      fail("Reloading metadata which is missing a region should fail.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertSame(oldMetadata, phoneUtil.getMetadataForRegion("DE"));
+    assertNotNull(phoneUtil.getMetadataForRegion("GB"));
+  }
+
+  public void testMissingBundle() {
+    MetadataSource source = new ClasspathMetadataSource("/no/such/bundle");
+    try {
+      source.loadMetadataForRegion("US");
+      fail("Loading from a missing bundle should fail.");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
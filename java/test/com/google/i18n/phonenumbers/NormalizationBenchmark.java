@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Map;
+
+/**
+ * Measures normalizeDigitsOnly, convertAlphaCharactersInNumber and normalize, compared to the
+ * implementation looking characters up in the boxed mappings which NormalizationTable replaced.
+ * This is not run as part of the unit tests; run it with:
+ *
+ *   ant test-jar && java -cp build/jar/libphonenumber-test.jar \
+ *       com.google.i18n.phonenumbers.NormalizationBenchmark [seconds per run]
+ */
+public class NormalizationBenchmark {
+  private static final String[] NUMBERS = {
+      "+1 (650) 253-0000", "030 123456", "+44 20 7031 3000 ext. 1234", "1-800-FLOWERS",
+      "\uFF10\uFF13\uFF0D\uFF13\uFF13\uFF11 \uFF16\uFF10\uFF10\uFF15",
+      "\u0660\u0663 \u0663\u0663\u0661 \u0666\u0660\u0660\u0665", "0800 MY APPLE",
+      "tel:+61-2-9876-5432"};
+
+  private interface Normalizer {
+    String normalize(String number);
+  }
+
+  public static void main(String[] args) throws Exception {
+    long runMillis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+    System.out.println("method                          boxed maps (ns/op)  tables (ns/op)");
+    report("normalizeDigitsOnly", new Normalizer() {
+      public String normalize(String number) {
+        return normalizeWithMap(number, PhoneNumberUtil.DIGIT_MAPPINGS, true);
+      }
+    }, new Normalizer() {
+      public String normalize(String number) {
+        return PhoneNumberUtil.normalizeDigitsOnly(number);
+      }
+    }, runMillis);
+    report("convertAlphaCharactersInNumber", new Normalizer() {
+      public String normalize(String number) {
+        return normalizeWithMap(number, PhoneNumberUtil.ALL_NORMALIZATION_MAPPINGS, false);
+      }
+    }, new Normalizer() {
+      public String normalize(String number) {
+        return PhoneNumberUtil.convertAlphaCharactersInNumber(number);
+      }
+    }, runMillis);
+    report("normalize", new Normalizer() {
+      public String normalize(String number) {
+        Map<Character, Character> mappings = PhoneNumberScanner.isAlphaNumber(number)
+            ? PhoneNumberUtil.ALL_NORMALIZATION_MAPPINGS : PhoneNumberUtil.DIGIT_MAPPINGS;
+        return normalizeWithMap(number, mappings, true);
+      }
+    }, new Normalizer() {
+      public String normalize(String number) {
+        return PhoneNumberUtil.normalize(number);
+      }
+    }, runMillis);
+  }
+
+  private static void report(String method, Normalizer before, Normalizer after, long runMillis) {
+    double beforeNanos = measure(before, runMillis);
+    double afterNanos = measure(after, runMillis);
+    System.out.println(String.format("%-30s  %18.1f  %14.1f", method, beforeNanos, afterNanos));
+  }
+
+  // Returns the average time of one call, in nanoseconds.
+  private static double measure(Normalizer normalizer, long runMillis) {
+    int length = 0;
+    // Warms up the JIT before the measured run.
+    for (int i = 0; i < 1000000; i++) {
+      length += normalizer.normalize(NUMBERS[i % NUMBERS.length]).length();
+    }
+    long ops = 0;
+    long startTime = System.nanoTime();
+    long endTime = startTime + runMillis * 1000000;
+    long now;
+    do {
+      for (int i = 0; i < 10000; i++) {
+        length += normalizer.normalize(NUMBERS[i % NUMBERS.length]).length();
+      }
+      ops += 10000;
+      now = System.nanoTime();
+    } while (now < endTime);
+    if (length == 0) {
+      // Keeps the results alive, so that the calls can't be optimized away.
+      System.out.println();
+    }
+    return (double) (now - startTime) / ops;
+  }
+
+  // A copy of PhoneNumberUtil.normalizeHelper() before it used a NormalizationTable.
+  private static String normalizeWithMap(String number,
+                                         Map<Character, Character> normalizationReplacements,
+                                         boolean removeNonMatches) {
+    StringBuffer normalizedNumber = new StringBuffer(number.length());
+    char[] numberAsCharArray = number.toCharArray();
+    for (char character : numberAsCharArray) {
+      Character newDigit = normalizationReplacements.get(Character.toUpperCase(character));
+      if (newDigit != null) {
+        normalizedNumber.append(newDigit);
+      } else if (!removeNonMatches) {
+        normalizedNumber.append(character);
+      }
+    }
+    return normalizedNumber.toString();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * Unit tests for NormalizationTable.
+ */
+public class NormalizationTableTest extends TestCase {
+
+  public void testLooksUpAsTheMappingsDo() {
+    assertSameReplacements(PhoneNumberUtil.DIGIT_MAPPINGS);
+    assertSameReplacements(PhoneNumberUtil.ALL_NORMALIZATION_MAPPINGS);
+  }
+
+  public void testNormalizes() {
+    NormalizationTable table =
+        new NormalizationTable(PhoneNumberUtil.ALL_NORMALIZATION_MAPPINGS);
+    // The dotless i is upper-cased to I, and so is replaced as I is.
+    String number = "\uFF10\u0663-flow\u0131rs";
+    assertEquals("033569477", table.normalize(number, true));
+    assertEquals("03-3569477", table.normalize(number, false));
+    StringBuffer buffer = new StringBuffer(number);
+    table.normalizeInPlace(buffer);
+    assertEquals("033569477", buffer.toString());
+    assertEquals("", table.normalize("", true));
+  }
+
+  private static void assertSameReplacements(Map<Character, Character> mappings) {
+    NormalizationTable table = new NormalizationTable(mappings);
+    for (int i = 0; i <= Character.MAX_VALUE; i++) {
+      char c = (char) i;
+      Character replacement = mappings.get(Character.toUpperCase(c));
+      char expected =
+          replacement == null ? NormalizationTable.NO_REPLACEMENT : replacement.charValue();
+      assertEquals(Integer.toHexString(i), expected, table.lookUp(c));
+    }
+  }
+}
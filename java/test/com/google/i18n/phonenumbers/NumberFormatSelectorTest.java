@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for NumberFormatSelector.
+ */
+public class NumberFormatSelectorTest extends TestCase {
+
+  public void testGetCandidates() {
+    List<NumberFormat> formats = new ArrayList<NumberFormat>();
+    formats.add(new NumberFormat().setPattern("(\\d{3})(\\d{4})").addLeadingDigitsPattern("[2-5]")
+        .addLeadingDigitsPattern("2[0-4]|[3-5]"));
+    formats.add(new NumberFormat().setPattern("(\\d{2})(\\d{5})").addLeadingDigitsPattern("2"));
+    formats.add(new NumberFormat().setPattern("(\\d{4})(\\d{4})"));
+    NumberFormatSelector selector = NumberFormatSelector.build(formats);
+    assertTrue(selector.getStateCount() > 0);
+    assertEquals("[0, 1, 2]", Arrays.toString(selector.getCandidates("2312345")));
+    assertEquals("[1, 2]", Arrays.toString(selector.getCandidates("2812345")));
+    assertEquals("[0, 2]", Arrays.toString(selector.getCandidates("4812345")));
+    assertEquals("[2]", Arrays.toString(selector.getCandidates("9812345")));
+    // Only the first digit is known, so the second leading digits pattern of the first format
+    // can't match yet.
+    assertEquals("[1, 2]", Arrays.toString(selector.getCandidates("2")));
+    // Non-digits are only noticed while the candidates are still undecided.
+    assertNull(selector.getCandidates("2-312345"));
+    assertEquals("[0, 1, 2]", Arrays.toString(selector.getCandidates("23-12345")));
+  }
+
+  // Compares the candidates given by the selectors with those found by trying the leading digits
+  // pattern of each format, for all regions, on random numbers.
+  public void testAgreesWithMatchingEachFormatForAllRegions() throws Exception {
+    MetadataSource source = new ClasspathMetadataSource(PhoneNumberUtil.META_DATA_FILE);
+    Random random = new Random(42);
+    for (String regionCode :
+         MetadataBundle.loadFromClasspath(PhoneNumberUtil.META_DATA_FILE).getRegionCodes()) {
+      PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+      checkSelector(regionCode, metadata.getNumberFormatList(),
+                    metadata.getNumberFormatSelector(), random);
+      checkSelector(regionCode, metadata.getIntlNumberFormatList(),
+                    metadata.getIntlNumberFormatSelector(), random);
+    }
+  }
+
+  private void checkSelector(String regionCode, List<NumberFormat> formats,
+                             NumberFormatSelector selector, Random random) {
+    assertEquals(regionCode, formats.size(), selector.getFormatCount());
+    for (int i = 0; i < 300; i++) {
+      StringBuffer number = new StringBuffer();
+      int length = random.nextInt(14);
+      for (int j = 0; j < length; j++) {
+        number.append((char) ('0' + random.nextInt(10)));
+      }
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int j = 0; j < formats.size(); j++) {
+        NumberFormat format = formats.get(j);
+        int size = format.getLeadingDigitsPatternCount();
+        if (size == 0 ||
+            format.getCompiledLeadingDigitsPattern(size - 1).matcher(number).lookingAt()) {
+          expected.add(j);
+        }
+      }
+      assertEquals(regionCode + " " + number, expected.toString(),
+                   Arrays.toString(selector.getCandidates(number)));
+    }
+  }
+}
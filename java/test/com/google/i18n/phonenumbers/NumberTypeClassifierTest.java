@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberType;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for NumberTypeClassifier.
+ */
+public class NumberTypeClassifierTest extends TestCase {
+  private PhoneNumberUtil phoneUtil;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    phoneUtil = PhoneNumberUtil.getInstance();
+  }
+
+  // Compares the types given by the classifiers with those given by trying the number descriptions
+  // one by one, for all regions, on their example numbers and random numbers.
+  public void testAgreesWithMatchingEachDescForAllRegions() {
+    Random random = new Random(42);
+    for (String regionCode : phoneUtil.getSupportedCountries()) {
+      PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+      NumberTypeClassifier classifier = metadata.getNumberTypeClassifier();
+      assertTrue(regionCode, classifier.getStateCount() > 0);
+      List<String> numbers = new ArrayList<String>();
+      PhoneNumberDesc[] descs = {
+          metadata.getGeneralDesc(), metadata.getFixedLine(), metadata.getMobile(),
+          metadata.getTollFree(), metadata.getPremiumRate(), metadata.getSharedCost(),
+          metadata.getPersonalNumber(), metadata.getVoip(), metadata.getPager() };
+      for (PhoneNumberDesc desc : descs) {
+        if (desc.hasExampleNumber()) {
+          numbers.add(desc.getExampleNumber());
+          numbers.add(desc.getExampleNumber() + "1");
+        }
+      }
+      for (int i = 0; i < 500; i++) {
+        StringBuffer number = new StringBuffer();
+        int length = 2 + random.nextInt(15);
+        for (int j = 0; j < length; j++) {
+          number.append((char) ('0' + random.nextInt(10)));
+        }
+        numbers.add(number.toString());
+      }
+      for (String number : numbers) {
+        assertEquals(regionCode + " " + number,
+                     phoneUtil.getNumberTypeByMatchingEachDesc(number, metadata),
+                     classifier.classify(number, metadata.getSameMobileAndFixedLinePattern()));
+      }
+    }
+  }
+
+  public void testPrecedenceOfTypes() {
+    PhoneMetadata metadata = new PhoneMetadata();
+    metadata.setGeneralDesc(desc("\\d{5}"));
+    metadata.setPremiumRate(desc("9\\d{4}"));
+    metadata.setTollFree(desc("[89]\\d{4}"));
+    metadata.setSharedCost(desc("NA"));
+    metadata.setVoip(desc("NA"));
+    metadata.setPersonalNumber(desc("NA"));
+    metadata.setPager(desc("NA"));
+    metadata.setFixedLine(desc("[1-3]\\d{4}"));
+    metadata.setMobile(desc("[3-5]\\d{4}"));
+    NumberTypeClassifier classifier = metadata.getNumberTypeClassifier();
+    assertEquals(PhoneNumberType.PREMIUM_RATE, classifier.classify("91234", false));
+    assertEquals(PhoneNumberType.TOLL_FREE, classifier.classify("81234", false));
+    assertEquals(PhoneNumberType.FIXED_LINE, classifier.classify("11234", false));
+    assertEquals(PhoneNumberType.FIXED_LINE_OR_MOBILE, classifier.classify("31234", false));
+    assertEquals(PhoneNumberType.MOBILE, classifier.classify("41234", false));
+    assertEquals(PhoneNumberType.UNKNOWN, classifier.classify("41234", true));
+    assertEquals(PhoneNumberType.FIXED_LINE_OR_MOBILE, classifier.classify("11234", true));
+    assertEquals(PhoneNumberType.UNKNOWN, classifier.classify("61234", false));
+    assertEquals(PhoneNumberType.UNKNOWN, classifier.classify("1234", false));
+    // Numbers containing anything other than digits aren't classified.
+    assertNull(classifier.classify("1123a", false));
+
+    // Changing one of the descriptions makes the metadata build a new classifier.
+    metadata.setPager(desc("6\\d{4}"));
+    assertEquals(PhoneNumberType.PAGER,
+                 metadata.getNumberTypeClassifier().classify("61234", false));
+  }
+
+  private static PhoneNumberDesc desc(String pattern) {
+    return new PhoneNumberDesc().setNationalNumberPattern(pattern)
+        .setPossibleNumberPattern("\\d{5}");
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ParseResult;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+
+/**
+ * Unit tests for the parse cache of PhoneNumberUtil.
+ */
+public class ParseCacheTest extends TestCase {
+  private static final String[] NUMBERS = {
+      "+1 650 253 0000", "(650) 253-0000", "030 123456", "+44 20 7031 3000 ext. 1234",
+      "not a number", "+800 1234 5678", "12", "tel:+61-2-9876-5432", "0236618300", ""};
+  private static final String[] REGIONS = {"US", "DE", "IT", "ZZ", null};
+
+  private byte[] testBundle;
+  private PhoneNumberUtil phoneUtil;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    InputStream source =
+        ParseCacheTest.class.getResourceAsStream(PhoneNumberUtilTest.TEST_META_DATA_FILE);
+    try {
+      testBundle = MetadataBundle.readFully(source);
+    } finally {
+      source.close();
+    }
+    phoneUtil = PhoneNumberUtil.createInstance(
+        new ByteBufferMetadataSource(testBundle),
+        CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
+  }
+
+  public void testCacheIsOffByDefault() throws Exception {
+    phoneUtil.parse("+1 650 253 0000", "US");
+    ParseCacheStats stats = phoneUtil.getParseCacheStats();
+    assertEquals(0, stats.getRequestCount());
+    assertEquals(0, stats.getMaxSize());
+  }
+
+  public void testCachedParsesMatchUncachedParses() throws Exception {
+    PhoneNumberUtil uncachedPhoneUtil = PhoneNumberUtil.createInstance(
+        new ByteBufferMetadataSource(testBundle),
+        CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
+    phoneUtil.setParseCacheSize(100);
+    // Each number is parsed three times: the first parse misses, and the others hit.
+    for (int i = 0; i < 3; i++) {
+      for (String number : NUMBERS) {
+        for (String region : REGIONS) {
+          for (boolean keepRawInput : new boolean[] {false, true}) {
+            PhoneNumber expected = new PhoneNumber();
+            PhoneNumber actual = new PhoneNumber();
+            String message = number + " in " + region + (keepRawInput ? " keeping raw input" : "");
+            ParseResult result = parse(uncachedPhoneUtil, number, region, keepRawInput, expected);
+            assertEquals(message, result, parse(phoneUtil, number, region, keepRawInput, actual));
+            assertTrue(message, expected.exactlySameAs(actual));
+          }
+        }
+      }
+    }
+    // Numbers without a plus sign are rejected before the cache is looked up when there is no
+    // default region.
+    ParseCacheStats stats = phoneUtil.getParseCacheStats();
+    assertTrue(stats.getMissCount() > NUMBERS.length * 2);
+    assertEquals(stats.getMissCount() * 2, stats.getHitCount());
+    assertEquals(2.0 / 3, stats.getHitRate(), 1e-9);
+    assertEquals(stats.getMissCount(), stats.getSize());
+    assertEquals(0, stats.getEvictionCount());
+  }
+
+  public void testCallersCannotChangeCachedNumbers() throws Exception {
+    phoneUtil.setParseCacheSize(10);
+    PhoneNumber number = phoneUtil.parseAndKeepRawInput("+44 20 7031 3000 ext. 1234", "US");
+    number.setNationalNumber(1L).clearExtension().setRawInput("changed");
+    PhoneNumber cachedNumber = phoneUtil.parseAndKeepRawInput("+44 20 7031 3000 ext. 1234", "US");
+    assertNotSame(number, cachedNumber);
+    assertEquals(2070313000L, cachedNumber.getNationalNumber());
+    assertEquals("1234", cachedNumber.getExtension());
+    assertEquals("+44 20 7031 3000 ext. 1234", cachedNumber.getRawInput());
+    assertEquals(1, phoneUtil.getParseCacheStats().getHitCount());
+  }
+
+  public void testNumbersParsedIntoTwiceMatchUncachedParses() throws Exception {
+    // Pairs of numbers parsed one after the other into the same phone number, which keeps the
+    // fields set by the first parse that the second one doesn't set, whether it succeeds or fails.
+    String[][] pairs = {
+        {"+1 650 253 0000 ext. 1234", "+1 650 253 0000"},
+        {"+44 20 7031 3000", "not a number"},
+        {"0236618300", "+44 2"},
+        {"+39 02 3661 8300", "650 253 0000"},
+        {"+44 20 7031 3000 ext. 1234", "+1 65"}};
+    PhoneNumberUtil uncachedPhoneUtil = PhoneNumberUtil.createInstance(
+        new ByteBufferMetadataSource(testBundle),
+        CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
+    phoneUtil.setParseCacheSize(100);
+    // The first round misses the cache, and the second hits it.
+    for (int i = 0; i < 2; i++) {
+      for (String[] pair : pairs) {
+        for (String region : new String[] {"US", "IT"}) {
+          for (boolean keepRawInput : new boolean[] {false, true}) {
+            PhoneNumber expected = new PhoneNumber();
+            PhoneNumber actual = new PhoneNumber();
+            for (String number : pair) {
+              String message = number + " after " + pair[0] + " in " + region +
+                  (keepRawInput ? " keeping raw input" : "");
+              ParseResult result =
+                  parse(uncachedPhoneUtil, number, region, keepRawInput, expected);
+              assertEquals(message, result, parse(phoneUtil, number, region, keepRawInput, actual));
+              assertTrue(message + ": " + expected + " but was " + actual,
+                         expected.exactlySameAs(actual));
+            }
+          }
+        }
+      }
+    }
+    assertTrue(phoneUtil.getParseCacheStats().getHitCount() > 0);
+  }
+
+  public void testCachesFailures() throws Exception {
+    phoneUtil.setParseCacheSize(10);
+    for (int i = 0; i < 2; i++) {
+      try {
+        phoneUtil.parse("not a number", "US");
+        fail("This should not parse without throwing an exception");
+      } catch (NumberParseException e) {
+        assertEquals(NumberParseException.ErrorType.NOT_A_NUMBER, e.getErrorType());
+      }
+    }
+    assertEquals(ParseResult.NOT_A_NUMBER,
+                 phoneUtil.tryParse("not a number", "US", new PhoneNumber()));
+    assertEquals(2, phoneUtil.getParseCacheStats().getHitCount());
+  }
+
+  public void testDoesNotCacheMutableSequences() throws Exception {
+    phoneUtil.setParseCacheSize(10);
+    StringBuilder number = new StringBuilder("650 253 0000");
+    assertEquals(6502530000L, phoneUtil.parse(number, "US").getNationalNumber());
+    number.setCharAt(0, '4');
+    assertEquals(4502530000L, phoneUtil.parse(number, "US").getNationalNumber());
+    phoneUtil.tryParse(CharBuffer.wrap("650 253 0000"), "US", new PhoneNumber());
+    assertEquals(0, phoneUtil.getParseCacheStats().getRequestCount());
+  }
+
+  public void testEvictsNumbersWhenFull() throws Exception {
+    phoneUtil.setParseCacheSize(4);
+    for (int i = 0; i < 10; i++) {
+      phoneUtil.parse("650 253 000" + i, "US");
+    }
+    ParseCacheStats stats = phoneUtil.getParseCacheStats();
+    assertEquals(4, stats.getSize());
+    assertEquals(4, stats.getMaxSize());
+    assertEquals(6, stats.getEvictionCount());
+  }
+
+  public void testReloadingMetadataEmptiesCache() throws Exception {
+    phoneUtil.setParseCacheSize(10);
+    assertEquals(930123456L, phoneUtil.parse("930 123456", "DE").getNationalNumber());
+    assertEquals(1, phoneUtil.getParseCacheStats().getSize());
+    // In the new metadata, the national prefix of Germany is 9.
+    final MetadataSource source = new ByteBufferMetadataSource(testBundle);
+    phoneUtil.reloadMetadata(new MetadataSource() {
+      public PhoneMetadata loadMetadataForRegion(String regionCode) throws IOException {
+        PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+        if (regionCode.equals("DE")) {
+          metadata.setNationalPrefixForParsing("9");
+        }
+        return metadata;
+      }
+    });
+    ParseCacheStats stats = phoneUtil.getParseCacheStats();
+    assertEquals(0, stats.getSize());
+    assertEquals(1, stats.getInvalidationCount());
+    assertEquals(30123456L, phoneUtil.parse("930 123456", "DE").getNationalNumber());
+    assertEquals(30123456L, phoneUtil.parse("930 123456", "DE").getNationalNumber());
+    assertEquals(stats.getHitCount() + 1, phoneUtil.getParseCacheStats().getHitCount());
+  }
+
+  public void testCacheIgnoresOtherSnapshots() {
+    MetadataSnapshot snapshot = phoneUtil.getMetadataSnapshot();
+    ParseCache cache = new ParseCache(10, snapshot);
+    PhoneNumber number = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    cache.putIfAbsent(snapshot, "6502530000", "US", false,
+                      new ParseCache.Entry(ParseResult.SUCCESS, number, false));
+    assertNotNull(cache.get(snapshot, "6502530000", "US", false));
+    assertNull(cache.get(snapshot, "6502530000", "US", true));
+    assertNull(cache.get(snapshot, "6502530000", null, false));
+
+    MetadataSnapshot newSnapshot = new MetadataSnapshot(
+        new ByteBufferMetadataSource(testBundle), phoneUtil.getSupportedCountries(),
+        new CountryCallingCodeTable(
+            CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap()));
+    assertNull(cache.get(newSnapshot, "6502530000", "US", false));
+    cache.invalidate(newSnapshot);
+    assertNull(cache.get(snapshot, "6502530000", "US", false));
+    // A number parsed with the old snapshot while the cache was being invalidated is not cached.
+    cache.putIfAbsent(snapshot, "6502530000", "US", false,
+                      new ParseCache.Entry(ParseResult.SUCCESS, number, false));
+    assertNull(cache.get(newSnapshot, "6502530000", "US", false));
+    assertEquals(0, cache.getStats().getSize());
+  }
+
+  public void testRejectsNegativeSize() {
+    try {
+      phoneUtil.setParseCacheSize(-1);
+      fail("A negative size should be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private static ParseResult parse(PhoneNumberUtil phoneUtil, String number, String region,
+                                   boolean keepRawInput, PhoneNumber phoneNumber) {
+    try {
+      if (keepRawInput) {
+        phoneUtil.parseAndKeepRawInput(number, region, phoneNumber);
+      } else {
+        phoneUtil.parse(number, region, phoneNumber);
+      }
+      return ParseResult.SUCCESS;
+    } catch (NumberParseException e) {
+      return ParseResult.valueOf(e.getErrorType().name());
+    }
+  }
+}
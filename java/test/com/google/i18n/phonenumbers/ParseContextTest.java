@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import junit.framework.TestCase;
+
+import java.nio.CharBuffer;
+
+/**
+ * Unit tests for parsing phone numbers with a reused ParseContext.
+ */
+public class ParseContextTest extends TestCase {
+  private static final String[][] NUMBERS = {
+      {"+44 20 7031 3000", "GB"}, {"(650) 253-0000", "US"}, {"030 123456", "DE"},
+      {"011 54 9 11 8765 4321", "US"}, {"0011 61 2 9876 5432", "AU"}, {"tel: 0800 123 456", "NZ"},
+      {"0236 1234567", "IT"}, {"1 650 253 0000 ext. 1234", "US"}, {"64 3 331 6005", "NZ"}};
+
+  private final PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+
+  public void testParsesLikeParseWithoutContext() throws Exception {
+    ParseContext context = new ParseContext();
+    for (int i = 0; i < 2; i++) {
+      for (String[] number : NUMBERS) {
+        PhoneNumber parsedWithContext = new PhoneNumber();
+        phoneUtil.parse(number[0], number[1], parsedWithContext, context);
+        assertTrue(number[0], phoneUtil.parse(number[0], number[1]).exactlySameAs(
+            parsedWithContext));
+      }
+    }
+  }
+
+  public void testParsesCharSequencesAndSlicesLikeStrings() throws Exception {
+    ParseContext context = new ParseContext();
+    for (String[] number : NUMBERS) {
+      PhoneNumber expected = phoneUtil.parse(number[0], number[1]);
+      assertTrue(number[0], expected.exactlySameAs(
+          phoneUtil.parse(new StringBuilder(number[0]), number[1])));
+      assertTrue(number[0], expected.exactlySameAs(
+          phoneUtil.parse(CharBuffer.wrap(number[0]), number[1])));
+      // The number is parsed from the middle of a larger buffer, as from a record being read.
+      char[] buffer = ("Call " + number[0] + "; ok").toCharArray();
+      PhoneNumber parsedFromSlice = new PhoneNumber();
+      phoneUtil.parse(buffer, 5, number[0].length(), number[1], parsedFromSlice, context);
+      assertTrue(number[0], expected.exactlySameAs(parsedFromSlice));
+    }
+  }
+
+  public void testKeepsRawInputOfCharSequence() throws Exception {
+    StringBuilder input = new StringBuilder("(650) 253-0000");
+    PhoneNumber number = phoneUtil.parseAndKeepRawInput(input, "US");
+    assertTrue(phoneUtil.parseAndKeepRawInput("(650) 253-0000", "US").exactlySameAs(number));
+    // The raw input is a copy, which doesn't change with the buffer it came from.
+    input.setLength(0);
+    assertEquals("(650) 253-0000", number.getRawInput());
+  }
+
+  public void testMatchesCharSequences() throws Exception {
+    assertEquals(PhoneNumberUtil.MatchType.EXACT_MATCH,
+                 phoneUtil.isNumberMatch(new StringBuilder("+64 3 331 6005"),
+                                         CharBuffer.wrap("+6433316005")));
+    PhoneNumber nzNumber = phoneUtil.parse("+64 3 331 6005", "NZ");
+    assertEquals(PhoneNumberUtil.MatchType.EXACT_MATCH,
+                 phoneUtil.isNumberMatch(nzNumber, new StringBuilder("+64 3 331-6005")));
+  }
+
+  public void testReusesContextAfterFailedParse() throws Exception {
+    ParseContext context = new ParseContext();
+    PhoneNumber number = new PhoneNumber();
+    try {
+      phoneUtil.parse("+999 1234 5678", "US", number, context);
+      fail("Country code 999 should not be recognised.");
+    } catch (NumberParseException e) {
+      assertEquals(NumberParseException.ErrorType.INVALID_COUNTRY_CODE, e.getErrorType());
+    }
+    number.clear();
+    phoneUtil.parse("650 253 0000", "US", number, context);
+    assertEquals(1, number.getCountryCode());
+    assertEquals(6502530000L, number.getNationalNumber());
+  }
+
+  public void testSteadyStateParsingAllocatesNothing() throws Exception {
+    final ParseContext context = new ParseContext();
+    final PhoneNumber number = new PhoneNumber();
+    for (final String[] numberToParse : NUMBERS) {
+      if (numberToParse[0].indexOf("ext") >= 0) {
+        // The extension is a new string stored in the phone number.
+        continue;
+      }
+      long bytesPerParse = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+        public void run(int iteration) throws Exception {
+          phoneUtil.parse(numberToParse[0], numberToParse[1], number, context);
+        }
+      });
+      if (bytesPerParse < 0) {
+        // The JVM can't measure the memory allocated by a thread.
+        return;
+      }
+      // Allows for boxing the few country codes outside the cache of Integer.valueOf().
+      assertTrue("Allocated " + bytesPerParse + " bytes per parse of " + numberToParse[0],
+                 bytesPerParse < 32);
+    }
+  }
+
+  // Creating a NumberParseException, with its stack trace, takes far more than this.
+  public void testFailedTryParseAllocatesNothing() throws Exception {
+    final ParseContext context = new ParseContext();
+    final PhoneNumber number = new PhoneNumber();
+    String[][] invalidNumbers = {
+        {"This is not a phone number", "NZ"}, {"+210 3456 56789", "NZ"}, {"0044------", "GB"},
+        {"+49 0", "DE"}, {"01495 72553301873 810104", "GB"}, {"123 456 7890", "YY"}};
+    for (final String[] invalidNumber : invalidNumbers) {
+      long bytesPerParse = AllocationMeasurer.bytesPerRun(new AllocationMeasurer.Task() {
+        public void run(int iteration) {
+          assertNotSame(PhoneNumberUtil.ParseResult.SUCCESS,
+                        phoneUtil.tryParse(invalidNumber[0], invalidNumber[1], number, context));
+        }
+      });
+      if (bytesPerParse < 0) {
+        return;
+      }
+      assertTrue("Allocated " + bytesPerParse + " bytes per parse of " + invalidNumber[0],
+                 bytesPerParse < 32);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+
+/**
+ * Unit tests for PhoneNumberScanner, which are checked against the regular expressions of
+ * PhoneNumberUtil it does without.
+ */
+public class PhoneNumberScannerTest extends TestCase {
+  // Pieces of the random inputs: the characters and words the patterns treat specially, along with
+  // letters whose case folds to an ASCII letter, numbers which aren't digits of phone numbers, line
+  // terminators, and surrogates both paired and not.
+  private static final String[] PIECES = {
+      "0", "1", "5", "9", "\uFF10", "\uFF19", "\u0660", "\u0669", "\u06F5", "\u00B2", "\u2164",
+      "+", "\uFF0B", "-", "x", "X", "\u2010", "\u2015", "\u2212", "\uFF0D", "\uFF0F", " ",
+      "\u00A0", "\u200B", "\u2060", "\u3000", "(", ")", "\uFF08", "\uFF09", "\uFF3B", "\uFF3D",
+      ".", "[", "]", "/", "\\", "~", "\u2053", "\u223C", "\uFF5E", "a", "Z", "\u0130", "\u0131",
+      "\u017F", "\u212A", "\u00E9", "\u03A9", "ext", "EXTN", "extension", "ExtensiO",
+      "\uFF45\uFF58\uFF54", "\uFF25\uFF38\uFF34\uFF4E", "\uFF58", "\uFF38", "int",
+      "\uFF49\uFF4E\uFF54", "anexo", "#",
+      "\uFF03", ":", "\uFF0E", "\t", ",", "\n", "\r", "\u0085", "\u2028", "\u2029", "*", ";",
+      "\uD835\uDFCF", "\uD835\uDC00", "\uD83D\uDE00", "\uD835", "\uDFCF", "123", "4567", " ext. ",
+      "/x", "\\ x", " - ", "#", "\r\n" };
+
+  public void testClassifiesCharactersAsThePatternsDo() {
+    for (int i = 0; i <= Character.MAX_VALUE; i++) {
+      char c = (char) i;
+      String s = String.valueOf(c);
+      assertEquals(s, PhoneNumberUtil.VALID_START_CHAR_PATTERN.matcher(s).matches(),
+                   PhoneNumberScanner.isStartChar(c));
+      assertEquals(s, PhoneNumberUtil.DIGIT_MAPPINGS.containsKey(c),
+                   PhoneNumberScanner.isDigit(c));
+      // Checks the characters accepted before, between and after the first three digits.
+      String[] numbers = {
+          s + "123", "1" + s + "23", "123" + s, "123" + s + "1", "123 ext" + s + "1"};
+      for (String number : numbers) {
+        assertEquals(number, isViableByPattern(number), PhoneNumberScanner.isViable(number));
+      }
+      String alphaNumber = "ab" + s + "c";
+      assertEquals(alphaNumber,
+                   PhoneNumberUtil.VALID_ALPHA_PHONE_PATTERN.matcher(alphaNumber).matches(),
+                   PhoneNumberScanner.isAlphaNumber(alphaNumber));
+      String endingNumber = "12" + s;
+      assertEquals(endingNumber, extractByPatterns(endingNumber),
+                   PhoneNumberUtil.extractPossibleNumber(endingNumber));
+    }
+  }
+
+  public void testScansExamples() {
+    assertEquals(4, PhoneNumberScanner.findStart("Tel:+1 650 253 0000"));
+    assertEquals(-1, PhoneNumberScanner.findStart("Tel: none"));
+    String number = "(530) 583-6985 x302/x2303";
+    assertEquals(19, PhoneNumberScanner.findEnd(number, 1));
+    assertEquals(8, PhoneNumberScanner.findEnd("1234567#.", 0));
+    assertEquals(7, PhoneNumberScanner.findEnd("1234567 .,;", 0));
+    assertTrue(PhoneNumberScanner.isViable("+1 650 253 0000 ext. 1234"));
+    assertTrue(PhoneNumberScanner.isViable("0116433316005 - 503#"));
+    assertFalse(PhoneNumberScanner.isViable("1 650 253 0000;1234"));
+    assertFalse(PhoneNumberScanner.isViable("12. March"));
+    assertTrue(PhoneNumberScanner.isAlphaNumber("1800 six-flags"));
+    assertFalse(PhoneNumberScanner.isAlphaNumber("1800 si"));
+    assertFalse(PhoneNumberScanner.isAlphaNumber("1800 six\nflags"));
+  }
+
+  // Compares the scanner with the patterns on random inputs made of the pieces above.
+  public void testScansRandomInputAsThePatternsDo() {
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      String number = randomInput(random);
+      String possibleNumber = PhoneNumberUtil.extractPossibleNumber(number);
+      assertEquals(number, extractByPatterns(number), possibleNumber);
+      assertEquals(number, isViableByPattern(number), PhoneNumberScanner.isViable(number));
+      assertEquals(possibleNumber, isViableByPattern(possibleNumber),
+                   PhoneNumberScanner.isViable(possibleNumber));
+      assertEquals(number, PhoneNumberUtil.VALID_ALPHA_PHONE_PATTERN.matcher(number).matches(),
+                   PhoneNumberScanner.isAlphaNumber(number));
+    }
+  }
+
+  public void testStripsExtensionsAsThePatternDoes() {
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
+    String[] numbers = {
+        "1234567 ext 89", "1234567 ext. 89\n", "1234567 extn 89\r\n", "1234567 - 503#",
+        "1234567 x 12345678", "1234567, 89", "12 ext 89", "1234567 ext 89 ext 12"};
+    for (String number : numbers) {
+      assertStripsExtensionAsThePatternDoes(phoneUtil, number);
+    }
+    Random random = new Random(23);
+    for (int i = 0; i < 100000; i++) {
+      assertStripsExtensionAsThePatternDoes(phoneUtil, randomInput(random));
+    }
+  }
+
+  private static void assertStripsExtensionAsThePatternDoes(PhoneNumberUtil phoneUtil,
+                                                            String number) {
+    StringBuffer expectedNumber = new StringBuffer(number);
+    String expectedExtension = stripExtensionByPattern(expectedNumber);
+    StringBuffer strippedNumber = new StringBuffer(number);
+    assertEquals(number, expectedExtension, phoneUtil.maybeStripExtension(strippedNumber));
+    assertEquals(number, expectedNumber.toString(), strippedNumber.toString());
+  }
+
+  // Returns a random input made of the pieces above.
+  private static String randomInput(Random random) {
+    StringBuffer input = new StringBuffer();
+    int pieces = random.nextInt(14);
+    for (int j = 0; j < pieces; j++) {
+      // Digits are picked more often than the other pieces, so that many inputs are viable.
+      input.append(random.nextInt(3) == 0 ? String.valueOf(random.nextInt(10))
+                   : PIECES[random.nextInt(PIECES.length)]);
+    }
+    return input.toString();
+  }
+
+  // The way PhoneNumberUtil.maybeStripExtension() used to work.
+  private static String stripExtensionByPattern(StringBuffer number) {
+    Matcher m = PhoneNumberUtil.EXTN_PATTERN.matcher(number);
+    if (m.find() && PhoneNumberUtil.isViablePhoneNumber(number.substring(0, m.start()))) {
+      for (int i = 1, length = m.groupCount(); i <= length; i++) {
+        if (m.group(i) != null) {
+          String extension = m.group(i);
+          number.delete(m.start(), number.length());
+          return extension;
+        }
+      }
+    }
+    return "";
+  }
+
+  private static boolean isViableByPattern(String number) {
+    return PhoneNumberUtil.VALID_PHONE_NUMBER_PATTERN.matcher(number).matches();
+  }
+
+  // The way PhoneNumberUtil.extractPossibleNumber() used to work.
+  private static String extractByPatterns(String number) {
+    Matcher m = PhoneNumberUtil.VALID_START_CHAR_PATTERN.matcher(number);
+    if (!m.find()) {
+      return "";
+    }
+    int start = m.start();
+    int end = number.length();
+    Matcher trailingCharsMatcher =
+        PhoneNumberUtil.UNWANTED_END_CHAR_PATTERN.matcher(number).region(start, end);
+    if (trailingCharsMatcher.find()) {
+      end = trailingCharsMatcher.start();
+    }
+    Matcher secondNumber =
+        PhoneNumberUtil.SECOND_NUMBER_START_PATTERN.matcher(number).region(start, end);
+    if (secondNumber.find()) {
+      end = secondNumber.start();
+    }
+    return number.substring(start, end);
+  }
+}
@@ -18,6 +18,7 @@ package com.google.i18n.phonenumbers;
 
 import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
 import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber.CountryCodeSource;
 import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
@@ -25,14 +26,18 @@ import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 /**
  * Unit tests for PhoneNumberUtil.java
  *
- * Note that these tests use the metadata contained in the files with TEST_META_DATA_FILE_PREFIX,
- * not the normal metadata files, so should not be used for regression test purposes - these tests
+ * Note that these tests use the metadata contained in the file TEST_META_DATA_FILE, not the
+ * normal metadata file, so should not be used for regression test purposes - these tests
  * are illustrative only and test functionality.
  *
  * @author Shaopeng Jia
@@ -40,7 +45,7 @@ import java.util.regex.Pattern;
  */
 public class PhoneNumberUtilTest extends TestCase {
   private PhoneNumberUtil phoneUtil;
-  static final String TEST_META_DATA_FILE_PREFIX =
+  static final String TEST_META_DATA_FILE =
       "/com/google/i18n/phonenumbers/data/PhoneNumberMetadataProtoForTesting";
   static final String TEST_COUNTRY_CODE_TO_REGION_CODE_MAP_CLASS_NAME =
       "CountryCodeToRegionCodeMapForTesting";
@@ -51,7 +56,7 @@ public class PhoneNumberUtilTest extends TestCase {
 
   PhoneNumberUtil initilizePhoneUtilForTesting() {
     PhoneNumberUtil.resetInstance();
-    return PhoneNumberUtil.getInstance(TEST_META_DATA_FILE_PREFIX,
+    return PhoneNumberUtil.getInstance(TEST_META_DATA_FILE,
         CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap());
   }
 
@@ -134,6 +139,76 @@ public class PhoneNumberUtilTest extends TestCase {
     assertEquals("$1 $2 $3 $4", metadata.getIntlNumberFormat(3).getFormat());
   }
 
+  public void testWarmUp() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      WarmUpStats stats = phoneUtil.warmUp(Arrays.asList("US", "DE", "XX"), executor);
+      assertEquals(2, stats.getRegionCount());
+      assertTrue(stats.getLoadTimeByRegion().containsKey("US"));
+      assertTrue(stats.getLoadTimeByRegion().containsKey("DE"));
+      assertEquals(Arrays.asList("XX"), stats.getFailedRegions());
+      assertTrue(stats.getPatternCount() > 0);
+      assertTrue(stats.getElapsedTime() > 0);
+
+      stats = phoneUtil.warmUpAllRegions(executor);
+      assertEquals(phoneUtil.getSupportedCountries().size(), stats.getRegionCount());
+      assertEquals(0, stats.getFailedRegions().size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testCompiledPatternsAreKeptWithMetadata() {
+    PhoneMetadata metadata = phoneUtil.getMetadataForRegion("US");
+    PhoneNumberDesc generalDesc = metadata.getGeneralDesc();
+    Pattern nationalNumberPattern = generalDesc.getCompiledNationalNumberPattern();
+    assertEquals(generalDesc.getNationalNumberPattern(), nationalNumberPattern.pattern());
+    assertSame(nationalNumberPattern, generalDesc.getCompiledNationalNumberPattern());
+    assertSame(metadata.getCompiledInternationalPrefix(),
+               metadata.getCompiledInternationalPrefix());
+
+    // Changing a pattern discards its compiled form.
+    PhoneNumberDesc desc = new PhoneNumberDesc().setNationalNumberPattern("\\d{4}");
+    assertTrue(desc.getCompiledNationalNumberPattern().matcher("1234").matches());
+    desc.setNationalNumberPattern("\\d{5}");
+    assertFalse(desc.getCompiledNationalNumberPattern().matcher("1234").matches());
+
+    NumberFormat numberFormat = new NumberFormat().addLeadingDigitsPattern("1");
+    assertEquals("1", numberFormat.getCompiledLeadingDigitsPattern(0).pattern());
+    numberFormat.addLeadingDigitsPattern("12");
+    assertEquals("12", numberFormat.getCompiledLeadingDigitsPattern(1).pattern());
+  }
+
+  public void testPossibleLengthMasksAreBuiltFromPatterns() {
+    PhoneMetadata metadata = phoneUtil.getMetadataForRegion("US");
+    // The possible number pattern of the general description is \\d{7,10}.
+    PhoneNumberDesc generalDesc = metadata.getGeneralDesc();
+    assertTrue(generalDesc.hasPossibleLengthMask());
+    assertEquals((1 << 7) | (1 << 8) | (1 << 9) | (1 << 10), generalDesc.getPossibleLengthMask());
+    assertTrue(generalDesc.isPossibleLength(7));
+    assertFalse(generalDesc.isPossibleLength(11));
+    assertTrue(generalDesc.isShorterThanPossibleLengths(6));
+    assertFalse(generalDesc.isShorterThanPossibleLengths(11));
+    assertEquals(1 << 10, metadata.getTollFree().getPossibleLengthMask());
+    // Descriptions of types the region doesn't have match no numbers at all.
+    assertEquals(0, metadata.getSharedCost().getPossibleLengthMask());
+
+    // Changing the possible number pattern discards the mask worked out from the old one.
+    PhoneNumberDesc desc = new PhoneNumberDesc().setPossibleNumberPattern("\\d{4}")
+        .setPossibleLengthMask(1 << 4);
+    assertFalse(desc.isPossibleLength(5));
+    desc.setPossibleNumberPattern("\\d{5}");
+    assertFalse(desc.hasPossibleLengthMask());
+    assertTrue(desc.isPossibleLength(5));
+    // Setting the same pattern again keeps the mask, and a null pattern is accepted as by the other
+    // setters.
+    desc.setPossibleLengthMask(1 << 5).setPossibleNumberPattern(new String("\\d{5}"));
+    assertEquals(1 << 5, desc.getPossibleLengthMask());
+    desc.setPossibleNumberPattern(null);
+    assertFalse(desc.hasPossibleLengthMask());
+    assertNull(desc.getPossibleNumberPattern());
+  }
+
   public void testGetLengthOfGeographicalAreaCode() {
     PhoneNumber number = new PhoneNumber();
     // Google MTV, which has area code "650".
@@ -1483,6 +1558,74 @@ public class PhoneNumberUtilTest extends TestCase {
     }
   }
 
+  public void testTryParse() throws Exception {
+    PhoneNumber number = new PhoneNumber();
+    assertEquals(PhoneNumberUtil.ParseResult.SUCCESS,
+                 phoneUtil.tryParse("03-331 6005", "NZ", number));
+    PhoneNumber nzNumber = new PhoneNumber();
+    nzNumber.setCountryCode(64).setNationalNumber(33316005L);
+    assertEquals(nzNumber, number);
+    // tryParse fails for the same reasons as parse does.
+    String[][] invalidNumbers = {
+        {"This is not a phone number", "NZ", "NOT_A_NUMBER"},
+        {"01495 72553301873 810104", "GB", "TOO_LONG"},
+        {"+49 0", "DE", "TOO_SHORT_NSN"},
+        {"+210 3456 56789", "NZ", "INVALID_COUNTRY_CODE"},
+        {"123 456 7890", "YY", "INVALID_COUNTRY_CODE"},
+        {"123 456 7890", null, "INVALID_COUNTRY_CODE"},
+        {"0044------", "GB", "TOO_SHORT_AFTER_IDD"},
+        {"", "ZZ", "NOT_A_NUMBER"}};
+    for (String[] invalidNumber : invalidNumbers) {
+      number.clear();
+      assertEquals(invalidNumber[0], PhoneNumberUtil.ParseResult.valueOf(invalidNumber[2]),
+                   phoneUtil.tryParse(invalidNumber[0], invalidNumber[1], number));
+      try {
+        phoneUtil.parse(invalidNumber[0], invalidNumber[1]);
+        fail("This should not parse without throwing an exception " + invalidNumber[0]);
+      } catch (NumberParseException e) {
+        assertEquals(invalidNumber[2], e.getErrorType().name());
+      }
+    }
+  }
+
+  // Numbers made of a plus sign and digits are parsed without looking for anything else in them,
+  // and must end up as the same numbers, or fail for the same reasons, as when a space after the
+  // plus sign makes them go through the general path.
+  public void testParsesE164InputLikeOtherInput() {
+    List<String> numbers = new ArrayList<String>(Arrays.asList(
+        "+16502530000", "+6433316005", "+4402070313000", "+390236618300", "+800", "+0123456",
+        "+4912", "+2103456", "+44123456789012345678", "+5491187654321", "+6111"));
+    Random random = new Random(7);
+    for (int i = 0; i < 5000; i++) {
+      StringBuffer number = new StringBuffer("+");
+      for (int j = random.nextInt(20); j >= 0; j--) {
+        number.append(random.nextInt(10));
+      }
+      numbers.add(number.toString());
+    }
+    String[] regions = {"US", "GB", "IT", null, "ZZ"};
+    PhoneNumber e164Number = new PhoneNumber();
+    PhoneNumber otherNumber = new PhoneNumber();
+    for (String number : numbers) {
+      String otherInput = "+ " + number.substring(1);
+      for (String region : regions) {
+        e164Number.clear();
+        otherNumber.clear();
+        assertEquals(number, phoneUtil.tryParse(otherInput, region, otherNumber),
+                     phoneUtil.tryParse(number, region, e164Number));
+        assertTrue(number, otherNumber.exactlySameAs(e164Number));
+      }
+      try {
+        PhoneNumber keptNumber = phoneUtil.parseAndKeepRawInput(number, "US");
+        assertEquals(number, keptNumber.getRawInput());
+        assertTrue(number, phoneUtil.parseAndKeepRawInput(otherInput, "US").setRawInput(number)
+            .exactlySameAs(keptNumber));
+      } catch (NumberParseException e) {
+        // Both paths failing alike has been checked above.
+      }
+    }
+  }
+
   public void testParseNumbersWithPlusWithNoRegion() throws Exception {
     PhoneNumber nzNumber = new PhoneNumber();
     nzNumber.setCountryCode(64).setNationalNumber(33316005L);
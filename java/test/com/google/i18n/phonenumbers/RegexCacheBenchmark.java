@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the throughput of RegexCache lookups from 1 to 64 threads, compared to the
+ * synchronized LinkedHashMap based LRU cache it replaced. This is not run as part of the unit
+ * tests; run it with:
+ *
+ *   ant test-jar && java -cp build/jar/libphonenumber-test.jar \
+ *       com.google.i18n.phonenumbers.RegexCacheBenchmark [seconds per run]
+ *
+ * The regular expressions looked up are the number format patterns of the real metadata, so that
+ * the hit rate and key lengths are those of a formatting workload spanning many countries.
+ */
+public class RegexCacheBenchmark {
+  private static final int CACHE_SIZE = 100;
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+  private interface Cache {
+    Pattern getPatternForRegex(String regex);
+  }
+
+  // A copy of the implementation of RegexCache before it was made concurrent.
+  private static final class SynchronizedLruCache implements Cache {
+    private final Map<String, Pattern> map;
+
+    @SuppressWarnings("serial")
+    SynchronizedLruCache(final int size) {
+      map = new LinkedHashMap<String, Pattern>(size * 4 / 3 + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+          return size() > size;
+        }
+      };
+    }
+
+    public Pattern getPatternForRegex(String regex) {
+      Pattern pattern;
+      synchronized (this) {
+        pattern = map.get(regex);
+      }
+      if (pattern == null) {
+        pattern = Pattern.compile(regex);
+        synchronized (this) {
+          map.put(regex, pattern);
+        }
+      }
+      return pattern;
+    }
+  }
+
+  private static final class ConcurrentCache implements Cache {
+    private final RegexCache regexCache = new RegexCache(CACHE_SIZE);
+
+    public Pattern getPatternForRegex(String regex) {
+      return regexCache.getPatternForRegex(regex);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    long runMillis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+    List<String> regexes = loadRegexes();
+    System.out.println("Looking up " + regexes.size() + " distinct regular expressions in a " +
+                       "cache of size " + CACHE_SIZE);
+    System.out.println("threads  synchronized LRU (ops/ms)  concurrent CLOCK (ops/ms)");
+    for (int threadCount : THREAD_COUNTS) {
+      double lruThroughput =
+          measure(new SynchronizedLruCache(CACHE_SIZE), regexes, threadCount, runMillis);
+      double clockThroughput = measure(new ConcurrentCache(), regexes, threadCount, runMillis);
+      System.out.println(String.format("%7d  %25.0f  %25.0f", threadCount, lruThroughput,
+                                       clockThroughput));
+    }
+  }
+
+  // Takes the regular expressions of the most common countries first, which is how the lookups
+  // are skewed in practice.
+  private static List<String> loadRegexes() throws Exception {
+    MetadataSource source = new ClasspathMetadataSource(PhoneNumberUtil.META_DATA_FILE);
+    List<String> regexes = new ArrayList<String>();
+    String[] regionCodes = {"US", "GB", "DE", "FR", "IT", "JP", "CN", "IN", "BR", "AU"};
+    for (String regionCode : regionCodes) {
+      PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+      regexes.add(metadata.getGeneralDesc().getNationalNumberPattern());
+      regexes.add(metadata.getGeneralDesc().getPossibleNumberPattern());
+      for (NumberFormat numberFormat : metadata.getNumberFormatList()) {
+        regexes.add(numberFormat.getPattern());
+      }
+    }
+    return regexes;
+  }
+
+  private static double measure(final Cache cache, final List<String> regexes, int threadCount,
+                                long runMillis) throws Exception {
+    // Warm up the cache and the JIT before the measured run.
+    for (int i = 0; i < 100000; i++) {
+      cache.getPatternForRegex(regexes.get(i % regexes.size()));
+    }
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final CyclicBarrier barrier = new CyclicBarrier(threadCount + 1);
+    final long[] opCounts = new long[threadCount];
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      final int threadIndex = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+          } catch (Exception e) {
+            return;
+          }
+          long ops = 0;
+          int index = threadIndex;
+          int size = regexes.size();
+          while (!stop.get()) {
+            for (int j = 0; j < 1000; j++) {
+              cache.getPatternForRegex(regexes.get(index));
+              index = index + 7 < size ? index + 7 : (index + 7) % size;
+            }
+            ops += 1000;
+          }
+          opCounts[threadIndex] = ops;
+        }
+      };
+      threads[i].start();
+    }
+    barrier.await();
+    long startTime = System.nanoTime();
+    Thread.sleep(runMillis);
+    stop.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+    long totalOps = 0;
+    for (long ops : opCounts) {
+      totalOps += ops;
+    }
+    return (double) totalOps / elapsedMillis;
+  }
+}
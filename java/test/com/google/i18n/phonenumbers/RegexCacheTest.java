@@ -52,4 +52,47 @@ public class RegexCacheTest extends TestCase {
     assertFalse(regexCache.containsRegex(regex2));
     assertTrue(regexCache.containsRegex(regex1));
   }
+
+  public void testStats() {
+    RegexCacheStats stats = regexCache.getStats();
+    assertEquals(0, stats.getRequestCount());
+    assertEquals(2, stats.getMaxSize());
+
+    regexCache.getPatternForRegex("[1-5]");
+    regexCache.getPatternForRegex("[1-5]");
+    regexCache.getPatternForRegex("(?:12|34)");
+    regexCache.getPatternForRegex("[1-3][58]");
+    stats = regexCache.getStats();
+    assertEquals(1, stats.getHitCount());
+    assertEquals(3, stats.getMissCount());
+    assertEquals(0.25, stats.getHitRate());
+    assertEquals(1, stats.getEvictionCount());
+    assertEquals(2, stats.getSize());
+    assertTrue(stats.getTotalCompileTime() > 0);
+  }
+
+  public void testStatsCountAllConcurrentLookups() throws Exception {
+    final RegexCache cache = new RegexCache(10);
+    final int lookupsPerThread = 10000;
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < lookupsPerThread; j++) {
+            cache.getPatternForRegex("\\d{" + (j % 5 + 1) + "}");
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    RegexCacheStats stats = cache.getStats();
+    assertEquals(threads.length * lookupsPerThread, stats.getRequestCount());
+    assertEquals(0, stats.getEvictionCount());
+    // Threads missing the same pattern at the same time each compile it.
+    assertTrue(stats.getMissCount() >= 5);
+  }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for RegexOptimizer.
+ */
+public class RegexOptimizerTest extends TestCase {
+
+  public void testRemovesRedundantGroups() {
+    assertEquals("1234", RegexOptimizer.optimize("1(?:23)4"));
+    assertEquals("\\d{3}", RegexOptimizer.optimize("(?:\\d){3}"));
+    assertEquals("12|34", RegexOptimizer.optimize("(?:12|34)"));
+    assertEquals("5(?:12|34)?", RegexOptimizer.optimize("5(?:12|34)?"));
+    // Capturing groups are always kept.
+    assertEquals("(12)", RegexOptimizer.optimize("(12)"));
+  }
+
+  public void testSimplifiesCharacterClasses() {
+    assertEquals("\\d", RegexOptimizer.optimize("[0-9]"));
+    assertEquals("[1-4]", RegexOptimizer.optimize("[1234]"));
+    assertEquals("5", RegexOptimizer.optimize("[5]"));
+    // Classes whose shortest form is no shorter are kept as they were written.
+    assertEquals("[789]", RegexOptimizer.optimize("[789]"));
+    assertEquals("[78]\\d", RegexOptimizer.optimize("[7-8][0-9]"));
+    assertEquals("[1-3][135]", RegexOptimizer.optimize("[1-3][135]"));
+    assertEquals("[125-7]", RegexOptimizer.optimize("1|2|[5-7]"));
+    assertEquals("[^12]", RegexOptimizer.optimize("[^12]"));
+    // Only adjacent alternatives are merged, so that the order of the alternatives is kept.
+    assertEquals("2|23|4", RegexOptimizer.optimize("2|23|4"));
+  }
+
+  public void testFactorsLeadingDigits() {
+    assertEquals("1234(?:5\\d|6\\d{2})", RegexOptimizer.optimize("12345\\d|12346\\d{2}"));
+    assertEquals("1[23]", RegexOptimizer.optimize("12|13"));
+    assertEquals("12?", RegexOptimizer.optimize("12|1"));
+    // The first alternative matches whenever the second one does, so it has to stay first.
+    assertEquals("1|12", RegexOptimizer.optimize("1|12"));
+    // Factoring out a single digit here would only add a group.
+    assertEquals("12\\d|13\\d{2}", RegexOptimizer.optimize("12\\d|13\\d{2}"));
+  }
+
+  public void testLeavesUnsupportedSyntaxAlone() {
+    String[] regexes = {"^1(?:2)$", "\\s(?:1)", "(?=1)(?:2)", "(\\d)(?:\\1)", "1.(?:2)"};
+    for (String regex : regexes) {
+      assertEquals(regex, RegexOptimizer.optimize(regex));
+      assertEquals(regex, -1, RegexOptimizer.estimateCost(regex));
+      assertEquals(regex, 1, RegexOptimizer.lint(regex).size());
+    }
+  }
+
+  public void testEstimateCostAndLint() {
+    assertEquals(3, RegexOptimizer.estimateCost("\\d{3}"));
+    assertEquals(10, RegexOptimizer.estimateCost("(?:1|2\\d){2}\\d{4}"));
+    assertTrue(RegexOptimizer.lint("[2-9]\\d{6,9}").isEmpty());
+    assertEquals(1, RegexOptimizer.lint("(?:\\d+1)*").size());
+    assertEquals(1, RegexOptimizer.lint("(?:(?:\\d{2}|[1-9]){20}){20}").size());
+  }
+
+  // Compares the matches of randomly generated regular expressions with those of their optimized
+  // forms.
+  public void testPreservesMatchesOfRandomRegexes() {
+    Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      String regex = randomAlternatives(random, 2);
+      assertSameMatches(regex, RegexOptimizer.optimize(regex), random);
+    }
+  }
+
+  // Does the same for the regular expressions of the metadata. They have already been optimized,
+  // so optimizing them again should change little, but they are a good sample of real ones.
+  public void testPreservesMatchesOfMetadataRegexes() throws Exception {
+    MetadataSource source = new ClasspathMetadataSource(PhoneNumberUtil.META_DATA_FILE);
+    Random random = new Random(42);
+    for (String regionCode :
+         MetadataBundle.loadFromClasspath(PhoneNumberUtil.META_DATA_FILE).getRegionCodes()) {
+      PhoneMetadata metadata = source.loadMetadataForRegion(regionCode);
+      List<String> regexes = new ArrayList<String>();
+      regexes.add(metadata.getNationalPrefixForParsing());
+      PhoneNumberDesc[] descs = {
+          metadata.getGeneralDesc(), metadata.getFixedLine(), metadata.getMobile(),
+          metadata.getTollFree(), metadata.getPremiumRate(), metadata.getSharedCost(),
+          metadata.getPersonalNumber(), metadata.getVoip(), metadata.getPager() };
+      for (PhoneNumberDesc desc : descs) {
+        regexes.add(desc.getNationalNumberPattern());
+        regexes.add(desc.getPossibleNumberPattern());
+      }
+      for (NumberFormat format : metadata.getNumberFormatList()) {
+        regexes.addAll(format.getLeadingDigitsPatternList());
+      }
+      for (String regex : regexes) {
+        assertSameMatches(regex, RegexOptimizer.optimize(regex), random);
+      }
+    }
+  }
+
+  private static void assertSameMatches(String regex, String optimized, Random random) {
+    Pattern pattern = Pattern.compile(regex);
+    Pattern optimizedPattern = Pattern.compile(optimized);
+    assertEquals(regex, pattern.matcher("").groupCount(),
+                 optimizedPattern.matcher("").groupCount());
+    for (int i = 0; i < 200; i++) {
+      StringBuffer input = new StringBuffer();
+      int length = random.nextInt(12);
+      for (int j = 0; j < length; j++) {
+        // Few different digits make matches likely.
+        input.append((char) ('0' + random.nextInt(i % 2 == 0 ? 4 : 10)));
+      }
+      String message = regex + " -> " + optimized + " on " + input;
+      Matcher m = pattern.matcher(input);
+      Matcher optimizedMatcher = optimizedPattern.matcher(input);
+      assertEquals(message, m.matches(), optimizedMatcher.matches());
+      boolean lookingAt = m.lookingAt();
+      assertEquals(message, lookingAt, optimizedMatcher.lookingAt());
+      if (lookingAt) {
+        assertEquals(message, m.end(), optimizedMatcher.end());
+        for (int group = 1; group <= m.groupCount(); group++) {
+          assertEquals(message, m.group(group), optimizedMatcher.group(group));
+        }
+      }
+    }
+  }
+
+  private static String randomAlternatives(Random random, int depth) {
+    StringBuffer regex = new StringBuffer();
+    int alternatives = 1 + random.nextInt(4);
+    for (int i = 0; i < alternatives; i++) {
+      if (i > 0) {
+        regex.append('|');
+      }
+      int items = random.nextInt(4);
+      for (int j = 0; j < items; j++) {
+        int atom = random.nextInt(depth > 0 ? 8 : 5);
+        if (atom <= 1) {
+          regex.append((char) ('0' + random.nextInt(4)));
+        } else if (atom == 2) {
+          regex.append("\\d");
+        } else if (atom <= 4) {
+          regex.append('[');
+          for (int k = 0; k < 4; k++) {
+            if (random.nextBoolean()) {
+              regex.append((char) ('0' + k));
+            }
+          }
+          regex.append("9]");
+        } else {
+          regex.append(atom == 7 ? "(" : "(?:").append(randomAlternatives(random, depth - 1))
+              .append(')');
+        }
+        String[] quantifiers = {"", "", "", "?", "{2}", "{1,3}", "{0,2}+", "??"};
+        regex.append(quantifiers[random.nextInt(quantifiers.length)]);
+      }
+    }
+    return regex.toString();
+  }
+}